@@ -0,0 +1,21 @@
+#!/bin/bash
+
+rm -rf bench-bin
+mkdir bench-bin
+
+javac -Xlint -d bench-bin `find src bench -name '*.java'`
+if [[ $? != 0 ]] ; then
+  echo javac failed
+  exit 1
+fi
+
+for bench in `cd bench && find . -name '*Benchmark.java'` ; do
+  class=`echo ${bench#./} | sed -e 's/\.java$//' -e 's/\//./g'`
+  java -cp bench-bin $class
+  if [[ $? != 0 ]] ; then
+    echo $class failed
+    exit 2
+  fi
+done
+
+rm -rf bench-bin
@@ -0,0 +1,113 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the bytes allocated per entry by the adding thread, once warmed
+ * up, for the boxing-free adds, which render supported formats without
+ * intermediate objects, and for the boxing add(String, Object...) beside
+ * them. The number of entries measured may be given as the first argument
+ */
+public class AllocationBenchmark {
+
+  private static final int DEFAULT_ENTRIES = 1 << 20;
+  private static final String FORMAT = "request %d took %d us";
+
+  public static void main(String[] args) throws Exception {
+
+    com.sun.management.ThreadMXBean threads;
+    Path directory;
+    int entries;
+
+    entries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+    threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    directory = Files.createTempDirectory("upsilon-log-allocation");
+    try {
+      report(
+          "addLong(String, long, long)",
+          run(threads, directory.resolve("primitive.log"), entries, false)
+          );
+      report(
+          "add(String, Object...)",
+          run(threads, directory.resolve("boxed.log"), entries, true)
+          );
+    }
+    finally {
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * adds the given number of entries twice over, the first time to warm up,
+   * and measures the second
+   *
+   * @return the bytes allocated per entry
+   */
+  private static double run(
+      com.sun.management.ThreadMXBean threads,
+      Path path,
+      int entries,
+      boolean boxed
+      ) {
+
+    Log log;
+    long thread, before, after;
+
+    log = new Log(path.toString(), true);
+    log.setFlushPolicy(FlushPolicy.ENTRY_COUNT);
+    log.setFlushEntryCount(256);
+    thread = Thread.currentThread().getId();
+
+    add(log, entries, boxed);
+    before = threads.getThreadAllocatedBytes(thread);
+    add(log, entries, boxed);
+    after = threads.getThreadAllocatedBytes(thread);
+    log.close();
+
+    return (double) (after - before) / entries;
+  }
+
+  private static void add(Log log, int entries, boolean boxed) {
+    for (int k = 0; k < entries; k++) {
+      if (boxed)
+        log.add(FORMAT, k, (long) k * 7);
+      else
+        log.addLong(FORMAT, k, (long) k * 7);
+    }
+  }
+
+  private static void report(String method, double bytes) {
+    System.out.println(String.format(
+        "AllocationBenchmark: %-28s %8.1f bytes/entry",
+        method,
+        bytes
+        ));
+  }
+
+}
@@ -0,0 +1,137 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Measures how the throughput of Log.add holds up as more threads share
+ * one log, printing entries per second at 1, 4, 16 and 64 threads. Each
+ * run also checks that every entry reached the file as a whole line.
+ * The number of entries per run may be given as the first argument
+ */
+public class ContentionBenchmark {
+
+  private static final int[] THREADS = { 1, 4, 16, 64 };
+  private static final int DEFAULT_ENTRIES = 1 << 20;
+
+  public static void main(String[] args) throws Exception {
+
+    Path directory;
+    int entries;
+    double rate;
+
+    entries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+    directory = Files.createTempDirectory("upsilon-log-contention");
+    try {
+      /* once at the lowest and highest counts to warm the code up */
+      run(directory.resolve("warm-up.log"), 1, entries / 4);
+      run(directory.resolve("warm-up.log"), 64, entries / 4);
+
+      for (int threads : THREADS) {
+        rate = run(directory.resolve(threads + ".log"), threads, entries);
+        System.out.println(String.format(
+            "ContentionBenchmark: %2d threads, %,12.0f entries/s",
+            threads,
+            rate
+            ));
+      }
+    }
+    finally {
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * has the given number of threads add the given number of entries
+   * between them to a fresh log
+   *
+   * @return the number of entries added per second
+   */
+  private static double run(Path path, int threads, int entries)
+      throws Exception {
+
+    Log log;
+    Thread[] workers;
+    CountDownLatch ready, start;
+    long begin, elapsed, lines;
+    int each;
+
+    Files.deleteIfExists(path);
+    log = new Log(path.toString(), true);
+    log.setFlushPolicy(FlushPolicy.ENTRY_COUNT);
+    log.setFlushEntryCount(256);
+
+    each = entries / threads;
+    ready = new CountDownLatch(threads);
+    start = new CountDownLatch(1);
+    workers = new Thread[threads];
+    for (int k = 0; k < threads; k++) {
+      final int worker = k;
+      workers[k] = new Thread(() -> {
+        try {
+          ready.countDown();
+          start.await();
+          for (int i = 0; i < each; i++)
+            log.addLong("worker %d entry %d", worker, i);
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      workers[k].start();
+    }
+
+    ready.await();
+    begin = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers)
+      worker.join();
+    log.close();
+    elapsed = System.nanoTime() - begin;
+
+    lines = countEntries(path);
+    if (lines != (long) each * threads)
+      throw new AssertionError(String.format(
+          "%d threads: %d of %d entries written whole",
+          threads,
+          lines,
+          (long) each * threads
+          ));
+
+    return (long) each * threads * 1e9 / elapsed;
+  }
+
+  private static long countEntries(Path path) throws IOException {
+    try (Stream<String> lines = Files.lines(path)) {
+      return lines.filter(line -> line.matches(".* : worker \\d+ entry \\d+"))
+        .count();
+    }
+  }
+
+}
@@ -0,0 +1,230 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A growable double ended queue of primitive chars, kept in a ring so that
+ * characters can be pushed onto and taken from the front without boxing or
+ * allocating per character. The same ring is filled in blocks straight from
+ * a reader, so characters read ahead and characters put back share one
+ * buffer
+ */
+final class CharDeque {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private char[] ring;
+  private int head;
+  private int size;
+
+  CharDeque(int capacity) {
+
+    int length;
+
+    length = INITIAL_CAPACITY;
+    while (length < capacity) {
+      length <<= 1;
+      if (length <= 0)
+        throw new IllegalArgumentException("capacity too large");
+    }
+
+    this.ring = new char[length];
+    this.head = 0;
+    this.size = 0;
+  }
+
+  boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  char get(int index) {
+    if (index < 0 || index >= this.size)
+      throw new IndexOutOfBoundsException(Integer.toString(index));
+
+    return this.ring[(this.head + index) & (this.ring.length - 1)];
+  }
+
+  /* returns the position of the first c from the front, or -1 */
+  int indexOf(char c) {
+
+    int first;
+
+    first = Math.min(this.size, this.ring.length - this.head);
+    for (int k = 0; k < first; k++) {
+      if (this.ring[this.head + k] == c)
+        return k;
+    }
+    for (int k = first; k < this.size; k++) {
+      if (this.ring[k - first] == c)
+        return k;
+    }
+
+    return -1;
+  }
+
+  void addFirst(char c) {
+    ensureCapacity(this.size + 1);
+    this.head = (this.head - 1) & (this.ring.length - 1);
+    this.ring[this.head] = c;
+    this.size++;
+  }
+
+  /* places the whole sequence in front of the current contents, so that its
+   * first character is the next one taken */
+  void addFirst(CharSequence chars) {
+    addFirst(chars, 0, chars.length());
+  }
+
+  void addFirst(CharSequence chars, int start, int end) {
+
+    int length;
+    int mask;
+    int index;
+
+    length = end - start;
+    ensureCapacity(this.size + length);
+    mask = this.ring.length - 1;
+    this.head = (this.head - length) & mask;
+    index = this.head;
+    for (int k = start; k < end; k++) {
+      this.ring[index] = chars.charAt(k);
+      index = (index + 1) & mask;
+    }
+    this.size += length;
+  }
+
+  char pollFirst() {
+
+    char ret;
+
+    if (this.size == 0)
+      throw new IllegalStateException("deque is empty");
+
+    ret = this.ring[this.head];
+    this.head = (this.head + 1) & (this.ring.length - 1);
+    this.size--;
+
+    return ret;
+  }
+
+  /* moves up to length characters from the front into buffer, returning how
+   * many were moved */
+  int pollFirst(char[] buffer, int offset, int length) {
+
+    int count;
+    int first;
+
+    count = Math.min(length, this.size);
+    first = Math.min(count, this.ring.length - this.head);
+    System.arraycopy(this.ring, this.head, buffer, offset, first);
+    System.arraycopy(this.ring, 0, buffer, offset + first, count - first);
+    this.head = (this.head + count) & (this.ring.length - 1);
+    this.size -= count;
+
+    return count;
+  }
+
+  /* moves up to count characters from the front onto the end of builder,
+   * returning how many were moved */
+  int pollFirst(StringBuilder builder, int count) {
+
+    int first;
+
+    count = Math.min(count, this.size);
+    first = Math.min(count, this.ring.length - this.head);
+    builder.append(this.ring, this.head, first);
+    builder.append(this.ring, 0, count - first);
+    this.head = (this.head + count) & (this.ring.length - 1);
+    this.size -= count;
+
+    return count;
+  }
+
+  /* drops up to count characters from the front, returning how many were
+   * dropped */
+  int skipFirst(long count) {
+
+    int skipped;
+
+    skipped = (int) Math.min(count, this.size);
+    this.head = (this.head + skipped) & (this.ring.length - 1);
+    this.size -= skipped;
+
+    return skipped;
+  }
+
+  /* reads one block of at most length characters from reader onto the end,
+   * returning the count read or -1 at the end of the stream */
+  int fill(Reader reader, int length) throws IOException {
+
+    int tail;
+    int read;
+
+    ensureCapacity(this.size + length);
+    if (this.size == 0)
+      this.head = 0;
+
+    tail = (this.head + this.size) & (this.ring.length - 1);
+    read = reader.read(
+        this.ring,
+        tail,
+        Math.min(length, this.ring.length - tail)
+        );
+    if (read > 0)
+      this.size += read;
+
+    return read;
+  }
+
+  private void ensureCapacity(int capacity) {
+
+    char[] grown;
+    int length;
+    int first;
+
+    if (capacity <= this.ring.length)
+      return;
+    if (capacity < 0)
+      throw new OutOfMemoryError("deque too large");
+
+    length = this.ring.length;
+    while (length < capacity) {
+      length <<= 1;
+      if (length <= 0)
+        throw new OutOfMemoryError("deque too large");
+    }
+
+    grown = new char[length];
+    first = Math.min(this.size, this.ring.length - this.head);
+    System.arraycopy(this.ring, this.head, grown, 0, first);
+    System.arraycopy(this.ring, 0, grown, first, this.size - first);
+    this.ring = grown;
+    this.head = 0;
+  }
+
+}
@@ -0,0 +1,250 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.io;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A set of delimiters compiled once into an Aho-Corasick automaton, so that
+ * a DemandReader can scan for all of them in a single pass doing constant
+ * work per character, however many delimiters the set holds. A compiled set
+ * is immutable and may be shared between readers and threads
+ */
+public final class DelimiterSet {
+
+  private static final int ASCII = 128;
+
+  private final String[] delimiters;
+  private final boolean ignoreCase;
+  private final int maxLength;
+
+  /* per state: sorted edge labels and targets, the failure link, the lowest
+   * delimiter index ending here (following failure links) and a full
+   * transition row for ascii input */
+  private char[][] labels;
+  private int[][] targets;
+  private int[] fail;
+  private int[] match;
+  private int[] ascii;
+  private int stateCount;
+
+  private DelimiterSet(String[] delimiters, boolean ignoreCase) {
+
+    int max;
+
+    if (delimiters == null || delimiters.length == 0)
+      throw new IllegalArgumentException("delimiters cannot be null or empty");
+
+    max = 0;
+    for (String delimiter : delimiters) {
+      if (delimiter == null || delimiter.isEmpty())
+        throw new IllegalArgumentException(
+            "delimiters cannot contain null or empty strings"
+            );
+      max = Math.max(max, delimiter.length());
+    }
+
+    this.delimiters = delimiters.clone();
+    this.ignoreCase = ignoreCase;
+    this.maxLength = max;
+
+    build();
+  }
+
+  public static DelimiterSet of(String... delimiters) {
+    return new DelimiterSet(delimiters, false);
+  }
+
+  public static DelimiterSet ofIgnoreCase(String... delimiters) {
+    return new DelimiterSet(delimiters, true);
+  }
+
+  public int size() {
+    return this.delimiters.length;
+  }
+
+  public String get(int index) {
+    return this.delimiters[index];
+  }
+
+  public boolean isIgnoreCase() {
+    return this.ignoreCase;
+  }
+
+  public int getMaxLength() {
+    return this.maxLength;
+  }
+
+  int start() {
+    return 0;
+  }
+
+  int next(int state, char c) {
+    return step(state, this.ignoreCase ? fold(c) : c);
+  }
+
+  /* the index of the delimiter that ends at state, or -1 */
+  int match(int state) {
+    return this.match[state];
+  }
+
+  int length(int delimiter) {
+    return this.delimiters[delimiter].length();
+  }
+
+  private int step(int state, char c) {
+
+    int target;
+
+    if (c < ASCII)
+      return this.ascii[state * ASCII + c];
+
+    while ((target = child(state, c)) == -1 && state != 0)
+      state = this.fail[state];
+
+    return target == -1 ? 0 : target;
+  }
+
+  private void build() {
+
+    ArrayDeque<Integer> queue;
+    int total;
+    int state;
+    int target;
+    int failure;
+    char c;
+
+    total = 1;
+    for (String delimiter : this.delimiters)
+      total += delimiter.length();
+
+    this.labels = new char[total][];
+    this.targets = new int[total][];
+    this.fail = new int[total];
+    this.match = new int[total];
+    this.stateCount = 1;
+    this.labels[0] = new char[0];
+    this.targets[0] = new int[0];
+    Arrays.fill(this.match, -1);
+
+    for (int k = 0; k < this.delimiters.length; k++) {
+      state = 0;
+      for (int i = 0; i < this.delimiters[k].length(); i++) {
+        c = this.delimiters[k].charAt(i);
+        if (this.ignoreCase)
+          c = fold(c);
+        target = child(state, c);
+        if (target == -1)
+          target = addChild(state, c);
+        state = target;
+      }
+      if (this.match[state] == -1)
+        this.match[state] = k;
+    }
+
+    this.ascii = new int[this.stateCount * ASCII];
+    queue = new ArrayDeque<>();
+    for (int k = 0; k < this.labels[0].length; k++) {
+      this.fail[this.targets[0][k]] = 0;
+      queue.add(this.targets[0][k]);
+    }
+    for (c = 0; c < ASCII; c++) {
+      target = child(0, c);
+      this.ascii[c] = target == -1 ? 0 : target;
+    }
+
+    while (!queue.isEmpty()) {
+      state = queue.remove();
+
+      failure = this.fail[state];
+      if (this.match[failure] != -1 &&
+          (this.match[state] == -1 || this.match[failure] < this.match[state]))
+        this.match[state] = this.match[failure];
+
+      for (int k = 0; k < this.labels[state].length; k++) {
+        c = this.labels[state][k];
+        target = this.targets[state][k];
+        this.fail[target] = step(failure, c);
+        queue.add(target);
+      }
+      for (c = 0; c < ASCII; c++) {
+        target = child(state, c);
+        this.ascii[state * ASCII + c] = target == -1
+          ? this.ascii[failure * ASCII + c]
+          : target;
+      }
+    }
+
+    this.labels = Arrays.copyOf(this.labels, this.stateCount);
+    this.targets = Arrays.copyOf(this.targets, this.stateCount);
+  }
+
+  private int child(int state, char c) {
+
+    int index;
+
+    index = Arrays.binarySearch(this.labels[state], c);
+
+    return index < 0 ? -1 : this.targets[state][index];
+  }
+
+  private int addChild(int state, char c) {
+
+    char[] oldLabels;
+    int[] oldTargets;
+    int index;
+    int created;
+
+    oldLabels = this.labels[state];
+    oldTargets = this.targets[state];
+    index = -Arrays.binarySearch(oldLabels, c) - 1;
+
+    this.labels[state] = new char[oldLabels.length + 1];
+    this.targets[state] = new int[oldTargets.length + 1];
+    System.arraycopy(oldLabels, 0, this.labels[state], 0, index);
+    System.arraycopy(oldTargets, 0, this.targets[state], 0, index);
+    System.arraycopy(
+        oldLabels, index,
+        this.labels[state], index + 1,
+        oldLabels.length - index
+        );
+    System.arraycopy(
+        oldTargets, index,
+        this.targets[state], index + 1,
+        oldTargets.length - index
+        );
+
+    created = this.stateCount++;
+    this.labels[state][index] = c;
+    this.targets[state][index] = created;
+    this.labels[created] = new char[0];
+    this.targets[created] = new int[0];
+
+    return created;
+  }
+
+  /* the same folding String.equalsIgnoreCase applies to each char */
+  private static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+}
@@ -28,20 +28,35 @@ import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import upsilon.tools.ArrayTools;
 import upsilon.tools.StringTools;
+import upsilon.types.CharPredicate;
 import upsilon.types.Ptr;
 
 public class DemandReader implements AutoCloseable {
 
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
   private InputStreamReader reader;
-  private LinkedList<Character> hold;
+  private final CharDeque hold;
+  private final int bufferSize;
 
   public DemandReader(InputStreamReader reader) {
+    this(reader, DEFAULT_BUFFER_SIZE);
+  }
+
+  public DemandReader(InputStreamReader reader, int bufferSize) {
     
     if (reader == null)
       throw new IllegalArgumentException("reader cannot be null");
+    if (bufferSize <= 0)
+      throw new IllegalArgumentException("bufferSize must be positive");
 
     this.reader = reader;
-    this.hold = new LinkedList<>();
+    this.bufferSize = bufferSize;
+    this.hold = new CharDeque(bufferSize);
+  }
+
+  public int getBufferSize() {
+    return this.bufferSize;
   }
 
   @Override
@@ -56,44 +71,69 @@ public class DemandReader implements AutoCloseable {
   public void skip(long count) throws IOException {
     assertNotClosed();
 
-    reader.skip(count);
+    count -= hold.skipFirst(count);
+    if (count > 0)
+      reader.skip(count);
   }
 
   public void putBack(char c) {
-    this.hold.add(0, c);
+    this.hold.addFirst(c);
   }
-  public void putBack(String string) {
-    for (int k = string.length() - 1; k >= 0; k--) {
-      this.hold.add(0, string.charAt(k));
-    }
+  public void putBack(CharSequence chars) {
+
+    if (chars == null)
+      throw new IllegalArgumentException("chars cannot be null");
+
+    this.hold.addFirst(chars);
   }
 
   public char getNext() throws IOException {
     
-    final Ptr<Character> ptr;
+    int read;
 
-    ptr = new Ptr<>();
-    if (!tryGetNext(ptr))
+    assertNotClosed();
+
+    read = read();
+    if (read == -1)
       throw new IllegalStateException("no next value");
 
-    return ptr.value;
+    return (char) read;
   }
 
-  public boolean hasMore() throws IOException {
+  public int read(char[] buffer, int offset, int length) throws IOException {
 
+    int count;
     int read;
 
-    if (!this.hold.isEmpty())
-      return true;
+    if (buffer == null)
+      throw new IllegalArgumentException("buffer cannot be null");
+    if (offset < 0 || length < 0 || length > buffer.length - offset)
+      throw new IllegalArgumentException("offset or length out of bounds");
+
+    assertNotClosed();
+
+    if (length == 0)
+      return 0;
+
+    count = this.hold.pollFirst(buffer, offset, length);
+    if (count == length || (count > 0 && !reader.ready()))
+      return count;
+
+    if (length - count >= this.bufferSize)
+      read = reader.read(buffer, offset + count, length - count);
+    else if (fill())
+      read = this.hold.pollFirst(buffer, offset + count, length - count);
+    else
+      read = -1;
 
-    read = reader.read();
     if (read == -1)
-      return false;
-    else {
-      putBack((char) read);
-      return true;
-    }
-    
+      return count == 0 ? -1 : count;
+
+    return count + read;
+  }
+
+  public boolean hasMore() throws IOException {
+    return !this.hold.isEmpty() || fill();
   }
   
   public boolean tryGetNext(Ptr<Character> ptr) throws IOException {
@@ -102,12 +142,7 @@ public class DemandReader implements AutoCloseable {
 
     assertNotClosed();
 
-    if (!this.hold.isEmpty()) {
-      ptr.value = hold.remove(0);
-      return true;
-    }
-    
-    read = reader.read();
+    read = read();
     if (read == -1)
       return false;
     else {
@@ -117,7 +152,21 @@ public class DemandReader implements AutoCloseable {
   }
 
   public String readUntil(char c) throws IOException {
-    return readUntil(r -> r == c);
+
+    StringBuilder sb;
+    int index;
+
+    assertNotClosed();
+    sb = new StringBuilder();
+
+    while ((index = this.hold.indexOf(c)) == -1) {
+      this.hold.pollFirst(sb, this.hold.size());
+      if (!fill())
+        throw new IllegalStateException("no next value");
+    }
+    this.hold.pollFirst(sb, index);
+
+    return sb.toString();
   }
 
   public String readUntil(
@@ -179,36 +228,123 @@ public class DemandReader implements AutoCloseable {
   }
   
   public String readUntil(String string) throws IOException {
-    return readUntil(new String[] { string }, String::equals);
+    return readUntil(new HorspoolSearch(string, false));
   }
 
   public String readUntilIgnoreCase(String string) throws IOException {
-    return readUntil(new String[] { string }, String::equalsIgnoreCase);
+    return readUntil(new HorspoolSearch(string, true));
   }
 
   public String readUntilAny(String... strings) throws IOException {
-    return readUntil(strings, String::equals);
+    return readUntil(DelimiterSet.of(strings));
   }
 
   public String readUntilAnyIgnoreCase(String... strings) throws IOException {
-    return readUntil(strings, String::equalsIgnoreCase);
+    return readUntil(DelimiterSet.ofIgnoreCase(strings));
   }
 
+  public String readUntil(DelimiterSet delimiters) throws IOException {
+
+    StringBuilder sb;
+    int state;
+    int size;
+    int matched;
+    int start;
+
+    if (delimiters == null)
+      throw new IllegalArgumentException("delimiters cannot be null");
 
+    assertNotClosed();
+    sb = new StringBuilder();
+    state = delimiters.start();
+
+    for (;;) {
+      if (this.hold.isEmpty() && !fill())
+        throw new IllegalStateException("no next value");
+
+      size = this.hold.size();
+      for (int k = 0; k < size; k++) {
+        state = delimiters.next(state, this.hold.get(k));
+        matched = delimiters.match(state);
+        if (matched == -1)
+          continue;
+
+        /* the delimiter may have begun in an earlier block, whose characters
+         * are already in sb, so those are handed back to the hold */
+        start = k + 1 - delimiters.length(matched);
+        if (start >= 0)
+          this.hold.pollFirst(sb, start);
+        else {
+          this.hold.addFirst(sb, sb.length() + start, sb.length());
+          sb.setLength(sb.length() + start);
+        }
+        return sb.toString();
+      }
+      this.hold.pollFirst(sb, size);
+    }
+  }
+
+
+
+  private String readUntil(HorspoolSearch search) throws IOException {
+
+    StringBuilder sb;
+    int position;
+    int shift;
+
+    assertNotClosed();
+    sb = new StringBuilder();
+    position = 0;
+
+    for (;;) {
+      while (this.hold.size() < position + search.length()) {
+        position -= this.hold.pollFirst(sb, position);
+        if (this.hold.fill(reader, this.bufferSize) <= 0)
+          throw new IllegalStateException("no next value");
+      }
+
+      shift = search.shift(this.hold, position);
+      if (shift == 0) {
+        this.hold.pollFirst(sb, position);
+        return sb.toString();
+      }
+      position += shift;
+    }
+  }
 
   public String readUntil(Predicate<Character> predicate) throws IOException {
 
+    if (predicate == null)
+      throw new IllegalArgumentException("predicate cannot be null");
+
+    return readUntilChar(predicate::test);
+  }
+
+  public String readUntilChar(CharPredicate predicate) throws IOException {
+
     StringBuilder sb;
-    char read;
+    int size;
+    int index;
+
+    if (predicate == null)
+      throw new IllegalArgumentException("predicate cannot be null");
 
     assertNotClosed();
     sb = new StringBuilder();
 
-    while (!predicate.test(read = getNext()))
-      sb.append(read);
-    putBack(read);
+    for (;;) {
+      if (this.hold.isEmpty() && !fill())
+        throw new IllegalStateException("no next value");
 
-    return sb.toString();
+      size = this.hold.size();
+      for (index = 0; index < size; index++) {
+        if (predicate.test(this.hold.get(index)))
+          break;
+      }
+      this.hold.pollFirst(sb, index);
+      if (index < size)
+        return sb.toString();
+    }
   }
 
   public boolean accept(char value) throws IOException {
@@ -241,6 +377,17 @@ public class DemandReader implements AutoCloseable {
     return true;
   }
 
+  private int read() throws IOException {
+    if (this.hold.isEmpty() && !fill())
+      return -1;
+    
+    return this.hold.pollFirst();
+  }
+
+  private boolean fill() throws IOException {
+    return this.hold.fill(reader, this.bufferSize) > 0;
+  }
+
   private void assertNotClosed() {
     if (this.reader == null)
       throw new IllegalStateException("DemandReader object is closed");
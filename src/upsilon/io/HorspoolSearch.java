@@ -0,0 +1,92 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.io;
+
+import java.util.Arrays;
+
+/**
+ * A single delimiter prepared for Boyer-Moore-Horspool search, so that a
+ * scan can jump ahead by up to the delimiter's length on each mismatch
+ * rather than examining every character
+ */
+final class HorspoolSearch {
+
+  /* characters share shift slots by their low byte, each slot holding the
+   * smallest shift of any character mapped to it, which is always safe */
+  private static final int SLOTS = 256;
+
+  private final char[] pattern;
+  private final boolean ignoreCase;
+  private final int[] shifts;
+
+  HorspoolSearch(String delimiter, boolean ignoreCase) {
+
+    int last;
+
+    if (delimiter == null || delimiter.isEmpty())
+      throw new IllegalArgumentException("delimiter cannot be null or empty");
+
+    this.ignoreCase = ignoreCase;
+    this.pattern = new char[delimiter.length()];
+    for (int k = 0; k < this.pattern.length; k++)
+      this.pattern[k] = fold(delimiter.charAt(k));
+
+    last = this.pattern.length - 1;
+    this.shifts = new int[SLOTS];
+    Arrays.fill(this.shifts, this.pattern.length);
+    for (int k = 0; k < last; k++)
+      this.shifts[this.pattern[k] & (SLOTS - 1)] = last - k;
+  }
+
+  int length() {
+    return this.pattern.length;
+  }
+
+  /* the distance the window starting at position may move on, 0 when the
+   * delimiter is found there; hold must contain the whole window */
+  int shift(CharDeque hold, int position) {
+
+    char c;
+    int last;
+
+    last = this.pattern.length - 1;
+    c = fold(hold.get(position + last));
+    if (c == this.pattern[last]) {
+      for (int k = last - 1; ; k--) {
+        if (k < 0)
+          return 0;
+        if (fold(hold.get(position + k)) != this.pattern[k])
+          break;
+      }
+    }
+
+    return this.shifts[c & (SLOTS - 1)];
+  }
+
+  /* the same folding String.equalsIgnoreCase applies to each char */
+  private char fold(char c) {
+    if (!this.ignoreCase)
+      return c;
+
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+}
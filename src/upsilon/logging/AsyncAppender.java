@@ -0,0 +1,571 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of pending log entries, drained in batches either by
+ * a dedicated background thread or, when given an executor, by tasks
+ * submitted to it whenever entries are waiting. All slots, including a
+ * character buffer for each entry's text, are allocated up front and
+ * reused, so that enqueueing an entry does not allocate once the buffers
+ * have grown to size.
+ *
+ * If the writer thread dies, or the queue is found full and nothing has been
+ * taken from it for longer than the stall timeout, the appender falls back
+ * to an emergency mode for the rest of its life: the thread which notices
+ * writes out every queued entry itself, and all further entries are refused
+ * so that their callers write them synchronously
+ */
+class AsyncAppender {
+
+  interface BatchWriter {
+    void write(
+        String[] levels,
+        CharSequence[] lines,
+        CharSequence[] fields,
+        long[] timestamps,
+        int count
+        ) throws Exception;
+  }
+
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final int MAX_BATCHES_PER_TASK = 16;
+  private static final int MAX_RETAINED_LINE = 1 << 12;
+
+  private final BatchWriter writer;
+  /**
+   * Entries taken from the queue to be written together
+   */
+  private static class Batch {
+    final String[] levels;
+    final StringBuilder[] lines, fields;
+    final long[] timestamps;
+
+    Batch(int size) {
+      this.levels = new String [size];
+      this.lines = new StringBuilder [size];
+      this.fields = new StringBuilder [size];
+      this.timestamps = new long [size];
+      for (int k = 0; k < size; k++)
+        this.lines[k] = new StringBuilder();
+    }
+  }
+
+  private final OverflowPolicy policy;
+  private final String[] levels;
+  private final StringBuilder[] lines, fields;
+  private final long[] timestamps;
+  private final Batch batch;
+  private final long stallNanos;
+  private final ReentrantLock lock;
+  private final Condition notEmpty, notFull, idle;
+  private final AtomicLong dropped;
+  private final MetricsRecorder metrics;
+  private final Thread thread;
+  private final Executor executor;
+  private int head, count, highWaterMark;
+  private long lastProgressNanos;
+  private boolean busy, stopping, scheduled;
+  private volatile boolean emergency;
+
+  AsyncAppender(
+      String name,
+      int capacity,
+      OverflowPolicy policy,
+      long stallMillis,
+      AtomicLong dropped,
+      MetricsRecorder metrics,
+      BatchWriter writer,
+      Executor executor
+      ) {
+
+    int batchSize;
+
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive");
+    if (policy == null)
+      throw new IllegalArgumentException("policy cannot be null");
+    if (stallMillis <= 0)
+      throw new IllegalArgumentException("stall timeout must be positive");
+    if (dropped == null)
+      throw new IllegalArgumentException("dropped cannot be null");
+    if (metrics == null)
+      throw new IllegalArgumentException("metrics cannot be null");
+    if (writer == null)
+      throw new IllegalArgumentException("writer cannot be null");
+
+    batchSize = Math.min(capacity, MAX_BATCH_SIZE);
+
+    this.writer = writer;
+    this.policy = policy;
+    this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+    this.levels = new String [capacity];
+    this.lines = new StringBuilder [capacity];
+    this.timestamps = new long [capacity];
+    this.fields = new StringBuilder [capacity];
+    this.batch = new Batch(batchSize);
+    this.lock = new ReentrantLock();
+    this.notEmpty = this.lock.newCondition();
+    this.notFull = this.lock.newCondition();
+    this.idle = this.lock.newCondition();
+    this.dropped = dropped;
+    this.metrics = metrics;
+    for (int k = 0; k < capacity; k++)
+      this.lines[k] = new StringBuilder();
+    this.head = 0;
+    this.count = 0;
+    this.highWaterMark = 0;
+    this.lastProgressNanos = System.nanoTime();
+    this.busy = false;
+    this.stopping = false;
+    this.scheduled = false;
+    this.emergency = false;
+    this.executor = executor;
+
+    if (executor == null) {
+      this.thread = new Thread(this::run, name);
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+    else
+      this.thread = null;
+  }
+
+  int getCapacity() {
+    return this.levels.length;
+  }
+
+  OverflowPolicy getPolicy() {
+    return this.policy;
+  }
+
+  /**
+   * gets whether the writer has been given up on, so that entries are
+   * written by the threads adding them
+   */
+  boolean isEmergency() {
+    return this.emergency;
+  }
+
+  int size() {
+    this.lock.lock();
+    try {
+      return this.count;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * enqueues an entry. In emergency mode, any entries still queued are first
+   * written by the calling thread
+   *
+   * @return false if the entry was not accepted and must be written by the
+   *         calling thread instead
+   */
+  boolean offer(
+      String level,
+      CharSequence line,
+      CharSequence fields,
+      long timestamp
+      ) {
+
+    if (!this.emergency && enqueue(level, line, fields, timestamp))
+      return true;
+
+    if (this.emergency)
+      rescue();
+    return false;
+  }
+
+  private boolean enqueue(
+      String level,
+      CharSequence line,
+      CharSequence fields,
+      long timestamp
+      ) {
+
+    int tail;
+
+    this.lock.lock();
+    try {
+
+      while (this.count == this.levels.length) {
+
+        if (this.stopping)
+          return false;
+        if (checkStalled())
+          return false;
+
+        switch (this.policy) {
+          case BLOCK:
+            try {
+              this.notFull.awaitNanos(this.stallNanos);
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              this.dropped.incrementAndGet();
+              return true;
+            }
+            break;
+          case DROP_NEWEST:
+            this.dropped.incrementAndGet();
+            return true;
+          case DROP_OLDEST:
+            this.levels[this.head] = null;
+            this.head = (this.head + 1) % this.levels.length;
+            this.count--;
+            this.dropped.incrementAndGet();
+            break;
+          case CALLER_RUNS:
+            return false;
+          default:
+            throw new IllegalStateException();
+        }
+      }
+
+      if (this.stopping || this.emergency)
+        return false;
+
+      tail = (this.head + this.count) % this.levels.length;
+      this.levels[tail] = level;
+      this.lines[tail].setLength(0);
+      this.lines[tail].append(line);
+      if (fields != null && fields.length() != 0) {
+        if (this.fields[tail] == null)
+          this.fields[tail] = new StringBuilder();
+        this.fields[tail].setLength(0);
+        this.fields[tail].append(fields);
+      }
+      else if (this.fields[tail] != null)
+        this.fields[tail].setLength(0);
+      this.timestamps[tail] = timestamp;
+      if (this.count == 0)
+        this.lastProgressNanos = System.nanoTime();
+      this.count++;
+      if (this.count > this.highWaterMark) {
+        this.highWaterMark = this.count;
+        this.metrics.queueDepth(this.count);
+      }
+      if (this.executor == null)
+        this.notEmpty.signal();
+      else if (!this.scheduled)
+        schedule();
+
+      return true;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * waits until every entry enqueued so far has been handed to the writer,
+   * or written by the calling thread if the writer has stalled
+   */
+  void drain() throws InterruptedException {
+    awaitIdle(0);
+    if (this.emergency)
+      rescue();
+  }
+
+  /**
+   * stops accepting entries and waits until all pending ones are written.
+   * If the timeout is positive and the writer has not finished by then, the
+   * entries it has not yet taken are written by the calling thread
+   *
+   * @param timeoutMillis the longest time to wait for the writer, or zero to
+   *                      wait for as long as it keeps making progress
+   */
+  void stop(long timeoutMillis) throws InterruptedException {
+    this.lock.lock();
+    try {
+      this.stopping = true;
+      this.notEmpty.signalAll();
+      this.notFull.signalAll();
+    }
+    finally {
+      this.lock.unlock();
+    }
+
+    if (Thread.currentThread() != this.thread)
+      awaitIdle(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    rescue();
+  }
+
+  /**
+   * waits until the writer is idle, has stalled, or the given time is up
+   *
+   * @param timeoutNanos the longest time to wait, or zero for no limit
+   */
+  private void awaitIdle(long timeoutNanos) throws InterruptedException {
+
+    long deadline;
+
+    deadline = System.nanoTime() + timeoutNanos;
+    this.lock.lock();
+    try {
+      while (
+          (this.count != 0 || this.busy)
+          && isRunning()
+          && !checkStalled()
+          ) {
+        if (timeoutNanos > 0 && System.nanoTime() - deadline >= 0)
+          return;
+        this.idle.await(100, TimeUnit.MILLISECONDS);
+      }
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * enters emergency mode if the writer has died, or has taken nothing from
+   * the queue for longer than the stall timeout while there was something to
+   * take or it was busy writing. The lock must be held
+   *
+   * @return true if in emergency mode
+   */
+  private boolean checkStalled() {
+    if (
+        !this.emergency
+        && (this.count != 0 || this.busy)
+        && System.nanoTime() - this.lastProgressNanos > this.stallNanos
+        )
+      this.emergency = true;
+
+    return this.emergency;
+  }
+
+  /**
+   * writes every queued entry on the calling thread
+   */
+  private void rescue() {
+
+    Batch batch;
+    int taken;
+
+    batch = null;
+    do {
+      this.lock.lock();
+      try {
+        if (this.count != 0 && batch == null)
+          batch = new Batch(this.batch.levels.length);
+        taken = take(batch);
+        if (this.count == 0 && !this.busy)
+          this.idle.signalAll();
+      }
+      finally {
+        this.lock.unlock();
+      }
+      if (taken != 0)
+        write(batch, taken);
+    } while (taken != 0);
+  }
+
+  private boolean isRunning() {
+    if (this.thread != null)
+      return this.thread.isAlive();
+    else
+      return this.scheduled;
+  }
+
+  /**
+   * submits a drain task to the executor. The lock must be held
+   */
+  private void schedule() {
+    this.scheduled = true;
+    try {
+      this.executor.execute(this::runTask);
+    }
+    catch (RejectedExecutionException e) {
+      this.scheduled = false;
+      this.dropped.addAndGet(this.count);
+      clear();
+    }
+  }
+
+  private void runTask() {
+    for (int k = 0; k < MAX_BATCHES_PER_TASK; k++) {
+      if (!writeBatch(false))
+        return;
+    }
+
+    this.lock.lock();
+    try {
+      if (this.count == 0) {
+        this.scheduled = false;
+        this.busy = false;
+        this.idle.signalAll();
+      }
+      else
+        schedule();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void run() {
+    try {
+      while (writeBatch(true))
+        ;
+    }
+    finally {
+      this.lock.lock();
+      try {
+        if (!this.stopping || this.count != 0)
+          this.emergency = true;
+        this.busy = false;
+        this.notFull.signalAll();
+        this.idle.signalAll();
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * takes and writes one batch of entries
+   *
+   * @param wait whether to wait for entries if there are none
+   * @return false if there were no entries and there will be no more
+   */
+  private boolean writeBatch(boolean wait) {
+
+    int taken;
+
+    this.lock.lock();
+    try {
+      while (this.count == 0) {
+        this.busy = false;
+        this.idle.signalAll();
+        if (!wait) {
+          this.scheduled = false;
+          return false;
+        }
+        if (this.stopping)
+          return false;
+        this.notEmpty.awaitUninterruptibly();
+      }
+
+      taken = take(this.batch);
+      this.busy = true;
+    }
+    finally {
+      this.lock.unlock();
+    }
+
+    write(this.batch, taken);
+
+    return true;
+  }
+
+  /**
+   * moves as many queued entries as fit into the given batch, swapping their
+   * buffers with the batch's. The lock must be held
+   *
+   * @return the number of entries taken
+   */
+  private int take(Batch batch) {
+
+    StringBuilder swapped, swappedFields;
+    int taken;
+
+    if (this.count == 0)
+      return 0;
+
+    taken = Math.min(this.count, batch.levels.length);
+    for (int k = 0; k < taken; k++) {
+      swapped = batch.lines[k];
+      swappedFields = batch.fields[k];
+      batch.levels[k] = this.levels[this.head];
+      batch.lines[k] = this.lines[this.head];
+      batch.fields[k] = this.fields[this.head];
+      batch.timestamps[k] = this.timestamps[this.head];
+      this.levels[this.head] = null;
+      this.lines[this.head] = swapped;
+      this.fields[this.head] = swappedFields;
+      this.head = (this.head + 1) % this.levels.length;
+    }
+    this.count -= taken;
+    this.lastProgressNanos = System.nanoTime();
+    this.notFull.signalAll();
+
+    return taken;
+  }
+
+  private void write(Batch batch, int taken) {
+
+    try {
+      this.writer.write(
+          batch.levels,
+          batch.lines,
+          batch.fields,
+          batch.timestamps,
+          taken
+          );
+    }
+    catch (Exception e) {
+      this.dropped.addAndGet(taken);
+    }
+    catch (Error e) {
+      this.dropped.addAndGet(taken);
+      throw e;
+    }
+
+    for (int k = 0; k < taken; k++) {
+      batch.levels[k] = null;
+      if (batch.lines[k].capacity() > MAX_RETAINED_LINE)
+        batch.lines[k] = new StringBuilder();
+      if (
+          batch.fields[k] != null
+          && batch.fields[k].capacity() > MAX_RETAINED_LINE
+          )
+        batch.fields[k] = null;
+    }
+  }
+
+  /**
+   * discards all pending entries. The lock must be held
+   */
+  private void clear() {
+    while (this.count > 0) {
+      this.levels[this.head] = null;
+      this.head = (this.head + 1) % this.levels.length;
+      this.count--;
+    }
+    this.notFull.signalAll();
+    this.idle.signalAll();
+  }
+
+}
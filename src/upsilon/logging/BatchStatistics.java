@@ -0,0 +1,133 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+/**
+ * Snapshot of how a log has grouped its entries into writes, and how long
+ * forcing those writes to the storage device has taken
+ */
+public class BatchStatistics {
+
+  private final long batchCount, entryCount, maxBatchSize;
+  private final long syncCount, totalSyncNanos, maxSyncNanos;
+
+  BatchStatistics(
+      long batchCount,
+      long entryCount,
+      long maxBatchSize,
+      long syncCount,
+      long totalSyncNanos,
+      long maxSyncNanos
+      ) {
+    this.batchCount = batchCount;
+    this.entryCount = entryCount;
+    this.maxBatchSize = maxBatchSize;
+    this.syncCount = syncCount;
+    this.totalSyncNanos = totalSyncNanos;
+    this.maxSyncNanos = maxSyncNanos;
+  }
+
+  /**
+   * gets the number of writes performed
+   *
+   * @return the number of batches written
+   */
+  public long getBatchCount() {
+    return this.batchCount;
+  }
+  /**
+   * gets the number of entries written across all batches
+   *
+   * @return the number of entries written
+   */
+  public long getEntryCount() {
+    return this.entryCount;
+  }
+  /**
+   * gets the largest number of entries written in a single batch
+   *
+   * @return the largest batch size
+   */
+  public long getMaxBatchSize() {
+    return this.maxBatchSize;
+  }
+  /**
+   * gets the mean number of entries written per batch
+   *
+   * @return the mean batch size, or zero if nothing has been written
+   */
+  public double getAverageBatchSize() {
+    return this.batchCount == 0
+        ? 0
+        : (double) this.entryCount / this.batchCount;
+  }
+  /**
+   * gets the number of times the log file was forced to the storage device
+   *
+   * @return the number of syncs
+   */
+  public long getSyncCount() {
+    return this.syncCount;
+  }
+  /**
+   * gets the total time spent forcing the log file to the storage device
+   *
+   * @return the total sync time in nanoseconds
+   */
+  public long getTotalSyncNanos() {
+    return this.totalSyncNanos;
+  }
+  /**
+   * gets the longest time taken by a single sync
+   *
+   * @return the longest sync time in nanoseconds
+   */
+  public long getMaxSyncNanos() {
+    return this.maxSyncNanos;
+  }
+  /**
+   * gets the mean time taken per sync
+   *
+   * @return the mean sync time in nanoseconds, or zero if none occurred
+   */
+  public double getAverageSyncNanos() {
+    return this.syncCount == 0
+        ? 0
+        : (double) this.totalSyncNanos / this.syncCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "batches=%d entries=%d avgBatch=%.2f maxBatch=%d " +
+          "syncs=%d avgSyncNanos=%.0f maxSyncNanos=%d",
+        this.batchCount,
+        this.entryCount,
+        getAverageBatchSize(),
+        this.maxBatchSize,
+        this.syncCount,
+        getAverageSyncNanos(),
+        this.maxSyncNanos
+        );
+  }
+
+}
@@ -0,0 +1,248 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes binary log entries into a reused byte buffer, writing arguments
+ * in their raw form rather than rendering them. One instance is kept per
+ * thread
+ */
+class BinaryEncoder {
+
+  private static final int INITIAL_CAPACITY = 1 << 8;
+  private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+  private static final int MAX_VAR_INT = 10;
+
+  private static final ThreadLocal<BinaryEncoder> INSTANCE =
+      ThreadLocal.withInitial(BinaryEncoder::new);
+
+  static BinaryEncoder get() {
+    return INSTANCE.get();
+  }
+
+  /**
+   * encodes the definition of a template
+   *
+   * @return a new buffer holding the record, ready to be read
+   */
+  static ByteBuffer encodeTemplate(int id, String text, boolean format) {
+
+    ByteBuffer encoded, ret;
+
+    encoded = StandardCharsets.UTF_8.encode(text);
+    ret = ByteBuffer.allocate(1 + 2 * MAX_VAR_INT + 1 + encoded.remaining());
+    ret.put(BinaryFormat.TEMPLATE);
+    BinaryFormat.putVarInt(ret, id);
+    ret.put(format ? BinaryFormat.KIND_FORMAT : BinaryFormat.KIND_LITERAL);
+    BinaryFormat.putVarInt(ret, encoded.remaining());
+    ret.put(encoded);
+    ret.flip();
+
+    return ret;
+  }
+
+
+  private ByteBuffer buffer;
+  private int timestampPosition;
+
+  private BinaryEncoder() {
+    this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * starts a new entry, discarding any entry in progress
+   *
+   * @param templateId the id of the entry's template
+   * @param level the level name of the entry
+   */
+  BinaryEncoder begin(int templateId, String level) {
+
+    LogLevel parsed;
+
+    if (this.buffer.capacity() > MAX_RETAINED_CAPACITY)
+      this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    this.buffer.clear();
+
+    this.buffer.put(BinaryFormat.ENTRY);
+    BinaryFormat.putVarInt(this.buffer, templateId);
+    this.timestampPosition = this.buffer.position();
+    this.buffer.putLong(0);
+
+    parsed = LogLevel.parse(level);
+    if (parsed != null && parsed.name().equals(level))
+      BinaryFormat.putVarInt(this.buffer, parsed.ordinal());
+    else {
+      BinaryFormat.putVarInt(this.buffer, BinaryFormat.CUSTOM_LEVEL);
+      putString(level);
+    }
+
+    return this;
+  }
+
+  void arg(int value) {
+    ensure(1 + MAX_VAR_INT);
+    this.buffer.put(BinaryFormat.ARG_INT);
+    BinaryFormat.putVarInt(this.buffer, BinaryFormat.zigZag(value));
+  }
+
+  void arg(long value) {
+    ensure(1 + MAX_VAR_INT);
+    this.buffer.put(BinaryFormat.ARG_LONG);
+    BinaryFormat.putVarInt(this.buffer, BinaryFormat.zigZag(value));
+  }
+
+  void arg(double value) {
+    ensure(1 + 8);
+    this.buffer.put(BinaryFormat.ARG_DOUBLE);
+    this.buffer.putDouble(value);
+  }
+
+  void arg(CharSequence value) {
+    ensure(1);
+    this.buffer.put(BinaryFormat.ARG_STRING);
+    putString(value);
+  }
+
+  /**
+   * adds the structured fields of the entry, after all its arguments
+   */
+  void fields(CharSequence fields) {
+    if (fields != null && fields.length() != 0) {
+      ensure(1);
+      this.buffer.put(BinaryFormat.ARG_FIELDS);
+      putString(fields);
+    }
+  }
+
+  /**
+   * adds an argument of a boxed primitive or string type
+   *
+   * @return false if the argument is of any other type, in which case it
+   *         cannot be recorded raw
+   */
+  boolean arg(Object value) {
+
+    if (value == null) {
+      ensure(1);
+      this.buffer.put(BinaryFormat.ARG_NULL);
+    }
+    else if (value instanceof String)
+      arg((String) value);
+    else if (value instanceof Integer)
+      arg(((Integer) value).intValue());
+    else if (value instanceof Long)
+      arg(((Long) value).longValue());
+    else if (value instanceof Double)
+      arg(((Double) value).doubleValue());
+    else if (value instanceof Float) {
+      ensure(1 + 4);
+      this.buffer.put(BinaryFormat.ARG_FLOAT);
+      this.buffer.putFloat((Float) value);
+    }
+    else if (value instanceof Short) {
+      ensure(1 + MAX_VAR_INT);
+      this.buffer.put(BinaryFormat.ARG_SHORT);
+      BinaryFormat.putVarInt(this.buffer, BinaryFormat.zigZag((Short) value));
+    }
+    else if (value instanceof Byte) {
+      ensure(1 + 1);
+      this.buffer.put(BinaryFormat.ARG_BYTE);
+      this.buffer.put((Byte) value);
+    }
+    else if (value instanceof Boolean) {
+      ensure(1 + 1);
+      this.buffer.put(BinaryFormat.ARG_BOOLEAN);
+      this.buffer.put((byte) ((Boolean) value ? 1 : 0));
+    }
+    else if (value instanceof Character) {
+      ensure(1 + MAX_VAR_INT);
+      this.buffer.put(BinaryFormat.ARG_CHAR);
+      BinaryFormat.putVarInt(this.buffer, (Character) value);
+    }
+    else
+      return false;
+
+    return true;
+  }
+
+  /**
+   * adds each of the given arguments
+   *
+   * @return false if any argument cannot be recorded raw
+   */
+  boolean args(Object[] values) {
+
+    if (values == null)
+      return true;
+
+    for (Object value : values) {
+      if (!arg(value))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * completes the entry
+   *
+   * @param epochNanos the time of the entry, in nanoseconds since the epoch
+   * @return a buffer holding the entry, ready to be read. It is only valid
+   *         until the next call on this thread
+   */
+  ByteBuffer finish(long epochNanos) {
+    ensure(1);
+    this.buffer.put(BinaryFormat.ARG_END);
+    this.buffer.putLong(this.timestampPosition, epochNanos);
+    this.buffer.flip();
+    return this.buffer;
+  }
+
+  private void putString(CharSequence value) {
+
+    ByteBuffer encoded;
+
+    encoded = LineEncoder.get().encode(value, StandardCharsets.UTF_8, false);
+    ensure(MAX_VAR_INT + encoded.remaining());
+    BinaryFormat.putVarInt(this.buffer, encoded.remaining());
+    this.buffer.put(encoded);
+  }
+
+  private void ensure(int size) {
+
+    ByteBuffer grown;
+
+    if (this.buffer.remaining() >= size)
+      return;
+
+    grown = ByteBuffer.allocate(
+        Math.max(this.buffer.capacity() * 2, this.buffer.position() + size)
+        );
+    this.buffer.flip();
+    grown.put(this.buffer);
+    this.buffer = grown;
+  }
+
+}
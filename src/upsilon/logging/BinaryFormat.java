@@ -0,0 +1,124 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of binary log files. A file is a sequence of records, each
+ * beginning with a tag byte:
+ *
+ *   HEADER    the magic bytes and a version byte. Every file, and every
+ *             stretch appended by a newly opened log, begins with one, and
+ *             it discards all template definitions before it
+ *   TEMPLATE  a template id, a kind byte (literal or format) and the UTF-8
+ *             template text. It precedes the first entry using the id
+ *   ENTRY     a template id, the timestamp as eight bytes of nanoseconds
+ *             since the epoch, the level and the arguments, each a type tag
+ *             followed by its value, ending with ARG_END. The structured
+ *             fields of an entry, if any, are a final ARG_FIELDS string
+ *             holding them in logfmt form
+ *
+ * Ids, lengths and the level are unsigned variable-length integers; integer
+ * arguments are zig-zag encoded variable-length integers. A level is the
+ * ordinal of a LogLevel, or CUSTOM_LEVEL followed by the level name.
+ * Template id RAW_TEMPLATE is never defined: its entries carry the whole
+ * line as a single string argument
+ */
+final class BinaryFormat { private BinaryFormat() {}
+
+  static final byte[] MAGIC = { 'U', 'P', 'S', 'L', 'O', 'G' };
+  static final int VERSION = 1;
+
+  static final byte HEADER = 1, TEMPLATE = 2, ENTRY = 3;
+
+  static final byte KIND_LITERAL = 0, KIND_FORMAT = 1;
+
+  static final int RAW_TEMPLATE = 0;
+  static final int CUSTOM_LEVEL = 0x7F;
+
+  static final byte
+    ARG_END = 0,
+    ARG_NULL = 'n',
+    ARG_BOOLEAN = 'z',
+    ARG_CHAR = 'c',
+    ARG_BYTE = 'b',
+    ARG_SHORT = 'h',
+    ARG_INT = 'i',
+    ARG_LONG = 'l',
+    ARG_FLOAT = 'f',
+    ARG_DOUBLE = 'd',
+    ARG_STRING = 's',
+    ARG_FIELDS = 'v';
+
+  /**
+   * checks whether the given bytes from the start of a file are those of a
+   * binary log's header
+   */
+  static boolean isHeader(byte[] start, int length) {
+
+    if (length < 1 + MAGIC.length || start[0] != HEADER)
+      return false;
+    for (int k = 0; k < MAGIC.length; k++) {
+      if (start[k + 1] != MAGIC[k])
+        return false;
+    }
+
+    return true;
+  }
+
+  static void putVarInt(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  static long getVarInt(ByteBuffer buffer) {
+
+    long ret;
+    int shift;
+    byte b;
+
+    ret = 0;
+    shift = 0;
+    do {
+      if (shift > 63)
+        throw new IllegalArgumentException("malformed variable-length integer");
+      b = buffer.get();
+      ret |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return ret;
+  }
+
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+}
@@ -0,0 +1,342 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.List;
+
+/**
+ * Reads the records of a binary log one at a time, keeping track of the
+ * template definitions seen so far and of the byte offset of each record
+ */
+class BinaryRecordReader {
+
+  private static final LogLevel[] LEVELS = LogLevel.values();
+
+  private static class CountingInputStream extends FilterInputStream {
+
+    long count;
+
+    CountingInputStream(InputStream in, long count) {
+      super(in);
+      this.count = count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int ret = super.read();
+      if (ret >= 0)
+        this.count++;
+      return ret;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int ret = super.read(b, off, len);
+      if (ret > 0)
+        this.count += ret;
+      return ret;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long ret = super.skip(n);
+      this.count += ret;
+      return ret;
+    }
+
+  }
+
+
+  private final CountingInputStream counter;
+  private final DataInputStream data;
+  private final List<String> texts;
+  private final List<Boolean> formats;
+  private final List<Object> args;
+  private boolean headerRead;
+  private long offset;
+
+  private int templateId;
+  private long epochNanos;
+  private String level, fields;
+
+  /**
+   * @param in the binary log content
+   * @param offset the offset within the log at which the content starts,
+   *               which must be that of a header record
+   */
+  BinaryRecordReader(InputStream in, long offset) {
+    this.counter = new CountingInputStream(new BufferedInputStream(in), offset);
+    this.data = new DataInputStream(this.counter);
+    this.texts = new ArrayList<>();
+    this.formats = new ArrayList<>();
+    this.args = new ArrayList<>();
+    this.headerRead = false;
+    this.offset = offset;
+  }
+
+  /**
+   * reads the next record
+   *
+   * @return the type of the record, or -1 at the end of the log
+   */
+  int next() throws IOException {
+
+    int tag;
+
+    this.offset = this.counter.count;
+    if ((tag = this.data.read()) == -1)
+      return -1;
+
+    try {
+      if (!this.headerRead && tag != BinaryFormat.HEADER)
+        throw new IOException("not a binary log");
+
+      switch (tag) {
+        case BinaryFormat.HEADER:
+          readHeader();
+          break;
+        case BinaryFormat.TEMPLATE:
+          readTemplate();
+          break;
+        case BinaryFormat.ENTRY:
+          readEntry();
+          break;
+        default:
+          throw new IOException("unknown record type " + tag);
+      }
+    }
+    catch (EOFException e) {
+      throw new IOException("binary log ends with a truncated record");
+    }
+
+    return tag;
+  }
+
+  /**
+   * gets the offset at which the last record read starts
+   */
+  long getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * gets the offset just past the last record read
+   */
+  long getEndOffset() {
+    return this.counter.count;
+  }
+
+  long getEpochNanos() {
+    return this.epochNanos;
+  }
+
+  long getEpochMillis() {
+    return Math.floorDiv(this.epochNanos, 1_000_000L);
+  }
+
+  String getLevel() {
+    return this.level;
+  }
+
+  /**
+   * gets the structured fields of the last entry read, or null
+   */
+  String getFields() {
+    return this.fields;
+  }
+
+  /**
+   * renders the message of the last entry read
+   */
+  String getLine() throws IOException {
+
+    String text;
+
+    if (this.templateId == BinaryFormat.RAW_TEMPLATE)
+      return this.args.isEmpty() ? "" : String.valueOf(this.args.get(0));
+
+    if (
+        this.templateId >= this.texts.size()
+        || this.texts.get(this.templateId) == null
+        )
+      throw new IOException("entry uses undefined template " + this.templateId);
+
+    text = this.texts.get(this.templateId);
+    if (!this.formats.get(this.templateId))
+      return text;
+
+    try {
+      return String.format(text, this.args.toArray());
+    }
+    catch (IllegalFormatException e) {
+      return text + " " + this.args;
+    }
+  }
+
+  private void readHeader() throws IOException {
+
+    byte[] magic;
+    int version;
+
+    magic = new byte [BinaryFormat.MAGIC.length];
+    this.data.readFully(magic);
+    if (!Arrays.equals(magic, BinaryFormat.MAGIC))
+      throw new IOException("not a binary log");
+
+    version = this.data.readUnsignedByte();
+    if (version != BinaryFormat.VERSION)
+      throw new IOException("unsupported binary log version " + version);
+
+    this.texts.clear();
+    this.formats.clear();
+    this.headerRead = true;
+  }
+
+  private void readTemplate() throws IOException {
+
+    int id;
+    byte kind;
+    String text;
+
+    id = (int) readVarInt();
+    kind = this.data.readByte();
+    text = readString();
+
+    if (id == BinaryFormat.RAW_TEMPLATE)
+      throw new IOException("template id 0 is reserved");
+
+    while (this.texts.size() <= id) {
+      this.texts.add(null);
+      this.formats.add(null);
+    }
+    this.texts.set(id, text);
+    this.formats.set(id, kind == BinaryFormat.KIND_FORMAT);
+  }
+
+  private void readEntry() throws IOException {
+
+    int levelCode;
+
+    this.templateId = (int) readVarInt();
+    this.epochNanos = this.data.readLong();
+    levelCode = (int) readVarInt();
+    if (levelCode == BinaryFormat.CUSTOM_LEVEL)
+      this.level = readString();
+    else if (levelCode < LEVELS.length)
+      this.level = LEVELS[levelCode].name();
+    else
+      throw new IOException("unknown level " + levelCode);
+
+    this.args.clear();
+    this.fields = null;
+    readArgs();
+  }
+
+  private void readArgs() throws IOException {
+
+    int type;
+
+    while ((type = this.data.readUnsignedByte()) != BinaryFormat.ARG_END) {
+      switch (type) {
+        case BinaryFormat.ARG_NULL:
+          this.args.add(null);
+          break;
+        case BinaryFormat.ARG_BOOLEAN:
+          this.args.add(this.data.readByte() != 0);
+          break;
+        case BinaryFormat.ARG_CHAR:
+          this.args.add((char) readVarInt());
+          break;
+        case BinaryFormat.ARG_BYTE:
+          this.args.add(this.data.readByte());
+          break;
+        case BinaryFormat.ARG_SHORT:
+          this.args.add((short) BinaryFormat.unZigZag(readVarInt()));
+          break;
+        case BinaryFormat.ARG_INT:
+          this.args.add((int) BinaryFormat.unZigZag(readVarInt()));
+          break;
+        case BinaryFormat.ARG_LONG:
+          this.args.add(BinaryFormat.unZigZag(readVarInt()));
+          break;
+        case BinaryFormat.ARG_FLOAT:
+          this.args.add(this.data.readFloat());
+          break;
+        case BinaryFormat.ARG_DOUBLE:
+          this.args.add(this.data.readDouble());
+          break;
+        case BinaryFormat.ARG_STRING:
+          this.args.add(readString());
+          break;
+        case BinaryFormat.ARG_FIELDS:
+          this.fields = readString();
+          break;
+        default:
+          throw new IOException("unknown argument type " + type);
+      }
+    }
+  }
+
+  private String readString() throws IOException {
+
+    byte[] bytes;
+    long length;
+
+    length = readVarInt();
+    if (length > Integer.MAX_VALUE)
+      throw new IOException("string too long");
+
+    bytes = new byte [(int) length];
+    this.data.readFully(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private long readVarInt() throws IOException {
+
+    long ret;
+    int shift, b;
+
+    ret = 0;
+    shift = 0;
+    do {
+      if (shift > 63)
+        throw new IOException("malformed variable-length integer");
+      b = this.data.readUnsignedByte();
+      ret |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return ret;
+  }
+
+}
@@ -0,0 +1,295 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Limits how often entries of the same message template are written. Within
+ * each interval, the first entries of a template up to the burst limit are
+ * admitted; beyond it, entries are admitted only at the sample rate and the
+ * rest are counted, to be summarised in a single entry once the interval is
+ * over. Templates are tracked in a fixed-size table, each hashing to one of
+ * two adjacent slots, so memory stays bounded however many templates there
+ * are. A slot is only given to another template once it has been idle for
+ * a whole interval, when it is summarised for the last time; until then,
+ * templates left without a slot of their own share a single overflow slot
+ * and its limit. Summaries may be produced on the shared scheduler thread,
+ * so the sink must not block. Admitting an entry takes no lock
+ */
+class BurstFilter {
+
+  /**
+   * Receives the summary of the entries suppressed for a template. The level
+   * and template are null for the overflow slot, which counts the entries
+   * of any template left without a slot of its own
+   */
+  interface SummarySink {
+    void summarise(String level, String template, long suppressed);
+  }
+
+  private static class Slot {
+    final String template, level;
+    final AtomicLong windowStart, suppressed;
+    final AtomicInteger count;
+    volatile boolean evicted;
+
+    Slot(String template, String level, long now) {
+      this.template = template;
+      this.level = level;
+      this.windowStart = new AtomicLong(now);
+      this.suppressed = new AtomicLong();
+      this.count = new AtomicInteger();
+      this.evicted = false;
+    }
+
+    boolean matches(String template, String level) {
+      return (this.template == template || this.template.equals(template))
+          && (this.level == level || this.level.equals(level));
+    }
+  }
+
+  private static final int TABLE_SIZE = 1 << 10;
+
+  private final int limit;
+  private final long intervalNanos;
+  private final double sampleRate;
+  private final SummarySink sink;
+  private final AtomicReferenceArray<Slot> slots;
+  private final Slot overflow;
+  private final AtomicLong totalSuppressed;
+  private final AtomicBoolean sweepScheduled;
+  private volatile ScheduledFuture<?> sweep;
+
+  BurstFilter(
+      int limit,
+      long intervalMillis,
+      double sampleRate,
+      AtomicLong totalSuppressed,
+      SummarySink sink
+      ) {
+
+    if (limit <= 0)
+      throw new IllegalArgumentException("limit must be positive");
+    if (intervalMillis <= 0)
+      throw new IllegalArgumentException("interval must be positive");
+    if (!(sampleRate >= 0 && sampleRate <= 1))
+      throw new IllegalArgumentException("sample rate must be within [0, 1]");
+    if (totalSuppressed == null)
+      throw new IllegalArgumentException("totalSuppressed cannot be null");
+    if (sink == null)
+      throw new IllegalArgumentException("sink cannot be null");
+
+    this.limit = limit;
+    this.intervalNanos = intervalMillis * 1_000_000L;
+    this.sampleRate = sampleRate;
+    this.sink = sink;
+    this.slots = new AtomicReferenceArray<>(TABLE_SIZE);
+    this.overflow = new Slot(null, null, System.nanoTime());
+    this.totalSuppressed = totalSuppressed;
+    this.sweepScheduled = new AtomicBoolean();
+    this.sweep = null;
+  }
+
+  /**
+   * counts an entry of the given template against its limit
+   *
+   * @return true if the entry should be written
+   */
+  boolean admit(String level, String template) {
+
+    Slot slot;
+    long now, start;
+
+    now = System.nanoTime();
+    slot = slotFor(level, template, now);
+    /* a slot evicted since it was found has had its last summary */
+    if (slot.evicted)
+      slot = this.overflow;
+
+    start = slot.windowStart.get();
+    if (
+        now - start >= this.intervalNanos
+        && slot.windowStart.compareAndSet(start, now)
+        ) {
+      slot.count.set(0);
+      summarise(slot);
+    }
+
+    if (slot.count.incrementAndGet() <= this.limit)
+      return true;
+    if (
+        this.sampleRate > 0
+        && ThreadLocalRandom.current().nextDouble() < this.sampleRate
+        )
+      return true;
+
+    if (slot.suppressed.getAndIncrement() == 0)
+      scheduleSweep();
+    this.totalSuppressed.incrementAndGet();
+
+    return false;
+  }
+
+  /**
+   * summarises everything suppressed so far and stops the sweep
+   */
+  void close() {
+
+    ScheduledFuture<?> pending;
+    Slot slot;
+
+    pending = this.sweep;
+    if (pending != null)
+      pending.cancel(false);
+
+    for (int k = 0; k < TABLE_SIZE; k++) {
+      slot = this.slots.get(k);
+      if (slot != null)
+        summarise(slot);
+    }
+    summarise(this.overflow);
+  }
+
+  private Slot slotFor(String level, String template, long now) {
+
+    Slot first, second, created, replaced;
+    int hash, index, target;
+
+    hash = template.hashCode();
+    hash ^= hash >>> 16;
+    index = hash & (TABLE_SIZE - 2);
+
+    while (true) {
+
+      first = this.slots.get(index);
+      if (first != null && first.matches(template, level))
+        return first;
+      second = this.slots.get(index + 1);
+      if (second != null && second.matches(template, level))
+        return second;
+
+      /* consider whichever slot is empty or was least recently restarted */
+      target = index;
+      if (
+          first != null
+          && (
+              second == null
+              || second.windowStart.get() - first.windowStart.get() < 0
+              )
+          )
+        target++;
+
+      /*
+       * a window left unrestarted for two intervals has seen no entry for
+       * one; anything more recent is still in use, and handing it over
+       * would let templates which share a bucket reset each other's count
+       */
+      replaced = this.slots.get(target);
+      if (
+          replaced != null
+          && now - replaced.windowStart.get() < 2 * this.intervalNanos
+          )
+        return this.overflow;
+
+      created = new Slot(template, level, now);
+      if (this.slots.compareAndSet(target, replaced, created)) {
+        if (replaced != null) {
+          replaced.evicted = true;
+          summarise(replaced);
+        }
+        return created;
+      }
+    }
+  }
+
+  private void summarise(Slot slot) {
+
+    long suppressed;
+
+    suppressed = slot.suppressed.getAndSet(0);
+    if (suppressed != 0)
+      this.sink.summarise(slot.level, slot.template, suppressed);
+  }
+
+  private void scheduleSweep() {
+    if (this.sweepScheduled.compareAndSet(false, true))
+      this.sweep = LogScheduler.schedule(
+          this::sweep,
+          this.intervalNanos / 1_000_000L
+          );
+  }
+
+  /**
+   * summarises the suppressed entries of templates whose interval is over,
+   * so that a burst which stops is still reported
+   */
+  private void sweep() {
+
+    Slot slot;
+    boolean outstanding;
+    long now;
+
+    this.sweepScheduled.set(false);
+
+    now = System.nanoTime();
+    outstanding = !sweep(this.overflow, now);
+    for (int k = 0; k < TABLE_SIZE; k++) {
+      slot = this.slots.get(k);
+      if (slot != null && !sweep(slot, now))
+        outstanding = true;
+    }
+
+    if (outstanding)
+      scheduleSweep();
+  }
+
+  /**
+   * summarises the given slot if its interval is over
+   *
+   * @return false if the slot still has suppressed entries to summarise
+   */
+  private boolean sweep(Slot slot, long now) {
+
+    long start;
+
+    if (slot.suppressed.get() == 0)
+      return true;
+
+    start = slot.windowStart.get();
+    if (
+        now - start < this.intervalNanos
+        || !slot.windowStart.compareAndSet(start, now)
+        )
+      return false;
+
+    slot.count.set(0);
+    summarise(slot);
+    return true;
+  }
+
+}
@@ -0,0 +1,283 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded set of open append channels, keyed by path and kept in least
+ * recently used order. Opening a file beyond the limit closes the least
+ * recently used channel not currently being written to, and channels left
+ * unused for longer than the idle timeout are closed by a periodic sweep.
+ * A closed file is simply reopened the next time it is written to. Each
+ * log holding a path counts as one of its owners, and the channel is only
+ * closed on behalf of a log once the last owner has let it go
+ */
+class FileHandleCache {
+
+  private static class Handle {
+    final Path path;
+    FileChannel channel;
+    int users;
+    long lastUsed;
+
+    Handle(Path path) {
+      this.path = path;
+    }
+  }
+
+  private final int maxOpen;
+  private final long idleNanos;
+  private final LinkedHashMap<Path, Handle> handles;
+  private final HashMap<Path, Integer> owners;
+  private boolean closed;
+
+  FileHandleCache(int maxOpen, long idleMillis) {
+
+    if (maxOpen <= 0)
+      throw new IllegalArgumentException("maxOpen must be positive");
+    if (idleMillis <= 0)
+      throw new IllegalArgumentException("idleMillis must be positive");
+
+    this.maxOpen = maxOpen;
+    this.idleNanos = idleMillis * 1_000_000L;
+    this.handles = new LinkedHashMap<>(16, 0.75f, true);
+    this.owners = new HashMap<>();
+    this.closed = false;
+  }
+
+  int getMaxOpen() {
+    return this.maxOpen;
+  }
+
+  synchronized int getOpenCount() {
+    return this.handles.size();
+  }
+
+  void write(Path path, ByteBuffer buffer) throws IOException {
+
+    Handle handle;
+
+    handle = acquire(path);
+    try {
+      synchronized (handle) {
+        ensureOpen(handle);
+        while (buffer.hasRemaining())
+          handle.channel.write(buffer);
+      }
+    }
+    finally {
+      release(handle);
+    }
+  }
+
+  void force(Path path) throws IOException {
+
+    Handle handle;
+
+    synchronized (this) {
+      handle = this.handles.get(path);
+      if (handle == null)
+        return;
+      handle.users++;
+    }
+
+    try {
+      synchronized (handle) {
+        if (handle.channel != null)
+          handle.channel.force(false);
+      }
+    }
+    finally {
+      release(handle);
+    }
+  }
+
+  /**
+   * adds an owner of the given path, which keeps its channel open until
+   * it calls close
+   */
+  synchronized void open(Path path) {
+    this.owners.merge(path, 1, Integer::sum);
+  }
+
+  /**
+   * removes an owner of the given path, closing its channel if that was
+   * the last owner and it is not being written to
+   */
+  void close(Path path) throws IOException {
+
+    Handle handle;
+    Integer count;
+
+    synchronized (this) {
+      count = this.owners.get(path);
+      if (count == null)
+        return;
+      if (count > 1) {
+        this.owners.put(path, count - 1);
+        return;
+      }
+      this.owners.remove(path);
+
+      handle = this.handles.get(path);
+      if (handle == null || handle.users != 0)
+        return;
+      this.handles.remove(path);
+    }
+
+    closeChannel(handle);
+  }
+
+  /**
+   * closes every channel which has not been used within the idle timeout
+   */
+  void closeIdle() {
+
+    List<Handle> idle;
+    Iterator<Handle> iterator;
+    Handle handle;
+    long now;
+
+    idle = new ArrayList<>();
+    now = System.nanoTime();
+
+    synchronized (this) {
+      iterator = this.handles.values().iterator();
+      while (iterator.hasNext()) {
+        handle = iterator.next();
+        if (handle.users == 0 && now - handle.lastUsed >= this.idleNanos) {
+          iterator.remove();
+          idle.add(handle);
+        }
+      }
+    }
+
+    for (Handle h : idle) {
+      try {
+        closeChannel(h);
+      }
+      catch (IOException e) {
+        /* the channel is discarded regardless */
+      }
+    }
+  }
+
+  void closeAll() throws IOException {
+
+    List<Handle> all;
+
+    synchronized (this) {
+      this.closed = true;
+      all = new ArrayList<>(this.handles.values());
+      this.handles.clear();
+      this.owners.clear();
+    }
+
+    for (Handle handle : all)
+      closeChannel(handle);
+  }
+
+  private Handle acquire(Path path) throws IOException {
+
+    List<Handle> evicted;
+    Iterator<Handle> iterator;
+    Handle handle, eldest;
+
+    evicted = null;
+
+    synchronized (this) {
+
+      if (this.closed)
+        throw new LogException("log service is closed");
+
+      handle = this.handles.get(path);
+      if (handle == null) {
+        handle = new Handle(path);
+        this.handles.put(path, handle);
+
+        iterator = this.handles.values().iterator();
+        while (this.handles.size() > this.maxOpen && iterator.hasNext()) {
+          eldest = iterator.next();
+          if (eldest == handle || eldest.users != 0)
+            continue;
+          iterator.remove();
+          if (evicted == null)
+            evicted = new ArrayList<>();
+          evicted.add(eldest);
+        }
+      }
+      handle.users++;
+    }
+
+    if (evicted != null) {
+      for (Handle h : evicted) {
+        try {
+          closeChannel(h);
+        }
+        catch (IOException e) {
+          /* the channel is discarded regardless */
+        }
+      }
+    }
+
+    return handle;
+  }
+
+  private synchronized void release(Handle handle) {
+    handle.users--;
+    handle.lastUsed = System.nanoTime();
+  }
+
+  private static void ensureOpen(Handle handle) throws IOException {
+    if (handle.channel == null)
+      handle.channel = FileChannel.open(
+          handle.path,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.APPEND,
+          StandardOpenOption.CREATE
+          );
+  }
+
+  private static void closeChannel(Handle handle) throws IOException {
+    synchronized (handle) {
+      if (handle.channel != null) {
+        try {
+          handle.channel.close();
+        }
+        finally {
+          handle.channel = null;
+        }
+      }
+    }
+  }
+
+}
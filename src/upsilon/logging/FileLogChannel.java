@@ -0,0 +1,155 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Long-lived append channel for a log file, writing through a FileChannel.
+ * The file is opened on first write and kept open until closed. At most
+ * once per check interval, the path is examined to detect that the file has
+ * been moved or deleted, in which case the channel is transparently
+ * reopened
+ */
+class FileLogChannel implements LogChannel {
+
+  private static final long ROTATION_CHECK_INTERVAL_NANOS = 1_000_000_000L;
+
+  private final Path path;
+  private FileChannel channel;
+  private Object fileKey;
+  private long nextRotationCheck;
+
+  FileLogChannel(Path path) {
+
+    if (path == null)
+      throw new IllegalArgumentException("path cannot be null");
+
+    this.path = path;
+    this.channel = null;
+    this.fileKey = null;
+  }
+
+  @Override
+  public Path getPath() {
+    return this.path;
+  }
+
+  @Override
+  public synchronized void write(ByteBuffer buffer) throws IOException {
+    ensureOpen();
+    while (buffer.hasRemaining())
+      this.channel.write(buffer);
+  }
+
+  @Override
+  public long size() throws IOException {
+    try {
+      return Files.size(this.path);
+    }
+    catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public synchronized void force() throws IOException {
+    if (this.channel != null)
+      this.channel.force(false);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      }
+      finally {
+        this.channel = null;
+        this.fileKey = null;
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+
+    long now;
+
+    if (this.channel == null) {
+      open();
+      return;
+    }
+
+    now = System.nanoTime();
+    if (now - this.nextRotationCheck < 0)
+      return;
+
+    this.nextRotationCheck = now + ROTATION_CHECK_INTERVAL_NANOS;
+    if (isRotatedAway()) {
+      close();
+      open();
+    }
+  }
+
+  private void open() throws IOException {
+
+    this.channel = FileChannel.open(
+        this.path,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND,
+        StandardOpenOption.CREATE
+        );
+    this.fileKey = readFileKey();
+    this.nextRotationCheck = System.nanoTime() + ROTATION_CHECK_INTERVAL_NANOS;
+  }
+
+  private boolean isRotatedAway() throws IOException {
+
+    Object current;
+
+    try {
+      current = readFileKey();
+    }
+    catch (NoSuchFileException e) {
+      return true;
+    }
+
+    if (current == null || this.fileKey == null)
+      return false;
+    else
+      return !current.equals(this.fileKey);
+  }
+
+  private Object readFileKey() throws IOException {
+    return Files
+        .readAttributes(this.path, BasicFileAttributes.class)
+        .fileKey();
+  }
+
+}
@@ -0,0 +1,134 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Sink appending entries to a file of its own, which can be rotated,
+ * compressed and pruned in the same way as a log's file. Entries are staged
+ * and written together at each flush. Rotation patterns are rendered in
+ * UTC
+ */
+public class FileSink implements LogSink {
+
+  private final Path path;
+  private final LogRotator rotator;
+  private final LogWriter writer;
+
+	/**
+	 * Creates a new sink appending to the file at the given path, which is
+	 * never rotated unless a rotation size or pattern is set
+	 * 
+	 * @param path location of the file
+	 */
+  public FileSink(Path path) {
+
+    if (path == null)
+      throw new IllegalArgumentException("path cannot be null");
+
+    this.path = path;
+    this.rotator = new LogRotator(TimestampCache.zoneFor(false));
+    this.writer = new LogWriter(
+        new FileLogChannel(path),
+        this.rotator,
+        new MetricsRecorder()
+        );
+    try {
+      this.writer.setEntryCount(Integer.MAX_VALUE);
+      this.writer.setPolicy(FlushPolicy.ENTRY_COUNT);
+    }
+    catch (IOException e) {
+      /* nothing is pending yet, so nothing is written */
+    }
+  }
+
+	/**
+	 * sets the size in bytes beyond which the file is rotated, or zero for no
+	 * limit
+	 * 
+	 * @param rotationSize the size
+	 */
+  public void setRotationSize(long rotationSize) {
+    if (rotationSize < 0)
+      throw new IllegalArgumentException("rotation size cannot be negative");
+    this.rotator.setMaxSize(rotationSize);
+  }
+	/**
+	 * sets the pattern whose change causes the file to be rotated, as for
+	 * Log.setRotationPattern, or null for none
+	 * 
+	 * @param rotationPattern the pattern
+	 */
+  public void setRotationPattern(String rotationPattern) {
+    if (rotationPattern != null && rotationPattern.isEmpty())
+      throw new IllegalArgumentException("rotation pattern cannot be empty");
+    this.rotator.setPattern(rotationPattern);
+  }
+	/**
+	 * sets whether rotated files are compressed
+	 * 
+	 * @param compressRotated the value to be set
+	 */
+  public void setCompressRotated(boolean compressRotated) {
+    this.rotator.setCompress(compressRotated);
+  }
+	/**
+	 * sets the number of rotated files kept, or zero for no limit
+	 * 
+	 * @param maxRotatedFiles the number of files
+	 */
+  public void setMaxRotatedFiles(int maxRotatedFiles) {
+    if (maxRotatedFiles < 0)
+      throw new IllegalArgumentException(
+          "number of rotated files cannot be negative"
+          );
+    this.rotator.setMaxFiles(maxRotatedFiles);
+  }
+
+	/**
+	 * gets the location of the file
+	 * 
+	 * @return the path
+	 */
+  public Path getPath() {
+    return this.path;
+  }
+
+  @Override
+  public void write(ByteBuffer entry, long timestamp) throws IOException {
+    this.writer.append(entry, timestamp);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    this.writer.commitPending();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.writer.close();
+  }
+
+}
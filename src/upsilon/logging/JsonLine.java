@@ -0,0 +1,95 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+/**
+ * Renders log entries as single-line JSON objects, holding the time, level,
+ * message and any structured fields of the entry
+ */
+final class JsonLine { private JsonLine() {}
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  static void render(
+      StringBuilder sb,
+      String level,
+      CharSequence line,
+      CharSequence fields,
+      long epochMillis,
+      TimestampCache.Timestamp time
+      ) {
+
+    sb.append("{\"time\":\"").append(time.getIsoText()).append('.');
+    LogTemplate.appendZeroPadded(sb, Math.floorMod(epochMillis, 1000L), 3);
+    sb.append(time.getOffsetText());
+    sb.append("\",\"level\":");
+    appendString(sb, level);
+    sb.append(",\"msg\":");
+    appendString(sb, line);
+    if (fields != null && fields.length() != 0)
+      sb.append(',').append(fields);
+    sb.append('}');
+  }
+
+  /**
+   * appends the given characters as a quoted JSON string
+   */
+  static void appendString(StringBuilder sb, CharSequence string) {
+
+    char c;
+
+    sb.append('"');
+    for (int k = 0; k < string.length(); k++) {
+      c = string.charAt(k);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20 || c == 0x2028 || c == 0x2029)
+            sb
+              .append("\\u")
+              .append(HEX[c >> 12])
+              .append(HEX[(c >> 8) & 0xF])
+              .append(HEX[(c >> 4) & 0xF])
+              .append(HEX[c & 0xF]);
+          else
+            sb.append(c);
+          break;
+      }
+    }
+    sb.append('"');
+  }
+
+}
@@ -0,0 +1,161 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+/**
+ * Snapshot of a distribution of durations. Durations are counted in buckets
+ * whose upper bounds are successive powers of two nanoseconds, so that any
+ * percentile read from it is accurate to within a factor of two
+ */
+public class LatencyHistogram {
+
+  static final int BUCKET_COUNT = 64;
+
+  static int bucketOf(long nanos) {
+    return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+  }
+
+  private final long[] counts;
+  private final long count, totalNanos, maxNanos;
+
+  LatencyHistogram(long[] counts, long totalNanos, long maxNanos) {
+
+    long count;
+
+    count = 0;
+    for (long c : counts)
+      count += c;
+
+    this.counts = counts;
+    this.count = count;
+    this.totalNanos = totalNanos;
+    this.maxNanos = maxNanos;
+  }
+
+  /**
+   * gets the number of durations recorded
+   *
+   * @return the number of durations
+   */
+  public long getCount() {
+    return this.count;
+  }
+  /**
+   * gets the sum of all durations recorded
+   *
+   * @return the total in nanoseconds
+   */
+  public long getTotalNanos() {
+    return this.totalNanos;
+  }
+  /**
+   * gets the longest duration recorded
+   *
+   * @return the longest duration in nanoseconds
+   */
+  public long getMaxNanos() {
+    return this.maxNanos;
+  }
+  /**
+   * gets the mean duration recorded
+   *
+   * @return the mean in nanoseconds, or zero if nothing was recorded
+   */
+  public double getAverageNanos() {
+    return this.count == 0 ? 0 : (double) this.totalNanos / this.count;
+  }
+  /**
+   * gets the number of buckets in this histogram
+   *
+   * @return the number of buckets
+   */
+  public int getBucketCount() {
+    return this.counts.length;
+  }
+  /**
+   * gets the number of durations counted in the given bucket
+   *
+   * @param bucket the index of the bucket
+   * @return the number of durations
+   */
+  public long getCountInBucket(int bucket) {
+    return this.counts[bucket];
+  }
+  /**
+   * gets the largest duration counted in the given bucket. Bucket zero holds
+   * only durations of zero, and each bucket after it durations up to twice
+   * those of the one before
+   *
+   * @param bucket the index of the bucket
+   * @return the upper bound in nanoseconds
+   */
+  public long getBucketLimit(int bucket) {
+    if (bucket < 0 || bucket >= this.counts.length)
+      throw new IndexOutOfBoundsException("no such bucket: " + bucket);
+    if (bucket == this.counts.length - 1)
+      return Long.MAX_VALUE;
+
+    return (1L << bucket) - 1;
+  }
+  /**
+   * gets an upper bound on the given percentile of the durations recorded,
+   * being the limit of the bucket it falls into, or the longest duration if
+   * that is less
+   *
+   * @param percentile the percentile, from 0 to 100
+   * @return the percentile in nanoseconds, or zero if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+
+    long rank, seen;
+
+    if (!(percentile >= 0 && percentile <= 100))
+      throw new IllegalArgumentException(
+          "percentile must be between 0 and 100"
+          );
+    if (this.count == 0)
+      return 0;
+
+    rank = Math.max(1, (long) Math.ceil(this.count * percentile / 100));
+    seen = 0;
+    for (int k = 0; k < this.counts.length; k++) {
+      seen += this.counts[k];
+      if (seen >= rank)
+        return Math.min(getBucketLimit(k), this.maxNanos);
+    }
+
+    return this.maxNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d avgNanos=%.0f p50Nanos=%d p99Nanos=%d maxNanos=%d",
+        this.count,
+        getAverageNanos(),
+        getPercentileNanos(50),
+        getPercentileNanos(99),
+        this.maxNanos
+        );
+  }
+
+}
@@ -0,0 +1,74 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations into buckets whose bounds are successive powers of two.
+ * Every counter is striped, so threads recording at the same time do not
+ * contend with one another
+ */
+final class LatencyRecorder {
+
+  private final LongAdder[] counts;
+  private final LongAdder total;
+  private final LongAccumulator max;
+
+  LatencyRecorder() {
+    this.counts = new LongAdder [LatencyHistogram.BUCKET_COUNT];
+    for (int k = 0; k < this.counts.length; k++)
+      this.counts[k] = new LongAdder();
+    this.total = new LongAdder();
+    this.max = new LongAccumulator(Math::max, 0);
+  }
+
+  void record(long nanos) {
+
+    if (nanos < 0)
+      nanos = 0;
+
+    this.counts[LatencyHistogram.bucketOf(nanos)].increment();
+    this.total.add(nanos);
+    this.max.accumulate(nanos);
+  }
+
+  /**
+   * records the time elapsed since the given value of System.nanoTime
+   */
+  void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  LatencyHistogram snapshot() {
+
+    long[] counts;
+
+    counts = new long [this.counts.length];
+    for (int k = 0; k < counts.length; k++)
+      counts[k] = this.counts[k].sum();
+
+    return new LatencyHistogram(counts, this.total.sum(), this.max.get());
+  }
+
+}
@@ -0,0 +1,230 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes rendered log lines into a reused byte buffer. US-ASCII, ISO-8859-1
+ * and UTF-8 are encoded directly, character by character; other character
+ * sets go through a cached CharsetEncoder. Unmappable and malformed input
+ * is replaced with '?' in every case, as String.getBytes does. One instance
+ * is kept per thread
+ */
+class LineEncoder {
+
+  private static final int ASCII = 0, LATIN1 = 1, UTF8 = 2, GENERAL = 3;
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+  private static final ThreadLocal<LineEncoder> INSTANCE =
+      ThreadLocal.withInitial(LineEncoder::new);
+
+  static LineEncoder get() {
+    return INSTANCE.get();
+  }
+
+
+  private Charset charset;
+  private CharsetEncoder encoder;
+  private int kind;
+  private ByteBuffer buffer;
+
+  private LineEncoder() {
+    this.charset = null;
+    this.encoder = null;
+    this.buffer = null;
+  }
+
+  /**
+   * encodes the given characters
+   *
+   * @param chars the characters to encode
+   * @param charset the character set to encode into
+   * @param direct whether the returned buffer should be off-heap
+   * @return a buffer holding the encoded bytes, ready to be read. It is
+   *         only valid until the next call on this thread
+   */
+  ByteBuffer encode(CharSequence chars, Charset charset, boolean direct) {
+
+    int length;
+
+    if (!charset.equals(this.charset))
+      setCharset(charset);
+
+    length = chars.length();
+    switch (this.kind) {
+      case ASCII:
+        prepare(length, direct);
+        encodeSingleByte(chars, length, 0x7F);
+        break;
+      case LATIN1:
+        prepare(length, direct);
+        encodeSingleByte(chars, length, 0xFF);
+        break;
+      case UTF8:
+        prepare(length * 3, direct);
+        encodeUtf8(chars, length);
+        break;
+      default:
+        prepare(
+            (int) Math.ceil(length * (double) this.encoder.maxBytesPerChar()),
+            direct
+            );
+        encodeGeneral(chars, direct);
+        break;
+    }
+
+    this.buffer.flip();
+    return this.buffer;
+  }
+
+  private void setCharset(Charset charset) {
+
+    this.charset = charset;
+    this.encoder = null;
+
+    if (charset.equals(StandardCharsets.US_ASCII))
+      this.kind = ASCII;
+    else if (charset.equals(StandardCharsets.ISO_8859_1))
+      this.kind = LATIN1;
+    else if (charset.equals(StandardCharsets.UTF_8))
+      this.kind = UTF8;
+    else {
+      this.kind = GENERAL;
+      this.encoder = charset
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+  }
+
+  private void prepare(int capacity, boolean direct) {
+
+    int allocated;
+
+    if (
+        this.buffer == null ||
+        this.buffer.isDirect() != direct ||
+        this.buffer.capacity() < capacity ||
+        this.buffer.capacity() > Math.max(MAX_RETAINED_CAPACITY, capacity)
+        ) {
+      allocated = Math.max(
+          INITIAL_CAPACITY,
+          Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1
+          );
+      if (allocated < capacity)
+        allocated = capacity;
+      this.buffer = direct
+          ? ByteBuffer.allocateDirect(allocated)
+          : ByteBuffer.allocate(allocated);
+    }
+
+    this.buffer.clear();
+  }
+
+  private void encodeSingleByte(CharSequence chars, int length, int max) {
+
+    char c;
+
+    for (int k = 0; k < length; k++) {
+      c = chars.charAt(k);
+      if (c > max) {
+        if (
+            Character.isHighSurrogate(c) &&
+            k + 1 < length &&
+            Character.isLowSurrogate(chars.charAt(k + 1))
+            )
+          k++;
+        c = '?';
+      }
+      this.buffer.put((byte) c);
+    }
+  }
+
+  private void encodeUtf8(CharSequence chars, int length) {
+
+    char c, low;
+    int codePoint;
+
+    for (int k = 0; k < length; k++) {
+      c = chars.charAt(k);
+
+      if (c < 0x80)
+        this.buffer.put((byte) c);
+      else if (c < 0x800) {
+        this.buffer.put((byte) (0xC0 | (c >> 6)));
+        this.buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
+      else if (!Character.isSurrogate(c)) {
+        this.buffer.put((byte) (0xE0 | (c >> 12)));
+        this.buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        this.buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
+      else if (
+          Character.isHighSurrogate(c) &&
+          k + 1 < length &&
+          Character.isLowSurrogate(low = chars.charAt(k + 1))
+          ) {
+        codePoint = Character.toCodePoint(c, low);
+        k++;
+        this.buffer.put((byte) (0xF0 | (codePoint >> 18)));
+        this.buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        this.buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        this.buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+      }
+      else
+        this.buffer.put((byte) '?');
+    }
+  }
+
+  private void encodeGeneral(CharSequence chars, boolean direct) {
+
+    CharBuffer in;
+
+    in = CharBuffer.wrap(chars);
+    this.encoder.reset();
+
+    while (this.encoder.encode(in, this.buffer, true).isOverflow())
+      grow(direct);
+    while (this.encoder.flush(this.buffer).isOverflow())
+      grow(direct);
+  }
+
+  private void grow(boolean direct) {
+
+    ByteBuffer grown;
+
+    grown = direct
+        ? ByteBuffer.allocateDirect(this.buffer.capacity() * 2)
+        : ByteBuffer.allocate(this.buffer.capacity() * 2);
+    this.buffer.flip();
+    grown.put(this.buffer);
+    this.buffer = grown;
+  }
+
+}
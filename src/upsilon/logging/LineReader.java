@@ -0,0 +1,209 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Splits the content of a channel into lines at each '\n' byte, reading it
+ * in large blocks so that a file of any size is scanned in constant memory,
+ * short of a single line not fitting a block. The content is taken to end
+ * at the first zero byte, that being the unwritten slack of a memory-mapped
+ * log.
+ *
+ * When following a file which is still being written, a last line without
+ * its line-feed is held back until the rest of it arrives, and any slack is
+ * read again later in case it has since been filled in. The channel must
+ * then be seekable
+ */
+final class LineReader implements Closeable {
+
+  private static final int BLOCK_SIZE = 1 << 16;
+
+  private final ReadableByteChannel channel;
+  private final Charset charset;
+  private final boolean follow;
+  private boolean ended;
+  private ByteBuffer buffer;
+  private int scanned;
+  private long offset, lineOffset;
+
+  /**
+   * @param channel the content to be read, positioned at the given offset
+   * @param offset the offset within the file at which reading starts
+   * @param charset the character set of the content, which must encode
+   *                '\n' as that single byte
+   * @param follow whether the file is still being written
+   */
+  LineReader(
+      ReadableByteChannel channel,
+      long offset,
+      Charset charset,
+      boolean follow
+      ) {
+
+    if (follow && !(channel instanceof SeekableByteChannel))
+      throw new IllegalArgumentException("followed channel must be seekable");
+
+    this.channel = channel;
+    this.charset = charset;
+    this.follow = follow;
+    this.buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    this.buffer.flip();
+    this.scanned = 0;
+    this.ended = false;
+    this.offset = offset;
+    this.lineOffset = offset;
+  }
+
+  /**
+   * gets the offset just past the last line read, from which reading would
+   * resume
+   */
+  long getOffset() {
+    return this.offset;
+  }
+
+  /**
+   * gets the offset at which the last line read starts
+   */
+  long getLineOffset() {
+    return this.lineOffset;
+  }
+
+  /**
+   * reads the next line, without its line-feed or a carriage return before
+   * it
+   *
+   * @return the line, or null if there is none, or no complete one yet
+   */
+  String readLine() throws IOException {
+
+    byte b;
+
+    for (;;) {
+
+      for (; this.scanned < this.buffer.limit(); this.scanned++) {
+        b = this.buffer.get(this.scanned);
+        if (b == '\n')
+          return take(this.scanned, this.scanned + 1);
+        if (b == 0) {
+          if (this.follow) {
+            unread(this.scanned);
+            return null;
+          }
+          this.buffer.limit(this.scanned);
+          this.ended = true;
+          break;
+        }
+      }
+
+      if (this.ended || !fill()) {
+        if (this.follow || !this.buffer.hasRemaining())
+          return null;
+        return take(this.buffer.limit(), this.buffer.limit());
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  private String take(int end, int next) {
+
+    String ret;
+    int start, length;
+
+    start = this.buffer.position();
+    length = end - start;
+    if (length > 0 && this.buffer.get(end - 1) == '\r')
+      length--;
+
+    ret = new String(
+        this.buffer.array(),
+        this.buffer.arrayOffset() + start,
+        length,
+        this.charset
+        );
+
+    this.lineOffset = this.offset;
+    this.offset += next - start;
+    this.buffer.position(next);
+    this.scanned = next;
+
+    return ret;
+  }
+
+  /**
+   * drops what has been read from the given index of the buffer on, and
+   * moves the channel back so that it is read again
+   */
+  private void unread(int index) throws IOException {
+    ((SeekableByteChannel) this.channel).position(
+        this.offset + index - this.buffer.position()
+        );
+    this.buffer.limit(index);
+  }
+
+  /**
+   * reads another block into the buffer, moving the unread content to its
+   * start, and growing it if that content fills it
+   *
+   * @return false if nothing more could be read
+   */
+  private boolean fill() throws IOException {
+
+    ByteBuffer replacement;
+    int read, shift;
+
+    shift = this.buffer.position();
+    if (this.buffer.remaining() == this.buffer.capacity()) {
+      replacement = ByteBuffer.allocate(this.buffer.capacity() * 2);
+      replacement.put(this.buffer);
+      this.buffer = replacement;
+    }
+    else if (
+        this.buffer.capacity() > BLOCK_SIZE
+        && this.buffer.remaining() < BLOCK_SIZE / 2
+        ) {
+      replacement = ByteBuffer.allocate(BLOCK_SIZE);
+      replacement.put(this.buffer);
+      this.buffer = replacement;
+    }
+    else
+      this.buffer.compact();
+    this.scanned -= shift;
+
+    read = this.channel.read(this.buffer);
+    this.buffer.flip();
+
+    return read > 0;
+  }
+
+}
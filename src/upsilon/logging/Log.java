@@ -21,32 +21,85 @@
 
 package upsilon.logging;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.TextStyle;
-import java.util.Locale;
-import java.util.function.Function;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import upsilon.tools.StringTools;
 
-public class Log {
+public class Log implements AutoCloseable {
 
-	private static final char[] FORMAT_TERMINATORS = new char[] {
-		'C', 'c', 'L', 'l', 'R', 'r', 'T', 't', 'H', 'h', 'Y',
-    'y', 'M', 'm', 'D', 'd', 'P', 'p', 'F', 'f', 'S', 's',
-		'J', 'j', 'A', 'a', 'U', 'u', 'N', 'n', 'B', 'b', 'Q',
-		'q', 'W', 'w', 'E', 'e',
-	};
+  private static final ThreadLocal<StringBuilder> BUFFER =
+      ThreadLocal.withInitial(StringBuilder::new);
+  private static final int MAX_RETAINED_BUFFER = 1 << 16;
+  private static final int INT_PARAMS = 0;
+  private static final int LONG_PARAMS = 1;
+  private static final int DOUBLE_PARAM = 2;
+  private static final ThreadLocal<LogEntry> ENTRY =
+      ThreadLocal.withInitial(LogEntry::new);
 
 
 
-  private Path path;
-  private String format, defaultLevel, lineFeed;
-	private Charset charset;
-  private boolean throwsExceptions, useLocalTime;
+  private volatile Path path;
+  private volatile String defaultLevel, lineFeed;
+  private volatile int defaultSeverity, threshold;
+  private volatile LogTemplate template;
+  private volatile TimestampCache timestamps;
+	private volatile Charset charset;
+  private boolean throwsExceptions, useLocalTime, drainOnShutdown;
+  private volatile boolean directBuffers, memoryMapped;
+  private long mappedRegionSize;
+  private volatile boolean closed;
+  private final LogWriter writer;
+  private final LogRotator rotator;
+  private FlushPolicy flushPolicy;
+  private int flushEntryCount;
+  private long flushInterval;
+  private boolean syncOnFlush;
+  private volatile AsyncAppender appender;
+  private int queueCapacity;
+  private long stallTimeout, shutdownTimeout;
+  private int indexEntryInterval;
+  private long indexByteInterval;
+  private volatile BurstFilter burstFilter;
+  private final ConcurrentLinkedQueue<Summary> summaries;
+  private final AtomicBoolean summarising;
+  private int burstLimit;
+  private long burstInterval;
+  private double sampleRate;
+  private final AtomicLong suppressed;
+  private OverflowPolicy overflowPolicy;
+  private Thread shutdownHook;
+  private final AtomicLong dropped;
+  private final MetricsRecorder metrics;
+  private final LogService service;
+  private volatile TemplateTable templates;
+  private volatile boolean jsonLines;
+  private volatile SinkRunner[] sinks;
+
+  /**
+   * A summary of suppressed entries waiting to be written
+   */
+  private static class Summary {
+    final String level, line;
+    final long epochNanos;
+
+    Summary(String level, String line, long epochNanos) {
+      this.level = level;
+      this.line = line;
+      this.epochNanos = epochNanos;
+    }
+  }
 
 	/**
 	 * Creates a new log object at the given path
@@ -64,17 +117,79 @@ public class Log {
 	 *												 errors occur
 	 */
   public Log(String path, boolean throwsExceptions) {
+    this(path, throwsExceptions, null);
+  }
+	/**
+	 * Creates a new log object at the given path, written through the given
+	 * shared service
+	 * 
+	 * @param path location of log file
+	 * @param service the service whose writer threads and file handles this
+	 *								log uses
+	 */
+  public Log(String path, LogService service) {
+    this(path, false, service);
+  }
+	/**
+	 * Creates a new log object at the given path, written through the given
+	 * shared service. If the service is null, the log holds its own file open
+	 * and, when asynchronous, has its own writer thread
+	 * 
+	 * @param path location of log file
+	 * @param throwsExceptions if true, this object will throw exceptions when
+	 *												 errors occur
+	 * @param service the service whose writer threads and file handles this
+	 *								log uses, or null
+	 */
+  public Log(String path, boolean throwsExceptions, LogService service) {
     
     if (StringTools.isNullOrEmpty(path))
       throw new IllegalArgumentException("path string cannot be null or empty");
+    if (service != null && service.isClosed())
+      throw new IllegalArgumentException("log service is closed");
 
     this.path = Paths.get(path);
-    this.format = "[%5l] %r %t : %c";
+    this.service = service;
+    this.templates = null;
+    this.jsonLines = false;
+    this.sinks = new SinkRunner [0];
+    this.indexEntryInterval = 0;
+    this.indexByteInterval = 0;
+    this.burstFilter = null;
+    this.summaries = new ConcurrentLinkedQueue<>();
+    this.summarising = new AtomicBoolean();
+    this.burstLimit = 0;
+    this.burstInterval = 1000;
+    this.sampleRate = 0;
+    this.suppressed = new AtomicLong();
+    this.template = LogTemplate.compile("[%5l] %r %t : %c");
     this.defaultLevel = "TRACE";
+    this.defaultSeverity = LogLevel.TRACE.ordinal();
+    this.threshold = LogLevel.TRACE.ordinal();
 		this.lineFeed = "\n";
     this.charset = StandardCharsets.US_ASCII;
     this.throwsExceptions = throwsExceptions;
-		this.useLocalTime = false;
+		this.useLocalTime = true;
+    this.timestamps = new TimestampCache(TimestampCache.zoneFor(true));
+    this.drainOnShutdown = false;
+    this.closed = false;
+    this.rotator = new LogRotator(TimestampCache.zoneFor(true));
+    this.memoryMapped = false;
+    this.mappedRegionSize = 64L << 20;
+    this.metrics = new MetricsRecorder();
+    this.writer = new LogWriter(createChannel(), this.rotator, this.metrics);
+    this.flushPolicy = FlushPolicy.IMMEDIATE;
+    this.flushEntryCount = 64;
+    this.flushInterval = 1000;
+    this.syncOnFlush = false;
+    this.appender = null;
+    this.queueCapacity = 8192;
+    this.stallTimeout = 5000;
+    this.shutdownTimeout = 5000;
+    this.overflowPolicy = OverflowPolicy.BLOCK;
+    this.directBuffers = false;
+    this.shutdownHook = null;
+    this.dropped = new AtomicLong();
   }
   
   private void throwIOException(String text, Object... args) {
@@ -87,32 +202,376 @@ public class Log {
       throw new IllegalArgumentException(String.format(text, args));
   }
 
-  private void addImp(String level, String line) {
-	  String string;
+  private void addImp(String level, CharSequence line) {
+    addImp(level, line, null);
+  }
+
+  private void addImp(
+      String level,
+      CharSequence line,
+      CharSequence fields
+      ) {
+    BinaryEncoder encoder;
+    long timestamp;
 	
 		if (level == null)
       level = this.defaultLevel;
 
+    if (this.closed) {
+      throwIOException("log is closed");
+      return;
+    }
+
+    if (this.templates != null) {
+      encoder = BinaryEncoder.get().begin(BinaryFormat.RAW_TEMPLATE, level);
+      encoder.arg(line);
+      encoder.fields(fields);
+      writeBinary(encoder);
+      return;
+    }
+
+    timestamp = System.currentTimeMillis();
+    if (
+        this.appender != null
+        && this.appender.offer(level, line, fields, timestamp)
+        )
+      return;
+
     try {
-	    string = StringTools.format(
-		      this.format,
-		      FORMAT_TERMINATORS,
-		      new Formatter(level, line)
-		    );
-
-	    Files.write(
-		      this.path,
-		      (string + lineFeed).getBytes(this.charset),
-		      StandardOpenOption.APPEND,
-					StandardOpenOption.CREATE
-		    );
+	    this.writer.append(encode(level, line, fields, timestamp), timestamp);
     }
     catch (Exception e) {
 			throwIOException(e.getMessage());
     }
   }
 
+  /**
+   * starts a binary entry for the given template, if this log is binary
+   *
+   * @return the encoder, or null if entries are to be rendered as text
+   */
+  private BinaryEncoder beginBinary(
+      String level,
+      String text,
+      boolean format
+      ) {
+
+    TemplateTable templates;
+    int id;
+
+    templates = this.templates;
+    if (templates == null)
+      return null;
+
+    id = templates.idOf(text, format);
+    if (id < 0)
+      return null;
+
+    return BinaryEncoder.get().begin(
+        id,
+        level == null ? this.defaultLevel : level
+        );
+  }
+
+  private void writeBinary(BinaryEncoder encoder) {
+
+    ByteBuffer record;
+    Instant now;
+    long epochNanos, start;
+
+    if (this.closed) {
+      throwIOException("log is closed");
+      return;
+    }
+
+    now = Instant.now();
+    epochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    start = System.nanoTime();
+    record = encoder.finish(epochNanos);
+    this.metrics.format.recordSince(start);
+    try {
+      this.writer.append(record, now.toEpochMilli());
+    }
+    catch (Exception e) {
+      throwIOException(e.getMessage());
+    }
+  }
+
+  private LogChannel createChannel() {
+    if (this.memoryMapped)
+      return new MappedLogChannel(this.path, this.mappedRegionSize);
+    else if (this.service != null)
+      return new SharedLogChannel(this.path, this.service.getHandles());
+    else
+      return new FileLogChannel(this.path);
+  }
+
+  private void replaceChannel() {
+    drainAppender();
+    try {
+      this.writer.setChannel(createChannel());
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
+  }
+
+  private ByteBuffer encode(
+      String level,
+      CharSequence line,
+      CharSequence fields,
+      long timestamp
+      ) {
+
+    StringBuilder sb;
+    ByteBuffer ret;
+    long start;
+
+    start = System.nanoTime();
+    sb = BUFFER.get();
+    sb.setLength(0);
+    if (this.jsonLines)
+      JsonLine.render(
+          sb,
+          level,
+          line,
+          fields,
+          timestamp,
+          this.timestamps.get(timestamp)
+        );
+    else
+      this.template.render(
+          sb,
+          level,
+          line,
+          fields,
+          timestamp,
+          this.timestamps.get(timestamp)
+        );
+    sb.append(this.lineFeed);
+
+    ret = LineEncoder.get().encode(sb, this.charset, this.directBuffers);
+    if (sb.capacity() > MAX_RETAINED_BUFFER)
+      BUFFER.remove();
+    this.metrics.format.recordSince(start);
+    fanOut(ret, timestamp);
+
+    return ret;
+  }
+
+  /**
+   * hands a copy of the encoded entry to every sink, without consuming it
+   */
+  private void fanOut(ByteBuffer entry, long timestamp) {
+
+    SinkRunner[] sinks;
+    SinkRunner.Entry shared;
+    byte[] bytes;
+
+    sinks = this.sinks;
+    if (sinks.length == 0)
+      return;
+
+    bytes = new byte [entry.remaining()];
+    entry.duplicate().get(bytes);
+    shared = new SinkRunner.Entry(bytes, timestamp);
+    for (SinkRunner sink : sinks)
+      sink.offer(shared);
+  }
+
+  private SinkRunner runnerOf(LogSink sink) {
+    for (SinkRunner runner : this.sinks) {
+      if (runner.getSink() == sink)
+        return runner;
+    }
+    return null;
+  }
+
+  private synchronized void stopSinks(long timeoutMillis) {
+
+    SinkRunner[] stopping;
+
+    stopping = this.sinks;
+    this.sinks = new SinkRunner [0];
+    try {
+      for (SinkRunner runner : stopping)
+        runner.stop(timeoutMillis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throwIOException("interrupted while stopping log sinks");
+    }
+  }
+
+  private void writeBatch(
+      String[] levels,
+      CharSequence[] lines,
+      CharSequence[] fields,
+      long[] timestamps,
+      int count
+      ) throws IOException {
+    this.writer.append(
+        k -> encode(levels[k], lines[k], fields[k], timestamps[k]),
+        timestamps,
+        count
+      );
+  }
+
+  private void startAppender() {
+    this.appender = new AsyncAppender(
+        "upsilon-log-writer: " + this.path,
+        this.queueCapacity,
+        this.overflowPolicy,
+        this.stallTimeout,
+        this.dropped,
+        this.metrics,
+        this::writeBatch,
+        this.service == null ? null : this.service.getExecutor()
+      );
+  }
+
+  private void stopAppender() {
+    stopAppender(0);
+  }
+
+  private void stopAppender(long timeoutMillis) {
+
+    AsyncAppender stopping;
+
+    if (this.appender == null)
+      return;
+
+    stopping = this.appender;
+    this.appender = null;
+    try {
+      stopping.stop(timeoutMillis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throwIOException("interrupted while stopping log writer");
+    }
+  }
+
+  private void drainAppender() {
+
+    if (this.appender == null)
+      return;
+
+    try {
+      this.appender.drain();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throwIOException("interrupted while draining log writer");
+    }
+  }
+
+
+	/**
+	 * forces any content written to this log out to the storage device
+	 */
+  public void flush() {
+    drainAppender();
+    try {
+      this.writer.flush();
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
+  }
+	/**
+	 * closes the underlying log file. Once closed, this object will no longer
+	 * accept new entries
+	 */
+  @Override
+  public void close() {
+    if (this.closed)
+      return;
+
+    stopBurstFilter();
+    synchronized (this.summaries) {
+      drainSummaries();
+      this.closed = true;
+    }
+    stopAppender();
+    stopSinks(this.shutdownTimeout);
+    removeShutdownHook();
+    try {
+      this.writer.close();
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
+  }
+
+  /**
+   * closes this log as the virtual machine shuts down, waiting at most the
+   * shutdown timeout for the writer thread before writing whatever it has
+   * left on this thread, then forcing the file to the storage device
+   */
+  private void closeOnShutdown() {
+
+    long timeout;
+
+    if (this.closed)
+      return;
+
+    timeout = this.shutdownTimeout;
+    stopBurstFilter();
+    synchronized (this.summaries) {
+      drainSummaries();
+      this.closed = true;
+    }
+    stopAppender(timeout);
+    stopSinks(timeout);
+    try {
+      this.writer.flush();
+    }
+    catch (IOException e) {
+      /* the entries are written; there is no caller to report to */
+    }
+    finally {
+      try {
+        this.writer.close();
+      }
+      catch (IOException e) {
+        /* there is no caller to report to */
+      }
+    }
+  }
+	/**
+	 * gets whether or not this log has been closed
+	 * 
+	 * @return true if this log has been closed
+	 */
+  public boolean isClosed() {
+    return this.closed;
+  }
+	/**
+	 * gets the shared service through which this log is written
+	 * 
+	 * @return the service of this log, or null if it has none
+	 */
+  public LogService getService() {
+    return this.service;
+  }
+
+
+	/**
+	 * sets the path to which this log is written. The current log file is
+	 * closed, and the new one is opened upon the next entry
+	 * 
+	 * @param path location of log file
+	 */
+  public void setPath(String path) {
+    if (StringTools.isNullOrEmpty(path)) {
+	    throwArgException("path string cannot be null or empty");
+      return;
+    }
 
+    this.path = Paths.get(path);
+    replaceChannel();
+  }
 	/**
 	 * sets the 'throwsException' property of this object. If true, this object
 	 * will throw exceptions when errors occur
@@ -134,7 +593,13 @@ public class Log {
 	    throwArgException("format cannot be empty or null");
       return;
     }
-		this.format = format;
+
+    try {
+      this.template = LogTemplate.compile(format);
+    }
+    catch (IllegalArgumentException e) {
+      throwArgException("%s", e.getMessage());
+    }
   }
 	/**
 	 * sets the default logging level
@@ -147,6 +612,21 @@ public class Log {
       return;
     }
     this.defaultLevel = level;
+    this.defaultSeverity = LogLevel.severityOf(level);
+  }
+	/**
+	 * sets the least severe level written to this log. Entries below it are
+	 * discarded before any formatting takes place. Entries whose level name
+	 * does not match a LogLevel are never discarded
+	 * 
+	 * @param threshold the new threshold
+	 */
+  public void setThreshold(LogLevel threshold) {
+    if (threshold == null) {
+	    throwArgException("threshold cannot be null");
+      return;
+    }
+    this.threshold = threshold.ordinal();
   }
 	/**
 	 * sets the characters string to be used as a line-feed when delimiting the
@@ -174,286 +654,1393 @@ public class Log {
     this.charset = charset;
   }
 	/**
-	 * sets whether or not to use local-time for log entries. If this value is
-	 * false, then GMT is used
+	 * sets when accumulated entries are written out to the log file. Entries
+	 * which are held back are written together with a single write
 	 * 
-	 * @param useLocalTime the value to be set
+	 * @param flushPolicy the policy to use
 	 */
-	public void setUseLocalTime(boolean useLocalTime) {
-		this.useLocalTime = useLocalTime;
-	}
-
-
+  public void setFlushPolicy(FlushPolicy flushPolicy) {
+    if (flushPolicy == null) {
+	    throwArgException("flush policy cannot be null");
+      return;
+    }
+    this.flushPolicy = flushPolicy;
+    try {
+      this.writer.setPolicy(flushPolicy);
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
+  }
 	/**
-	 * gets the path to which this log is being written
+	 * sets the number of entries accumulated before they are written, when
+	 * using the ENTRY_COUNT flush policy
 	 * 
-	 * @return the path to which this log is being written
+	 * @param flushEntryCount the number of entries per write
 	 */
-  public Path getPath() {
-    return this.path;
+  public void setFlushEntryCount(int flushEntryCount) {
+    if (flushEntryCount <= 0) {
+	    throwArgException("flush entry count must be positive");
+      return;
+    }
+    this.flushEntryCount = flushEntryCount;
+    try {
+      this.writer.setEntryCount(flushEntryCount);
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
   }
 	/**
-	 * gets the value of the 'throwsException' property of this object
+	 * sets the longest time, in milliseconds, an entry is held before being
+	 * written, when using the INTERVAL flush policy
 	 * 
-	 * @return whether or not this object will throw exceptions
+	 * @param flushInterval the interval in milliseconds
 	 */
-  public boolean getThrowsExceptions() {
-    return this.throwsExceptions;
+  public void setFlushInterval(long flushInterval) {
+    if (flushInterval <= 0) {
+	    throwArgException("flush interval must be positive");
+      return;
+    }
+    this.flushInterval = flushInterval;
+    this.writer.setIntervalMillis(flushInterval);
   }
 	/**
-	 * gets the currently set format string of this object
+	 * sets whether or not every write of accumulated entries is forced to the
+	 * storage device before returning. This is intended for audit logs where
+	 * entries must not be lost
 	 * 
-	 * @return the current format string
+	 * @param syncOnFlush the value to be set
 	 */
-  public String getFormat() {
-    return this.format;
+  public void setSyncOnFlush(boolean syncOnFlush) {
+    this.syncOnFlush = syncOnFlush;
+    this.writer.setSyncOnFlush(syncOnFlush);
   }
 	/**
-	 * gets the default logging-level string for this object
+	 * sets whether or not the log file is written through a memory mapping.
+	 * Appending then copies into the page cache without a system call per
+	 * write; content written this way survives the virtual machine crashing.
+	 * The file is extended by whole regions and truncated to its content when
+	 * the log is closed
 	 * 
-	 * @return the current default level
+	 * @param memoryMapped the value to be set
 	 */
-  public String getDefaultLevel() {
-    return this.defaultLevel;
+  public void setMemoryMapped(boolean memoryMapped) {
+    if (memoryMapped == this.memoryMapped)
+      return;
+    this.memoryMapped = memoryMapped;
+    replaceChannel();
   }
 	/**
-	 * gets the current line-feed set for this object
+	 * sets the size, in bytes, of each region mapped when the log is memory
+	 * mapped. The file is extended a whole region at a time
 	 * 
-	 * @return the current line-feed for this 
+	 * @param mappedRegionSize the region size in bytes
 	 */
-	public String getLineFeed() {
-		return this.lineFeed;
-	}
+  public void setMappedRegionSize(long mappedRegionSize) {
+    if (mappedRegionSize <= 0 || mappedRegionSize > Integer.MAX_VALUE) {
+	    throwArgException("mapped region size out of range");
+      return;
+    }
+    this.mappedRegionSize = mappedRegionSize;
+    if (this.memoryMapped)
+      replaceChannel();
+  }
 	/**
-	 * gets the current character set for this object
+	 * sets whether or not entries are encoded and staged in off-heap (direct)
+	 * buffers, which the file channel can write without an extra copy
 	 * 
-	 * @return the current character set
+	 * @param directBuffers the value to be set
 	 */
-  public Charset getCharset() {
-    return this.charset;
+  public void setDirectBuffers(boolean directBuffers) {
+    this.directBuffers = directBuffers;
+    try {
+      this.writer.setDirect(directBuffers);
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
   }
 	/**
-	 * gets the 'useLocalTime' attribute for this object
+	 * sets the size, in bytes, beyond which the log file is rotated. A value of
+	 * zero disables size-based rotation
 	 * 
-	 * @return the 'useLocalTime' attribute
+	 * @param rotationSize the maximum size of the log file
 	 */
-	public boolean getUseLocalTime() {
-		return this.useLocalTime;
-	}
-  
-
+  public void setRotationSize(long rotationSize) {
+    if (rotationSize < 0) {
+	    throwArgException("rotation size cannot be negative");
+      return;
+    }
+    this.rotator.setMaxSize(rotationSize);
+  }
 	/**
-	 * adds the given string to this log
+	 * sets the pattern which dictates time-based rotation. The pattern uses the
+	 * same date and time fields as the format string; the log file is rotated
+	 * whenever the text it renders to changes, and the rotated file is named
+	 * after that text. For example, "%r" rotates daily and "%r.%h" hourly. A
+	 * null value disables time-based rotation
 	 * 
-	 * @param line the format of the line content
-	 * @param params parameters to the line content format
+	 * @param rotationPattern the rotation pattern
 	 */
-  public void add(String line, Object... params) {
-
-    String formatted;
-
-    if (StringTools.isNullOrEmpty(line)) {
-      throwArgException("line cannot be null or empty");
+  public void setRotationPattern(String rotationPattern) {
+    if (rotationPattern != null && rotationPattern.isEmpty()) {
+	    throwArgException("rotation pattern cannot be empty");
       return;
     }
 
-    try
-    {
-	    formatted = String.format(line, params);
+    try {
+      this.rotator.setPattern(rotationPattern);
     }
-    catch (Exception e)
-    {
-			if (this.throwsExceptions)
-        throw new RuntimeException(e);
-      else
-        return;
+    catch (IllegalArgumentException e) {
+      throwArgException("%s", e.getMessage());
     }
-
-		add(formatted);
   }
-
 	/**
-	 * adds the given string to this log
+	 * sets whether or not rotated log files are compressed with gzip. The
+	 * compression happens on a background thread
 	 * 
-	 * @param line the line to be added to the string
+	 * @param compressRotated the value to be set
 	 */
-  public void add(String line) {
-    if (StringTools.isNullOrEmpty(line)) {
-      throwArgException("line cannot be null or empty");
+  public void setCompressRotated(boolean compressRotated) {
+    this.rotator.setCompress(compressRotated);
+  }
+	/**
+	 * sets the number of rotated log files kept, beyond which the oldest are
+	 * deleted. A value of zero keeps all files
+	 * 
+	 * @param maxRotatedFiles the maximum number of rotated files
+	 */
+  public void setMaxRotatedFiles(int maxRotatedFiles) {
+    if (maxRotatedFiles < 0) {
+	    throwArgException("max rotated files cannot be negative");
       return;
     }
-
-		addImp(null, line);
+    this.rotator.setMaxFiles(maxRotatedFiles);
   }
-
-
-  private class Formatter implements Function<String, String> {
-
-    String level, line;
-
-    Formatter(String level, String line) {
-			this.level = level;
-      this.line = line;
+	/**
+	 * sets the total size, in bytes, of rotated log files kept, beyond which
+	 * the oldest are deleted. A value of zero keeps all files
+	 * 
+	 * @param maxRotatedBytes the maximum total size of rotated files
+	 */
+  public void setMaxRotatedBytes(long maxRotatedBytes) {
+    if (maxRotatedBytes < 0) {
+	    throwArgException("max rotated bytes cannot be negative");
+      return;
     }
-
-		void raiseException(String arg) {
-      throw new IllegalArgumentException(
-				String.format("bad format argument: %%%s", arg)
-				);
-		}
-
-		String getDateTimeIntString(int arg, int value) {
-			if (arg == 0)
-				return String.format("%d", value);
-			else
-				return StringTools.leftChop(
-								StringTools.leftPad(
-									String.format("%d", value),
-									arg
-								),
-								arg
-							);
-		}
-
-    @Override
-    @SuppressWarnings("fallthrough")
-    public String apply(String s) {
-      
-			char c = s.charAt(s.length() - 1);
-			int integer;
-      String pre = s.substring(0, s.length() - 1);
-			LocalDateTime time = LocalDateTime.now();
-
-			if (pre.isEmpty())
-				integer = 0;
-			else
-			{
-				try
-				{
-					integer = Integer.parseInt(pre);
-				}
-				catch (NumberFormatException e) {
-					raiseException(s);
-					return null;
-				}
-			}
-
-      switch (c)
-      {
-
-				case 'c':
-					return StringTools.leftPad(line, integer);
-				case 'l':
-					return StringTools.leftPad(level, integer);
-				case 'r':
-					if (integer != 0)
-						raiseException(s);
-					return String.format(
-						"%04d-%02d-%02d",
-						time.getYear(),
-						time.getMonthValue(),
-						time.getSecond()
-						);
-				case 't':
-					if (integer != 0)
-					  raiseException(s);
-					return String.format(
-						"%02d-%02d-%02d",
-						time.getHour(),
-						time.getMinute(),
-						time.getSecond()
-					  );
-				case 'p':
-					if (integer != 0)
-						raiseException(s);
-					return String.format(
-						"%02d-%02d-%02d",
-						time.getYear() % 100,
-						time.getMonthValue(),
-						time.getSecond()
-						);
-				case 'Y':
-				case 'y':
-					return getDateTimeIntString(integer, time.getYear());
-				case 'M':
-				case 'm':
-					return getDateTimeIntString(integer, time.getMonthValue());
-				case 'D':
-				case 'd':
-					return getDateTimeIntString(integer, time.getDayOfMonth());
-				case 'H':
-				case 'h':
-					return getDateTimeIntString(integer, time.getHour());
-				case 'F':
-				case 'f':
-					return getDateTimeIntString(integer, time.getMinute());
-				case 'S':
-				case 's':
-					return getDateTimeIntString(integer, time.getSecond());
-				case 'J':
-				case 'j':
-					return getDateTimeIntString(
-									integer,
-									time.getHour() % 12 == 0 ? 12 : time.getHour() % 12
-								);
-				case 'A':
-					if (integer != 0)
-						raiseException(s);
-					else
-						return time.getHour() > 11 ? "AM" : "PM";
-				case 'a':
-					if (integer != 0)
-						raiseException(s);
-					else
-						return time.getHour() > 11 ? "am" : "pm";
-				case 'U':
-				case 'u':
-					return String.format("%d", time.toEpochSecond(ZoneOffset.UTC));
-				case 'N':
-					return time
-									.getMonth()
-									.getDisplayName(TextStyle.FULL, Locale.getDefault())
-									.toUpperCase();
-				case 'n':
-					return time
-									.getMonth()
-									.getDisplayName(TextStyle.SHORT, Locale.getDefault());
-				case 'B':
-					return time
-									.getMonth()
-									.getDisplayName(TextStyle.SHORT, Locale.getDefault())
-									.toUpperCase();
-				case 'b':
-					return time
-									.getMonth()
-									.getDisplayName(TextStyle.SHORT, Locale.getDefault());
-				case 'Q':
-					return time
-									.getDayOfWeek()
-									.getDisplayName(TextStyle.FULL, Locale.getDefault())
-									.toUpperCase();
-				case 'q':
-					return time
-									.getDayOfWeek()
-									.getDisplayName(TextStyle.FULL, Locale.getDefault());
-				case 'W':
-					return time
-									.getDayOfWeek()
-									.getDisplayName(TextStyle.SHORT, Locale.getDefault())
-									.toUpperCase();
-				case 'w':
-					return time
-									.getDayOfWeek()
-									.getDisplayName(TextStyle.SHORT, Locale.getDefault());
-				case 'E':
-				case 'e':
-					return String.format("%d", time.getDayOfWeek().ordinal());
-
-        default:
-					raiseException(s);
-					return null;
-      }
+    this.rotator.setMaxBytes(maxRotatedBytes);
+  }
+	/**
+	 * sets the number of entries between the points of the time index kept
+	 * alongside the log file, which LogIndex uses to seek to a given time. If
+	 * both this and the index byte interval are zero, no index is kept
+	 * 
+	 * @param indexEntryInterval the number of entries, or zero
+	 */
+  public void setIndexEntryInterval(int indexEntryInterval) {
+    if (indexEntryInterval < 0) {
+	    throwArgException("index entry interval cannot be negative");
+      return;
+    }
+    this.indexEntryInterval = indexEntryInterval;
+    updateIndex();
+  }
+	/**
+	 * sets the number of bytes between the points of the time index kept
+	 * alongside the log file, which LogIndex uses to seek to a given time. If
+	 * both this and the index entry interval are zero, no index is kept
+	 * 
+	 * @param indexByteInterval the number of bytes, or zero
+	 */
+  public void setIndexByteInterval(long indexByteInterval) {
+    if (indexByteInterval < 0) {
+	    throwArgException("index byte interval cannot be negative");
+      return;
+    }
+    this.indexByteInterval = indexByteInterval;
+    updateIndex();
+  }
+
+	/**
+	 * sets how many entries of the same message template may be written
+	 * within each burst interval. Further entries of the template within the
+	 * interval are suppressed, apart from those sampled at the sample rate,
+	 * and once the interval is over they are summarised in a single entry
+	 * stating how many times the message was repeated. Entries added through
+	 * a supplier have no template and are never suppressed. Zero, the
+	 * default, disables suppression
+	 * 
+	 * @param burstLimit the number of entries per interval, or zero
+	 */
+  public void setBurstLimit(int burstLimit) {
+    if (burstLimit < 0) {
+	    throwArgException("burst limit cannot be negative");
+      return;
+    }
+    this.burstLimit = burstLimit;
+    updateBurstFilter();
+  }
+	/**
+	 * sets the length of the interval over which the burst limit applies
+	 * 
+	 * @param burstInterval the interval in milliseconds
+	 */
+  public void setBurstInterval(long burstInterval) {
+    if (burstInterval <= 0) {
+	    throwArgException("burst interval must be positive");
+      return;
+    }
+    this.burstInterval = burstInterval;
+    updateBurstFilter();
+  }
+	/**
+	 * sets the fraction of the entries beyond the burst limit which are
+	 * still written, chosen at random, so that a burst remains visible in
+	 * the log at a reduced rate
+	 * 
+	 * @param sampleRate the fraction, from 0 to 1
+	 */
+  public void setSampleRate(double sampleRate) {
+    if (!(sampleRate >= 0 && sampleRate <= 1)) {
+	    throwArgException("sample rate must be between 0 and 1");
+      return;
+    }
+    this.sampleRate = sampleRate;
+    updateBurstFilter();
+  }
+
+  private void updateBurstFilter() {
+    stopBurstFilter();
+    if (this.burstLimit > 0)
+      this.burstFilter = new BurstFilter(
+          this.burstLimit,
+          this.burstInterval,
+          this.sampleRate,
+          this.suppressed,
+          this::summariseSuppressed
+          );
+  }
+
+  private void stopBurstFilter() {
+
+    BurstFilter stopping;
+
+    stopping = this.burstFilter;
+    this.burstFilter = null;
+    if (stopping != null)
+      stopping.close();
+  }
+
+  /**
+   * queues the summary of a suppressed burst, stamped with the current time,
+   * and has the shared background thread write it. The burst filter may call
+   * this from the shared scheduler thread, which must never wait on a file.
+   * Entries counted in the filter's overflow slot have no template or level
+   */
+  private void summariseSuppressed(
+      String level,
+      String template,
+      long suppressed
+      ) {
+
+    Instant now;
+
+    now = Instant.now();
+    this.summaries.add(new Summary(
+        level == null ? this.defaultLevel : level,
+        template == null
+          ? "suppressed " + suppressed + " entries of other templates"
+          : template + " (repeated " + suppressed + " more times)",
+        now.getEpochSecond() * 1_000_000_000L + now.getNano()
+        ));
+    if (this.summarising.compareAndSet(false, true))
+      LogScheduler.execute(this::drainSummaries);
+  }
+
+  /**
+   * writes the queued summaries of suppressed bursts with the times they
+   * were made, unless this log has been closed since
+   */
+  private void drainSummaries() {
+
+    Summary summary;
+
+    synchronized (this.summaries) {
+      this.summarising.set(false);
+      while (!this.closed && (summary = this.summaries.poll()) != null)
+        writeSummary(summary);
+    }
+  }
+
+  private void writeSummary(Summary summary) {
+
+    BinaryEncoder encoder;
+    long timestamp;
+
+    timestamp = Math.floorDiv(summary.epochNanos, 1_000_000L);
+    try {
+      if (this.templates != null) {
+        encoder = BinaryEncoder.get().begin(
+            BinaryFormat.RAW_TEMPLATE,
+            summary.level
+            );
+        encoder.arg(summary.line);
+        encoder.fields(null);
+        this.writer.append(encoder.finish(summary.epochNanos), timestamp);
+      }
+      else if (
+          this.appender == null
+          || !this.appender.offer(summary.level, summary.line, null, timestamp)
+          )
+        this.writer.append(
+            encode(summary.level, summary.line, null, timestamp),
+            timestamp
+            );
+    }
+    catch (Exception e) {
+      /* a summary has no caller to report to */
+    }
+  }
+
+  private void updateIndex() {
+    drainAppender();
+    try {
+      if (this.indexEntryInterval == 0 && this.indexByteInterval == 0)
+        this.writer.setIndex(null);
+      else
+        this.writer.setIndex(
+            new TimeIndex(this.indexEntryInterval, this.indexByteInterval)
+            );
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
+  }
+	/**
+	 * sets whether or not to use local-time for log entries. If this value is
+	 * false, then GMT is used. Local time is used by default
+	 * 
+	 * @param useLocalTime the value to be set
+	 */
+	public void setUseLocalTime(boolean useLocalTime) {
+		this.useLocalTime = useLocalTime;
+    this.timestamps = new TimestampCache(
+        TimestampCache.zoneFor(useLocalTime)
+      );
+    this.rotator.setZone(TimestampCache.zoneFor(useLocalTime));
+	}
+	/**
+	 * sets the form in which entries are written. Binary entries hold the
+	 * message template and its raw arguments, so that no formatting takes
+	 * place when they are added, and are rendered later by LogDecoder; each
+	 * template is written once per file. Binary entries are always encoded
+	 * and written by the adding thread, bypassing the asynchronous queue. The
+	 * format should be chosen before any entries are added, since a file
+	 * mixing both formats cannot be read back
+	 * 
+	 * @param outputFormat the format to use
+	 */
+  public void setOutputFormat(LogFormat outputFormat) {
+    if (outputFormat == null) {
+	    throwArgException("output format cannot be null");
+      return;
+    }
+    if (outputFormat == getOutputFormat())
+      return;
+
+    drainAppender();
+    try {
+      if (outputFormat == LogFormat.BINARY) {
+        this.templates = new TemplateTable();
+        this.writer.setPreamble(this.templates);
+      }
+      else {
+        this.templates = null;
+        this.writer.setPreamble(null);
+      }
+      this.jsonLines = outputFormat == LogFormat.JSON;
+    }
+    catch (IOException e) {
+      throwIOException(e.getMessage());
+    }
+  }
+	/**
+	 * sets whether or not entries are written by a background thread. When
+	 * true, adding an entry only places it in a bounded queue, and formatting
+	 * and writing happen on a dedicated writer thread. Switching back to
+	 * synchronous mode writes all queued entries first
+	 * 
+	 * @param asynchronous the value to be set
+	 */
+  public void setAsynchronous(boolean asynchronous) {
+    if (asynchronous == (this.appender != null))
+      return;
+    if (this.closed) {
+      throwIOException("log is closed");
+      return;
+    }
+
+    if (asynchronous)
+      startAppender();
+    else
+      stopAppender();
+  }
+	/**
+	 * sets the number of entries the asynchronous queue can hold. If this log
+	 * is currently asynchronous, the queue is drained and replaced
+	 * 
+	 * @param queueCapacity the maximum number of queued entries
+	 */
+  public void setQueueCapacity(int queueCapacity) {
+    if (queueCapacity <= 0) {
+	    throwArgException("queue capacity must be positive");
+      return;
+    }
+    this.queueCapacity = queueCapacity;
+    restartAppender();
+  }
+	/**
+	 * sets what happens when an entry is added while the asynchronous queue is
+	 * full. If this log is currently asynchronous, the queue is drained and
+	 * replaced
+	 * 
+	 * @param overflowPolicy the policy to use
+	 */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+	    throwArgException("overflow policy cannot be null");
+      return;
+    }
+    this.overflowPolicy = overflowPolicy;
+    restartAppender();
+  }
+	/**
+	 * sets the longest time an asynchronous writer may go without taking
+	 * entries from a full queue, or finishing a write, before it is considered
+	 * stalled. A log whose writer has stalled or died enters emergency mode,
+	 * in which every entry is written synchronously by the thread adding it.
+	 * If this log is currently asynchronous, the queue is drained and
+	 * replaced, which also ends emergency mode
+	 * 
+	 * @param stallTimeout the timeout in milliseconds
+	 */
+  public void setStallTimeout(long stallTimeout) {
+    if (stallTimeout <= 0) {
+	    throwArgException("stall timeout must be positive");
+      return;
+    }
+    this.stallTimeout = stallTimeout;
+    restartAppender();
+  }
+	/**
+	 * adds a sink to which every entry written from now on is copied, once
+	 * formatted, from a writer thread and bounded queue of its own. The queue
+	 * holds as many entries as the asynchronous queue of this log. The sink
+	 * belongs to this log from now on, and is closed when removed or when
+	 * this log is closed. Entries of binary logs are not copied to sinks
+	 * 
+	 * @param sink the sink to be added
+	 */
+  public synchronized void addSink(LogSink sink) {
+
+    SinkRunner[] sinks;
+
+    if (sink == null) {
+	    throwArgException("sink cannot be null");
+      return;
+    }
+    if (runnerOf(sink) != null) {
+	    throwArgException("sink has already been added");
+      return;
+    }
+    if (this.closed) {
+      throwIOException("log is closed");
+      return;
+    }
+
+    sinks = Arrays.copyOf(this.sinks, this.sinks.length + 1);
+    sinks[sinks.length - 1] = new SinkRunner(
+        sink,
+        this.queueCapacity,
+        "upsilon-log-sink: " + this.path
+        );
+    this.sinks = sinks;
+  }
+	/**
+	 * removes a sink, waiting at most the shutdown timeout for the entries
+	 * queued for it to be written, then closes it
+	 * 
+	 * @param sink the sink to be removed
+	 */
+  public synchronized void removeSink(LogSink sink) {
+
+    SinkRunner runner;
+    List<SinkRunner> sinks;
+
+    runner = runnerOf(sink);
+    if (runner == null) {
+	    throwArgException("sink has not been added");
+      return;
+    }
+
+    sinks = new ArrayList<>(Arrays.asList(this.sinks));
+    sinks.remove(runner);
+    this.sinks = sinks.toArray(new SinkRunner [0]);
+    try {
+      runner.stop(this.shutdownTimeout);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throwIOException("interrupted while stopping log sink");
+    }
+  }
+	/**
+	 * sets the longest time the shutdown hook waits for the asynchronous
+	 * writer to finish before writing the remaining queued entries itself.
+	 * Zero waits for as long as the writer keeps making progress. Closing
+	 * this log or removing a sink also waits at most this long for each sink
+	 * to write the entries queued for it
+	 * 
+	 * @param shutdownTimeout the timeout in milliseconds
+	 */
+  public void setShutdownTimeout(long shutdownTimeout) {
+    if (shutdownTimeout < 0) {
+	    throwArgException("shutdown timeout cannot be negative");
+      return;
+    }
+    this.shutdownTimeout = shutdownTimeout;
+  }
+	/**
+	 * sets whether or not this log is closed, writing out all queued and
+	 * buffered entries and forcing them to the storage device, when the
+	 * virtual machine shuts down. This covers normal exit and termination by
+	 * a signal such as SIGTERM or SIGINT, but nothing can run when the
+	 * process is killed outright, so entries only survive that once written
+	 * to the file. The hook waits for the writer for at most the shutdown
+	 * timeout
+	 * 
+	 * @param drainOnShutdown the value to be set
+	 */
+  public void setDrainOnShutdown(boolean drainOnShutdown) {
+    this.drainOnShutdown = drainOnShutdown;
+    if (drainOnShutdown && !this.closed)
+      addShutdownHook();
+    else
+      removeShutdownHook();
+  }
+
+  private void restartAppender() {
+    if (this.appender != null) {
+      stopAppender();
+      startAppender();
+    }
+  }
+
+  private void addShutdownHook() {
+    if (this.shutdownHook != null)
+      return;
+
+    this.shutdownHook = new Thread(
+        this::closeOnShutdown,
+        "upsilon-log-shutdown"
+        );
+    Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+  }
+
+  private void removeShutdownHook() {
+    if (this.shutdownHook == null)
+      return;
+
+    try {
+      Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+    }
+    catch (IllegalStateException e) {
+      /* the virtual machine is already shutting down */
+    }
+    this.shutdownHook = null;
+  }
+
+
+	/**
+	 * gets the path to which this log is being written
+	 * 
+	 * @return the path to which this log is being written
+	 */
+  public Path getPath() {
+    return this.path;
+  }
+	/**
+	 * gets the value of the 'throwsException' property of this object
+	 * 
+	 * @return whether or not this object will throw exceptions
+	 */
+  public boolean getThrowsExceptions() {
+    return this.throwsExceptions;
+  }
+	/**
+	 * gets the currently set format string of this object
+	 * 
+	 * @return the current format string
+	 */
+  public String getFormat() {
+    return this.template.getSource();
+  }
+	/**
+	 * gets the default logging-level string for this object
+	 * 
+	 * @return the current default level
+	 */
+  public String getDefaultLevel() {
+    return this.defaultLevel;
+  }
+	/**
+	 * gets the least severe level written to this log
+	 * 
+	 * @return the current threshold
+	 */
+  public LogLevel getThreshold() {
+    return LogLevel.values()[this.threshold];
+  }
+	/**
+	 * gets whether or not entries of the given level are written to this log
+	 * 
+	 * @param level the level to check
+	 * @return true if entries of the level are written
+	 */
+  public boolean isEnabled(LogLevel level) {
+    return level != null && level.ordinal() >= this.threshold;
+  }
+	/**
+	 * gets the current line-feed set for this object
+	 * 
+	 * @return the current line-feed for this 
+	 */
+	public String getLineFeed() {
+		return this.lineFeed;
+	}
+	/**
+	 * gets the current character set for this object
+	 * 
+	 * @return the current character set
+	 */
+  public Charset getCharset() {
+    return this.charset;
+  }
+	/**
+	 * gets the current flush policy
+	 * 
+	 * @return the current flush policy
+	 */
+  public FlushPolicy getFlushPolicy() {
+    return this.flushPolicy;
+  }
+	/**
+	 * gets the number of entries accumulated per write under the ENTRY_COUNT
+	 * flush policy
+	 * 
+	 * @return the flush entry count
+	 */
+  public int getFlushEntryCount() {
+    return this.flushEntryCount;
+  }
+	/**
+	 * gets the longest time, in milliseconds, an entry is held under the
+	 * INTERVAL flush policy
+	 * 
+	 * @return the flush interval in milliseconds
+	 */
+  public long getFlushInterval() {
+    return this.flushInterval;
+  }
+	/**
+	 * gets whether or not every write is forced to the storage device
+	 * 
+	 * @return the 'syncOnFlush' attribute
+	 */
+  public boolean getSyncOnFlush() {
+    return this.syncOnFlush;
+  }
+	/**
+	 * gets whether or not the log file is written through a memory mapping
+	 * 
+	 * @return the 'memoryMapped' attribute
+	 */
+  public boolean getMemoryMapped() {
+    return this.memoryMapped;
+  }
+	/**
+	 * gets the size of each region mapped when the log is memory mapped
+	 * 
+	 * @return the region size in bytes
+	 */
+  public long getMappedRegionSize() {
+    return this.mappedRegionSize;
+  }
+	/**
+	 * gets whether or not entries are staged in off-heap buffers
+	 * 
+	 * @return the 'directBuffers' attribute
+	 */
+  public boolean getDirectBuffers() {
+    return this.directBuffers;
+  }
+	/**
+	 * gets the size beyond which the log file is rotated
+	 * 
+	 * @return the rotation size in bytes, or zero if disabled
+	 */
+  public long getRotationSize() {
+    return this.rotator.getMaxSize();
+  }
+	/**
+	 * gets the pattern which dictates time-based rotation
+	 * 
+	 * @return the rotation pattern, or null if disabled
+	 */
+  public String getRotationPattern() {
+    return this.rotator.getPattern();
+  }
+	/**
+	 * gets whether or not rotated log files are compressed
+	 * 
+	 * @return the 'compressRotated' attribute
+	 */
+  public boolean getCompressRotated() {
+    return this.rotator.getCompress();
+  }
+	/**
+	 * gets the number of rotated log files kept
+	 * 
+	 * @return the maximum number of rotated files, or zero if unlimited
+	 */
+  public int getMaxRotatedFiles() {
+    return this.rotator.getMaxFiles();
+  }
+	/**
+	 * gets the total size of rotated log files kept
+	 * 
+	 * @return the maximum total size in bytes, or zero if unlimited
+	 */
+  public long getMaxRotatedBytes() {
+    return this.rotator.getMaxBytes();
+  }
+	/**
+	 * gets the number of entries between the points of the time index
+	 * 
+	 * @return the number of entries, or zero
+	 */
+  public int getIndexEntryInterval() {
+    return this.indexEntryInterval;
+  }
+	/**
+	 * gets the number of bytes between the points of the time index
+	 * 
+	 * @return the number of bytes, or zero
+	 */
+  public long getIndexByteInterval() {
+    return this.indexByteInterval;
+  }
+	/**
+	 * gets how many entries of the same message template may be written
+	 * within each burst interval
+	 * 
+	 * @return the number of entries per interval, or zero if unlimited
+	 */
+  public int getBurstLimit() {
+    return this.burstLimit;
+  }
+	/**
+	 * gets the length of the interval over which the burst limit applies
+	 * 
+	 * @return the interval in milliseconds
+	 */
+  public long getBurstInterval() {
+    return this.burstInterval;
+  }
+	/**
+	 * gets the fraction of the entries beyond the burst limit which are
+	 * still written
+	 * 
+	 * @return the sample rate
+	 */
+  public double getSampleRate() {
+    return this.sampleRate;
+  }
+	/**
+	 * gets the number of entries suppressed so far for exceeding the burst
+	 * limit
+	 * 
+	 * @return the number of suppressed entries
+	 */
+  public long getSuppressedCount() {
+    return this.suppressed.get();
+  }
+	/**
+	 * gets a snapshot of the batch sizes achieved and the time spent forcing
+	 * writes to the storage device
+	 * 
+	 * @return the current batch statistics
+	 */
+  public BatchStatistics getBatchStatistics() {
+    return this.writer.getStatistics();
+  }
+	/**
+	 * gets a snapshot of the metrics of this log: the entries and bytes it
+	 * has written, dropped or suppressed, the depth of its asynchronous
+	 * queue, and the time spent formatting, writing and syncing entries
+	 * 
+	 * @return the current metrics
+	 */
+  public LogMetrics getMetrics() {
+    return new LogMetrics(
+        this.metrics.getEntries(),
+        this.metrics.getBytes(),
+        this.dropped.get(),
+        this.suppressed.get(),
+        getQueueSize(),
+        this.metrics.getQueueHighWaterMark(),
+        this.metrics.format.snapshot(),
+        this.metrics.write.snapshot(),
+        this.metrics.sync.snapshot()
+        );
+  }
+	/**
+	 * gets the 'useLocalTime' attribute for this object
+	 * 
+	 * @return the 'useLocalTime' attribute
+	 */
+	public boolean getUseLocalTime() {
+		return this.useLocalTime;
+	}
+	/**
+	 * gets the form in which entries are written
+	 * 
+	 * @return the output format
+	 */
+  public LogFormat getOutputFormat() {
+    if (this.templates != null)
+      return LogFormat.BINARY;
+    else
+      return this.jsonLines ? LogFormat.JSON : LogFormat.TEXT;
+  }
+	/**
+	 * gets whether or not entries are written by a background thread
+	 * 
+	 * @return true if this log is asynchronous
+	 */
+  public boolean getAsynchronous() {
+    return this.appender != null;
+  }
+	/**
+	 * gets the number of entries the asynchronous queue can hold
+	 * 
+	 * @return the asynchronous queue capacity
+	 */
+  public int getQueueCapacity() {
+    return this.queueCapacity;
+  }
+	/**
+	 * gets the policy applied when the asynchronous queue is full
+	 * 
+	 * @return the current overflow policy
+	 */
+  public OverflowPolicy getOverflowPolicy() {
+    return this.overflowPolicy;
+  }
+	/**
+	 * gets the longest time an asynchronous writer may stall before this log
+	 * enters emergency mode
+	 * 
+	 * @return the stall timeout in milliseconds
+	 */
+  public long getStallTimeout() {
+    return this.stallTimeout;
+  }
+	/**
+	 * gets the sinks to which entries are copied
+	 * 
+	 * @return the sinks, in the order they were added
+	 */
+  public List<LogSink> getSinks() {
+
+    List<LogSink> ret;
+
+    ret = new ArrayList<>();
+    for (SinkRunner runner : this.sinks)
+      ret.add(runner.getSink());
+
+    return ret;
+  }
+	/**
+	 * gets the number of entries a sink has missed, because its queue was
+	 * full or it failed to write them
+	 * 
+	 * @param sink the sink
+	 * @return the number of dropped entries, or zero if the sink has not been
+	 *         added
+	 */
+  public long getSinkDroppedCount(LogSink sink) {
+
+    SinkRunner runner;
+
+    runner = runnerOf(sink);
+    return runner == null ? 0 : runner.getDroppedCount();
+  }
+	/**
+	 * gets the number of times a sink has failed to write or close
+	 * 
+	 * @param sink the sink
+	 * @return the number of failures, or zero if the sink has not been added
+	 */
+  public long getSinkFailureCount(LogSink sink) {
+
+    SinkRunner runner;
+
+    runner = runnerOf(sink);
+    return runner == null ? 0 : runner.getFailureCount();
+  }
+	/**
+	 * gets the longest time the shutdown hook waits for the asynchronous
+	 * writer
+	 * 
+	 * @return the shutdown timeout in milliseconds
+	 */
+  public long getShutdownTimeout() {
+    return this.shutdownTimeout;
+  }
+	/**
+	 * gets whether this log's asynchronous writer has stalled or died, so that
+	 * entries are being written synchronously by the threads adding them
+	 * 
+	 * @return true if in emergency mode
+	 */
+  public boolean isInEmergencyMode() {
+
+    AsyncAppender appender;
+
+    appender = this.appender;
+    return appender != null && appender.isEmergency();
+  }
+	/**
+	 * gets whether or not this log is drained when the virtual machine shuts
+	 * down
+	 * 
+	 * @return the 'drainOnShutdown' attribute
+	 */
+  public boolean getDrainOnShutdown() {
+    return this.drainOnShutdown;
+  }
+	/**
+	 * gets the number of entries discarded by the asynchronous queue, either
+	 * through its overflow policy or because they could not be written
+	 * 
+	 * @return the number of dropped entries
+	 */
+  public long getDroppedCount() {
+    return this.dropped.get();
+  }
+	/**
+	 * gets the number of entries currently waiting in the asynchronous queue
+	 * 
+	 * @return the current queue size
+	 */
+  public int getQueueSize() {
+    return this.appender == null ? 0 : this.appender.size();
+  }
+  
+
+	/**
+	 * adds the given string to this log. Formats using only '%s' and '%d'
+	 * are rendered without intermediate allocation; any other format is
+	 * rendered by String.format
+	 * 
+	 * @param line the format of the line content
+	 * @param params parameters to the line content format
+	 */
+  public void add(String line, Object... params) {
+
+    if (StringTools.isNullOrEmpty(line)) {
+      throwArgException("line cannot be null or empty");
+      return;
+    }
+
+    if (this.defaultSeverity >= this.threshold)
+      addParams(null, line, params);
+  }
+	/**
+	 * adds the given string to this log without boxing its parameter. Formats
+	 * using only '%s' and '%d' are rendered without intermediate allocation
+	 * 
+	 * @param line the format of the line content
+	 * @param param parameter to the line content format
+	 */
+  public void addInt(String line, int param) {
+    addPrimitives(line, INT_PARAMS, 1, param, 0, 0);
+  }
+	/**
+	 * adds the given string to this log without boxing its parameters. Formats
+	 * using only '%s' and '%d' are rendered without intermediate allocation
+	 * 
+	 * @param line the format of the line content
+	 * @param param0 first parameter to the line content format
+	 * @param param1 second parameter to the line content format
+	 */
+  public void addInt(String line, int param0, int param1) {
+    addPrimitives(line, INT_PARAMS, 2, param0, param1, 0);
+  }
+	/**
+	 * adds the given string to this log without boxing its parameter. Formats
+	 * using only '%s' and '%d' are rendered without intermediate allocation
+	 * 
+	 * @param line the format of the line content
+	 * @param param parameter to the line content format
+	 */
+  public void addLong(String line, long param) {
+    addPrimitives(line, LONG_PARAMS, 1, param, 0, 0);
+  }
+	/**
+	 * adds the given string to this log without boxing its parameters. Formats
+	 * using only '%s' and '%d' are rendered without intermediate allocation
+	 * 
+	 * @param line the format of the line content
+	 * @param param0 first parameter to the line content format
+	 * @param param1 second parameter to the line content format
+	 */
+  public void addLong(String line, long param0, long param1) {
+    addPrimitives(line, LONG_PARAMS, 2, param0, param1, 0);
+  }
+	/**
+	 * adds the given string to this log without boxing its parameter. Formats
+	 * using only '%s' are rendered without intermediate allocation
+	 * 
+	 * @param line the format of the line content
+	 * @param param parameter to the line content format
+	 */
+  public void addDouble(String line, double param) {
+    addPrimitives(line, DOUBLE_PARAM, 1, 0, 0, param);
+  }
+
+  /**
+   * the shared body of the boxing-free adds. Integral parameters arrive in
+   * param0 and param1, a double parameter in real, and type says which of
+   * them count parameters are read from
+   */
+  private void addPrimitives(
+      String line,
+      int type,
+      int count,
+      long param0,
+      long param1,
+      double real
+      ) {
+
+    MessageFormatter formatter;
+    BinaryEncoder encoder;
+    boolean supported;
+
+    if (StringTools.isNullOrEmpty(line)) {
+      throwArgException("line cannot be null or empty");
+      return;
+    }
+
+    if (this.defaultSeverity < this.threshold || !admit(null, line))
+      return;
+
+    encoder = beginBinary(null, line, true);
+    if (encoder != null) {
+      for (int k = 0; k < count; k++) {
+        if (type == INT_PARAMS)
+          encoder.arg((int) (k == 0 ? param0 : param1));
+        else if (type == LONG_PARAMS)
+          encoder.arg(k == 0 ? param0 : param1);
+        else
+          encoder.arg(real);
+      }
+      writeBinary(encoder);
+      return;
+    }
+
+    formatter = MessageFormatter.begin(line);
+    if (formatter != null) {
+      try {
+        supported = true;
+        for (int k = 0; k < count && supported; k++) {
+          if (type == DOUBLE_PARAM)
+            supported = formatter.arg(real);
+          else
+            supported = formatter.arg(k == 0 ? param0 : param1);
+        }
+        if (addFormatted(null, formatter.finish()))
+          return;
+      }
+      finally {
+        formatter.end();
+      }
+    }
+
+    if (type == DOUBLE_PARAM)
+      addFallback(null, line, real);
+    else if (type == INT_PARAMS && count == 1)
+      addFallback(null, line, (int) param0);
+    else if (type == INT_PARAMS)
+      addFallback(null, line, (int) param0, (int) param1);
+    else if (count == 1)
+      addFallback(null, line, param0);
+    else
+      addFallback(null, line, param0, param1);
+  }
+
+  private void addParams(String level, String line, Object[] params) {
+
+    MessageFormatter formatter;
+    BinaryEncoder encoder;
+
+    if (!admit(level, line))
+      return;
+
+    encoder = beginBinary(level, line, true);
+    if (encoder != null && encoder.args(params)) {
+      writeBinary(encoder);
+      return;
+    }
+
+    formatter = MessageFormatter.begin(line);
+    if (formatter != null) {
+      try {
+        if (params != null) {
+          for (Object param : params) {
+            if (!formatter.arg(param))
+              break;
+          }
+        }
+        if (addFormatted(level, formatter.finish()))
+          return;
+      }
+      finally {
+        formatter.end();
+      }
+    }
+
+    addFallback(level, line, params);
+  }
+
+  private boolean addFormatted(String level, CharSequence formatted) {
+
+    if (formatted == null)
+      return false;
+
+    if (formatted.length() == 0)
+      throwArgException("line cannot be null or empty");
+    else
+      addImp(level, formatted);
+
+    return true;
+  }
+
+  /**
+   * counts an entry against the burst limit of its template
+   *
+   * @return true if the entry should be written
+   */
+  private boolean admit(String level, String line) {
+
+    BurstFilter filter;
+
+    filter = this.burstFilter;
+    return filter == null
+        || filter.admit(level == null ? this.defaultLevel : level, line);
+  }
+
+  private void addFallback(String level, String line, Object... params) {
+
+    String formatted;
+
+    try
+    {
+	    formatted = String.format(line, params);
+    }
+    catch (Exception e)
+    {
+			if (this.throwsExceptions)
+        throw new RuntimeException(e);
+      else
+        return;
+    }
+
+    addFormatted(level, formatted);
+  }
+
+	/**
+	 * adds the given string to this log
+	 * 
+	 * @param line the line to be added to the string
+	 */
+  public void add(String line) {
+    if (StringTools.isNullOrEmpty(line)) {
+      throwArgException("line cannot be null or empty");
+      return;
+    }
+
+    if (this.defaultSeverity >= this.threshold)
+        addLiteral(null, line);
+  }
+	/**
+	 * adds the line produced by the given supplier to this log. The supplier
+	 * is only invoked if the default level is enabled
+	 * 
+	 * @param supplier supplier of the line to be added
+	 */
+  public void add(Supplier<? extends CharSequence> supplier) {
+    if (this.defaultSeverity >= this.threshold)
+      addSupplied(null, supplier);
+  }
+	/**
+	 * adds the given string to this log at the given level
+	 * 
+	 * @param level the level of the entry
+	 * @param line the line to be added to the string
+	 */
+  public void add(LogLevel level, String line) {
+    if (level == null) {
+      throwArgException("level cannot be null");
+      return;
+    }
+    if (StringTools.isNullOrEmpty(line)) {
+      throwArgException("line cannot be null or empty");
+      return;
+    }
+
+    if (level.ordinal() >= this.threshold)
+      addLiteral(level.name(), line);
+  }
+
+  private void addLiteral(String level, String line) {
+
+    BinaryEncoder encoder;
+
+    if (!admit(level, line))
+      return;
+
+    encoder = beginBinary(level, line, false);
+    if (encoder != null)
+      writeBinary(encoder);
+    else
+      addImp(level, line);
+  }
+	/**
+	 * adds the given string to this log at the given level. The line is only
+	 * formatted if the level is enabled
+	 * 
+	 * @param level the level of the entry
+	 * @param line the format of the line content
+	 * @param params parameters to the line content format
+	 */
+  public void add(LogLevel level, String line, Object... params) {
+    if (level == null) {
+      throwArgException("level cannot be null");
+      return;
+    }
+    if (StringTools.isNullOrEmpty(line)) {
+      throwArgException("line cannot be null or empty");
+      return;
+    }
+
+    if (level.ordinal() >= this.threshold)
+      addParams(level.name(), line, params);
+  }
+	/**
+	 * adds the line produced by the given supplier to this log at the given
+	 * level. The supplier is only invoked if the level is enabled
+	 * 
+	 * @param level the level of the entry
+	 * @param supplier supplier of the line to be added
+	 */
+  public void add(LogLevel level, Supplier<? extends CharSequence> supplier) {
+    if (level == null) {
+      throwArgException("level cannot be null");
+      return;
+    }
+
+    if (level.ordinal() >= this.threshold)
+      addSupplied(level.name(), supplier);
+  }
+
+  private void addSupplied(
+      String level,
+      Supplier<? extends CharSequence> supplier
+      ) {
+
+    CharSequence line;
+
+    if (supplier == null) {
+      throwArgException("supplier cannot be null");
+      return;
+    }
+
+    line = supplier.get();
+    if (line == null || line.length() == 0) {
+      throwArgException("line cannot be null or empty");
+      return;
+    }
+
+    addImp(level, line);
+  }
+	/**
+	 * starts an entry at the given level carrying structured fields, to be
+	 * written once committed:
+	 * 
+	 *   log.at(LogLevel.INFO)
+	 *     .message("request served")
+	 *     .kv("requestId", id)
+	 *     .kv("latencyMicros", latency)
+	 *     .commit();
+	 * 
+	 * In text logs the fields are written in logfmt style where the format
+	 * has '%v', or else at the end of the line; in JSON logs they are members
+	 * of each line's object. If the level is not enabled, the entry returned
+	 * ignores everything done to it
+	 * 
+	 * @param level the level of the entry
+	 * @return the entry, which must be committed
+	 */
+  public LogEntry at(LogLevel level) {
+
+    LogEntry ret;
+
+    if (level == null) {
+      throwArgException("level cannot be null");
+      return LogEntry.DISABLED;
+    }
+    if (level.ordinal() < this.threshold)
+      return LogEntry.DISABLED;
+
+    ret = ENTRY.get();
+    if (ret.isInUse())
+      ret = new LogEntry();
+
+    return ret.begin(this, level.name(), this.jsonLines);
+  }
+
+  void addStructured(
+      String level,
+      CharSequence message,
+      String messageKey,
+      CharSequence fields
+      ) {
+
+    BinaryEncoder encoder;
+
+    if (messageKey != null && !admit(level, messageKey))
+      return;
+
+    encoder = messageKey == null ? null : beginBinary(level, messageKey, false);
+    if (encoder != null) {
+      encoder.fields(fields);
+      writeBinary(encoder);
     }
+    else
+      addImp(level, message, fields);
   }
 
 	
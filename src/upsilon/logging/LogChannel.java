@@ -0,0 +1,55 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Append-only destination of a log file's bytes. The file is opened on the
+ * first write; once closed, a channel may be written to again, in which
+ * case it reopens the file
+ */
+interface LogChannel extends AutoCloseable {
+
+  Path getPath();
+
+  /**
+   * appends the remaining content of the buffer to the file
+   */
+  void write(ByteBuffer buffer) throws IOException;
+
+  /**
+   * gets the number of bytes of log content in the file
+   */
+  long size() throws IOException;
+
+  /**
+   * forces written content to the storage device
+   */
+  void force() throws IOException;
+
+  @Override
+  void close() throws IOException;
+
+}
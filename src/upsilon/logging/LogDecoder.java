@@ -0,0 +1,324 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import upsilon.tools.StringTools;
+
+/**
+ * Renders binary log files back into text lines, in the same format a text
+ * log would have written them. It can also be run from the command line:
+ *
+ *   java upsilon.logging.LogDecoder [-f format] [-l | -u] [-s instant] file...
+ *
+ * which writes the lines of each file to standard output, using the given
+ * log format and local time, as Log does by default, or UTC time if -u is
+ * given, starting from the first entry at or after the given ISO-8601
+ * instant, if any
+ */
+public class LogDecoder {
+
+  private volatile LogTemplate template;
+  private volatile TimestampCache timestamps;
+  private volatile String lineFeed;
+  private volatile boolean useLocalTime;
+
+	/**
+	 * Creates a new decoder using the default log format and local time, as
+	 * Log itself uses
+	 */
+  public LogDecoder() {
+    this.template = LogTemplate.compile("[%5l] %r %t : %c");
+    this.timestamps = new TimestampCache(TimestampCache.zoneFor(true));
+    this.lineFeed = "\n";
+    this.useLocalTime = true;
+  }
+
+	/**
+	 * sets the format in which lines are rendered, as for Log.setFormat
+	 * 
+	 * @param format the new format
+	 */
+  public void setFormat(String format) {
+    if (StringTools.isNullOrEmpty(format))
+      throw new IllegalArgumentException("format cannot be null or empty");
+    this.template = LogTemplate.compile(format);
+  }
+	/**
+	 * sets whether times are rendered in local time rather than UTC
+	 * 
+	 * @param useLocalTime the new value
+	 */
+  public void setUseLocalTime(boolean useLocalTime) {
+    this.useLocalTime = useLocalTime;
+    this.timestamps = new TimestampCache(TimestampCache.zoneFor(useLocalTime));
+  }
+	/**
+	 * sets the character string appended to each rendered line
+	 * 
+	 * @param lineFeed the new line-feed
+	 */
+  public void setLineFeed(String lineFeed) {
+    if (lineFeed == null)
+      throw new IllegalArgumentException("line-feed cannot be null");
+    this.lineFeed = lineFeed;
+  }
+
+	/**
+	 * gets the format in which lines are rendered
+	 * 
+	 * @return the format
+	 */
+  public String getFormat() {
+    return this.template.getSource();
+  }
+	/**
+	 * gets whether times are rendered in local time rather than UTC
+	 * 
+	 * @return the value
+	 */
+  public boolean getUseLocalTime() {
+    return this.useLocalTime;
+  }
+	/**
+	 * gets the character string appended to each rendered line
+	 * 
+	 * @return the line-feed
+	 */
+  public String getLineFeed() {
+    return this.lineFeed;
+  }
+
+	/**
+	 * renders every entry of the given binary log file. Files whose name ends
+	 * in ".gz", such as compressed rotated logs, are decompressed
+	 * 
+	 * @param path location of the binary log file
+	 * @param out destination of the rendered lines
+	 * @return the number of entries rendered
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+  public long decode(Path path, Appendable out) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      if (path.getFileName().toString().endsWith(".gz"))
+        return decode(new GZIPInputStream(in), out);
+      else
+        return decode(in, out);
+    }
+  }
+	/**
+	 * renders the entries of the given binary log file from the first one at
+	 * or after the given instant. If the log has a time index, reading starts
+	 * at the last indexed point before the instant; otherwise, as for
+	 * compressed files, the whole file is read
+	 * 
+	 * @param path location of the binary log file
+	 * @param from the earliest time of an entry to be rendered
+	 * @param out destination of the rendered lines
+	 * @return the number of entries rendered
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+  public long decode(Path path, Instant from, Appendable out)
+      throws IOException {
+
+    long offset;
+
+    if (from == null)
+      throw new IllegalArgumentException("from cannot be null");
+
+    if (path.getFileName().toString().endsWith(".gz")) {
+      try (InputStream in = Files.newInputStream(path)) {
+        return decode(
+            new BinaryRecordReader(new GZIPInputStream(in), 0),
+            from.getEpochSecond() * 1_000_000_000L + from.getNano(),
+            out
+            );
+      }
+    }
+
+    offset = LogIndex.find(path, from);
+    try (InputStream in = LogIndex.open(path, offset)) {
+      return decode(
+          new BinaryRecordReader(in, offset),
+          from.getEpochSecond() * 1_000_000_000L + from.getNano(),
+          out
+          );
+    }
+  }
+	/**
+	 * renders every entry read from the given stream of a binary log
+	 * 
+	 * @param in the binary log content
+	 * @param out destination of the rendered lines
+	 * @return the number of entries rendered
+	 * @throws IOException if the stream cannot be read or is malformed
+	 */
+  public long decode(InputStream in, Appendable out) throws IOException {
+    return decode(new BinaryRecordReader(in, 0), Long.MIN_VALUE, out);
+  }
+
+  private long decode(
+      BinaryRecordReader reader,
+      long fromNanos,
+      Appendable out
+      ) throws IOException {
+
+    StringBuilder sb;
+    LogTemplate template;
+    TimestampCache timestamps;
+    String lineFeed;
+    boolean started;
+    long count, epochMillis;
+    int tag;
+
+    sb = new StringBuilder();
+    template = this.template;
+    timestamps = this.timestamps;
+    lineFeed = this.lineFeed;
+    started = false;
+    count = 0;
+
+    while ((tag = reader.next()) != -1) {
+      if (tag != BinaryFormat.ENTRY)
+        continue;
+      if (!started && reader.getEpochNanos() < fromNanos)
+        continue;
+
+      started = true;
+      epochMillis = reader.getEpochMillis();
+      sb.setLength(0);
+      template.render(
+          sb,
+          reader.getLevel(),
+          reader.getLine(),
+          reader.getFields(),
+          epochMillis,
+          timestamps.get(epochMillis)
+          );
+      sb.append(lineFeed);
+      out.append(sb);
+      count++;
+    }
+
+    return count;
+  }
+
+  public static void main(String[] args) {
+
+    LogDecoder decoder;
+    Writer out;
+    List<Path> files;
+    Instant from;
+    int status;
+
+    decoder = new LogDecoder();
+    files = new ArrayList<>();
+    from = null;
+
+    for (int k = 0; k < args.length; k++) {
+      switch (args[k]) {
+        case "-f":
+          if (++k == args.length) {
+            usage();
+            return;
+          }
+          decoder.setFormat(args[k]);
+          break;
+        case "-l":
+          decoder.setUseLocalTime(true);
+          break;
+        case "-u":
+          decoder.setUseLocalTime(false);
+          break;
+        case "-s":
+          if (++k == args.length) {
+            usage();
+            return;
+          }
+          try {
+            from = Instant.parse(args[k]);
+          }
+          catch (DateTimeParseException e) {
+            usage();
+            return;
+          }
+          break;
+        default:
+          files.add(Paths.get(args[k]));
+          break;
+      }
+    }
+
+    if (files.isEmpty()) {
+      usage();
+      return;
+    }
+
+    status = 0;
+    out = new BufferedWriter(new OutputStreamWriter(System.out));
+    try {
+      for (Path file : files) {
+        try {
+          if (from == null)
+            decoder.decode(file, out);
+          else
+            decoder.decode(file, from, out);
+        }
+        catch (IOException e) {
+          out.flush();
+          System.err.println(file + ": " + e.getMessage());
+          status = 1;
+        }
+      }
+      out.flush();
+    }
+    catch (IOException e) {
+      System.err.println(e.getMessage());
+      status = 1;
+    }
+
+    if (status != 0)
+      System.exit(status);
+  }
+
+  private static void usage() {
+    System.err.println(
+        "usage: java upsilon.logging.LogDecoder "
+          + "[-f format] [-l | -u] [-s instant] file..."
+        );
+    System.exit(2);
+  }
+
+}
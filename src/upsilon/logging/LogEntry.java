@@ -0,0 +1,300 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+/**
+ * A log entry under construction, carrying a message along with structured
+ * fields, obtained from Log.at. Each field is rendered straight into the
+ * entry's buffer as it is added, in logfmt style (key=value, either side
+ * quoted and escaped if it would not otherwise read back whole) or, for a
+ * log writing JSON lines, as JSON members, so that no map of fields is ever
+ * built. Entries are pooled per thread and reused once committed, so an
+ * entry must not be kept or used after commit is called. If the level of
+ * the entry is not enabled, every method does nothing
+ */
+public final class LogEntry {
+
+  static final LogEntry DISABLED = new LogEntry();
+
+  private static final int MAX_RETAINED_BUFFER = 1 << 12;
+
+  private final StringBuilder message, fields;
+  private Log log;
+  private String level, messageKey;
+  private boolean json, inUse;
+
+  LogEntry() {
+    this.message = new StringBuilder();
+    this.fields = new StringBuilder();
+    this.log = null;
+    this.inUse = false;
+  }
+
+  boolean isInUse() {
+    return this.inUse;
+  }
+
+  LogEntry begin(Log log, String level, boolean json) {
+    this.log = log;
+    this.level = level;
+    this.json = json;
+    this.messageKey = null;
+    this.inUse = true;
+    this.message.setLength(0);
+    this.fields.setLength(0);
+    return this;
+  }
+
+  /**
+   * sets the message of this entry. A message given as a String also serves
+   * as the entry's template for burst suppression and binary logs, and so
+   * should not vary from entry to entry; variable data belongs in fields
+   * 
+   * @param message the message
+   * @return this entry
+   */
+  public LogEntry message(CharSequence message) {
+    if (this.log == null)
+      return this;
+
+    this.message.setLength(0);
+    if (message == null)
+      this.messageKey = null;
+    else {
+      this.message.append(message);
+      this.messageKey = message instanceof String ? (String) message : null;
+    }
+
+    return this;
+  }
+
+  /**
+   * adds a field to this entry
+   * 
+   * @param key the name of the field
+   * @param value the value of the field
+   * @return this entry
+   */
+  public LogEntry kv(String key, long value) {
+    if (this.log != null)
+      appendKey(key).append(value);
+    return this;
+  }
+  /**
+   * adds a field to this entry
+   * 
+   * @param key the name of the field
+   * @param value the value of the field
+   * @return this entry
+   */
+  public LogEntry kv(String key, int value) {
+    if (this.log != null)
+      appendKey(key).append(value);
+    return this;
+  }
+  /**
+   * adds a field to this entry. In JSON, values which are not finite are
+   * written as strings
+   * 
+   * @param key the name of the field
+   * @param value the value of the field
+   * @return this entry
+   */
+  public LogEntry kv(String key, double value) {
+    if (this.log == null)
+      return this;
+
+    appendKey(key);
+    if (this.json && (Double.isNaN(value) || Double.isInfinite(value)))
+      this.fields.append('"').append(value).append('"');
+    else
+      this.fields.append(value);
+
+    return this;
+  }
+  /**
+   * adds a field to this entry
+   * 
+   * @param key the name of the field
+   * @param value the value of the field
+   * @return this entry
+   */
+  public LogEntry kv(String key, boolean value) {
+    if (this.log != null)
+      appendKey(key).append(value);
+    return this;
+  }
+  /**
+   * adds a field to this entry
+   * 
+   * @param key the name of the field
+   * @param value the value of the field
+   * @return this entry
+   */
+  public LogEntry kv(String key, CharSequence value) {
+    if (this.log == null)
+      return this;
+
+    appendKey(key);
+    if (value == null)
+      this.fields.append("null");
+    else
+      appendString(value);
+
+    return this;
+  }
+  /**
+   * adds a field to this entry. Numbers and booleans are written as such,
+   * and anything else as its string value
+   * 
+   * @param key the name of the field
+   * @param value the value of the field
+   * @return this entry
+   */
+  public LogEntry kv(String key, Object value) {
+    if (this.log == null)
+      return this;
+
+    if (value instanceof Double || value instanceof Float)
+      return kv(key, ((Number) value).doubleValue());
+    if (
+        value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte
+        )
+      return kv(key, ((Number) value).longValue());
+    if (value instanceof Boolean)
+      return kv(key, ((Boolean) value).booleanValue());
+    if (value == null || value instanceof CharSequence)
+      return kv(key, (CharSequence) value);
+
+    return kv(key, String.valueOf(value));
+  }
+
+  /**
+   * writes this entry to its log. The entry must not be used afterwards
+   */
+  public void commit() {
+
+    Log committing;
+
+    if (this.log == null)
+      return;
+
+    committing = this.log;
+    try {
+      committing.addStructured(
+          this.level,
+          this.message,
+          this.messageKey,
+          this.fields
+          );
+    }
+    finally {
+      this.log = null;
+      this.level = null;
+      this.messageKey = null;
+      trim(this.message);
+      trim(this.fields);
+      this.inUse = false;
+    }
+  }
+
+  private static void trim(StringBuilder buffer) {
+    if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+      buffer.setLength(0);
+      buffer.trimToSize();
+    }
+  }
+
+  private StringBuilder appendKey(String key) {
+
+    if (this.fields.length() != 0)
+      this.fields.append(this.json ? ',' : ' ');
+
+    if (this.json) {
+      JsonLine.appendString(this.fields, key == null ? "null" : key);
+      this.fields.append(':');
+    }
+    else {
+      appendLogfmt(key == null ? "null" : key);
+      this.fields.append('=');
+    }
+
+    return this.fields;
+  }
+
+  private void appendString(CharSequence value) {
+    if (this.json)
+      JsonLine.appendString(this.fields, value);
+    else
+      appendLogfmt(value);
+  }
+
+  /**
+   * appends a logfmt key or value, quoted and escaped unless it is
+   * non-empty and free of spaces, control characters, '"', '=' and '\'
+   */
+  private void appendLogfmt(CharSequence value) {
+
+    char c;
+    boolean bare;
+
+    bare = value.length() != 0;
+    for (int k = 0; k < value.length() && bare; k++) {
+      c = value.charAt(k);
+      bare = c > ' ' && c != '"' && c != '=' && c != '\\';
+    }
+    if (bare) {
+      this.fields.append(value);
+      return;
+    }
+
+    this.fields.append('"');
+    for (int k = 0; k < value.length(); k++) {
+      c = value.charAt(k);
+      switch (c) {
+        case '"':
+          this.fields.append("\\\"");
+          break;
+        case '\\':
+          this.fields.append("\\\\");
+          break;
+        case '\n':
+          this.fields.append("\\n");
+          break;
+        case '\r':
+          this.fields.append("\\r");
+          break;
+        case '\t':
+          this.fields.append("\\t");
+          break;
+        default:
+          this.fields.append(c);
+          break;
+      }
+    }
+    this.fields.append('"');
+  }
+
+}
@@ -0,0 +1,357 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Seeks within log files using the time index a log keeps alongside its
+ * file when given an index interval, in a sidecar file named after the log
+ * with ".idx" appended. The index is sparse: it records, every so many
+ * entries or bytes, the offset of an entry and a time no earlier than any
+ * entry before it. Seeking to an instant therefore lands on the last
+ * indexed entry before which everything is earlier, after which at most
+ * one interval of entries needs to be read to reach the first entry at or
+ * after the instant. A missing or empty index simply leads to the start of
+ * the file. Only the current file of a rotated log is indexed
+ */
+public class LogIndex { private LogIndex() {}
+
+  /**
+   * gets the location of the time index of the given log file
+   *
+   * @param log location of the log file
+   * @return location of its time index
+   */
+  public static Path pathOf(Path log) {
+    if (log == null)
+      throw new IllegalArgumentException("log cannot be null");
+    return TimeIndex.pathOf(log);
+  }
+
+  /**
+   * finds the offset from which to read the given log so as not to miss
+   * any entry at or after the given instant. Every entry before the offset
+   * is earlier than the instant
+   *
+   * @param log location of the log file
+   * @param from the instant sought
+   * @return the offset of an entry in the log, or zero
+   * @throws IOException if the index cannot be read
+   */
+  public static long find(Path log, Instant from) throws IOException {
+
+    ByteBuffer point;
+    long target, low, high, middle, ret;
+
+    if (from == null)
+      throw new IllegalArgumentException("from cannot be null");
+
+    target = from.toEpochMilli();
+
+    try (FileChannel index = FileChannel.open(pathOf(log))) {
+
+      point = ByteBuffer.allocate(TimeIndex.POINT_SIZE);
+      low = 0;
+      high = TimeIndex.countPoints(index, Files.size(log)) - 1;
+      ret = 0;
+
+      /* the last point whose time is earlier than the target */
+      while (low <= high) {
+        middle = (low + high) >>> 1;
+        point.clear();
+        TimeIndex.readPoint(index, middle, point);
+        if (point.getLong(0) < target) {
+          ret = point.getLong(8);
+          low = middle + 1;
+        }
+        else
+          high = middle - 1;
+      }
+
+      return ret;
+    }
+    catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * opens the given log for reading from the given offset
+   *
+   * @param log location of the log file
+   * @param offset the offset at which to start, as found by find
+   * @return a stream of the log's content from the offset
+   * @throws IOException if the log cannot be opened
+   */
+  public static InputStream open(Path log, long offset) throws IOException {
+
+    FileChannel channel;
+
+    if (offset < 0)
+      throw new IllegalArgumentException("offset cannot be negative");
+
+    channel = FileChannel.open(log, StandardOpenOption.READ);
+    try {
+      channel.position(offset);
+    }
+    catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+
+    return Channels.newInputStream(channel);
+  }
+
+  /**
+   * reads the lines of the given text log, starting from the first entry at
+   * or after the given instant. The stream must be closed once finished
+   * with
+   *
+   * @param log location of the log file
+   * @param from the earliest time of an entry to be read
+   * @param charset the character set of the log
+   * @param timestampOf gives the time, in milliseconds since the epoch, of
+   *                    the entry a line begins, or Long.MIN_VALUE, or throws,
+   *                    if the line does not begin an entry
+   * @return the lines of the log from the first entry at or after the
+   *         instant
+   * @throws IOException if the log or its index cannot be read
+   */
+  public static Stream<String> lines(
+      Path log,
+      Instant from,
+      Charset charset,
+      ToLongFunction<String> timestampOf
+      ) throws IOException {
+
+    BufferedReader reader;
+    long target;
+
+    if (charset == null)
+      throw new IllegalArgumentException("charset cannot be null");
+    if (timestampOf == null)
+      throw new IllegalArgumentException("timestampOf cannot be null");
+
+    target = from.toEpochMilli();
+    reader = new BufferedReader(
+        new InputStreamReader(open(log, find(log, from)), charset)
+        );
+
+    return reader
+      .lines()
+      .dropWhile(line -> timestampOf(timestampOf, line) < target)
+      .onClose(() -> {
+          try {
+            reader.close();
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * rebuilds the time index of the given log from the log itself, replacing
+   * any existing index. This must not be done while the log is being
+   * written. Points in a binary log can only be placed where the log
+   * restarted its template definitions, which a log does at every point it
+   * indexes, so charset and timestampOf are ignored for binary logs and may
+   * be null. Text logs are split into lines at each '\n' byte, so their
+   * character set must encode it as that single byte
+   *
+   * @param log location of the log file
+   * @param entryInterval the number of entries between points, or zero
+   * @param byteInterval the number of bytes between points, or zero
+   * @param charset the character set of a text log
+   * @param timestampOf gives the time, in milliseconds since the epoch, of
+   *                    the entry a line of a text log begins, or
+   *                    Long.MIN_VALUE, or throws, if the line does not begin
+   *                    an entry
+   * @throws IOException if the log cannot be read or the index written
+   */
+  public static void rebuild(
+      Path log,
+      int entryInterval,
+      long byteInterval,
+      Charset charset,
+      ToLongFunction<String> timestampOf
+      ) throws IOException {
+
+    TimeIndex index;
+    Path temporary;
+
+    index = new TimeIndex(entryInterval, byteInterval);
+    temporary = log.resolveSibling(log.getFileName() + ".idx.tmp");
+    try {
+      index.create(temporary);
+      if (isBinary(log))
+        indexBinary(log, index);
+      else {
+        if (charset == null)
+          throw new IllegalArgumentException("charset cannot be null");
+        if (timestampOf == null)
+          throw new IllegalArgumentException("timestampOf cannot be null");
+        indexText(log, index, charset, timestampOf);
+      }
+      index.flush();
+      index.close();
+
+      try {
+        Files.move(
+            temporary,
+            pathOf(log),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+            );
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, pathOf(log), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally {
+      index.close();
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static boolean isBinary(Path log) throws IOException {
+
+    byte[] start;
+
+    try (InputStream in = Files.newInputStream(log)) {
+      start = in.readNBytes(1 + BinaryFormat.MAGIC.length);
+    }
+
+    return BinaryFormat.isHeader(start, start.length);
+  }
+
+  private static void indexBinary(Path log, TimeIndex index)
+      throws IOException {
+
+    BinaryRecordReader reader;
+    long header;
+    int tag, size;
+
+    header = -1;
+    try (InputStream in = Files.newInputStream(log)) {
+      reader = new BinaryRecordReader(in, 0);
+      while ((tag = reader.next()) != -1) {
+        switch (tag) {
+          case BinaryFormat.HEADER:
+            header = index.isDue() ? reader.getOffset() : -1;
+            break;
+          case BinaryFormat.ENTRY:
+            /* a point due at a header takes its time from the next entry */
+            size = (int) (reader.getEndOffset() - reader.getOffset());
+            if (header < 0)
+              index.account(reader.getEpochMillis(), size);
+            else
+              index.mark(reader.getEpochMillis(), header, size);
+            header = -1;
+            if (index.isPendingFull())
+              index.flush();
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+
+  private static void indexText(
+      Path log,
+      TimeIndex index,
+      Charset charset,
+      ToLongFunction<String> timestampOf
+      ) throws IOException {
+
+    ByteArrayOutputStream line;
+    String text;
+    long offset, lineOffset, timestamp;
+    int b;
+
+    line = new ByteArrayOutputStream();
+    offset = 0;
+    lineOffset = 0;
+
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(log))) {
+      do {
+        b = in.read();
+        if (b >= 0) {
+          offset++;
+          if (b != '\n') {
+            line.write(b);
+            continue;
+          }
+        }
+        if (line.size() == 0 && b < 0)
+          break;
+
+        text = line.toString(charset);
+        if (text.endsWith("\r"))
+          text = text.substring(0, text.length() - 1);
+        timestamp = timestampOf(timestampOf, text);
+        if (timestamp != Long.MIN_VALUE) {
+          index.mark(timestamp, lineOffset, (int) (offset - lineOffset));
+          if (index.isPendingFull())
+            index.flush();
+        }
+
+        line.reset();
+        lineOffset = offset;
+      } while (b >= 0);
+    }
+  }
+
+  private static long timestampOf(
+      ToLongFunction<String> timestampOf,
+      String line
+      ) {
+    try {
+      return timestampOf.applyAsLong(line);
+    }
+    catch (RuntimeException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+}
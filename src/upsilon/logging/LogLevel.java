@@ -0,0 +1,77 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+/**
+ * The severity of a log entry, in increasing order
+ */
+public enum LogLevel {
+
+  TRACE,
+  DEBUG,
+  INFO,
+  WARN,
+  ERROR,
+  FATAL,
+
+  ;
+
+  /**
+   * gets the level with the given name, ignoring case. "WARNING" is accepted
+   * for WARN
+   *
+   * @param name the level name
+   * @return the matching level, or null if there is none
+   */
+  public static LogLevel parse(String name) {
+
+    if (name == null)
+      return null;
+
+    for (LogLevel level : values()) {
+      if (level.name().equalsIgnoreCase(name))
+        return level;
+    }
+
+    if (name.equalsIgnoreCase("WARNING"))
+      return WARN;
+
+    return null;
+  }
+
+  /**
+   * gets the numeric severity of a level name. Names which match no level
+   * are treated as more severe than any level, so that they are never
+   * filtered out
+   *
+   * @param name the level name
+   * @return the severity of the named level
+   */
+  static int severityOf(String name) {
+
+    LogLevel level;
+
+    level = parse(name);
+    return level == null ? Integer.MAX_VALUE : level.ordinal();
+  }
+
+}
@@ -0,0 +1,404 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.ZoneId;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses lines written by a text log back into their level, message,
+ * fields and time, according to the log's format. The format is compiled
+ * into a regular expression with a group for each specifier, and the time
+ * is pieced together from whichever date and time fields the format has.
+ * A line which does not match the format does not begin an entry.
+ *
+ * Without '%v' in the format, the fields of an entry are part of its
+ * message. Years written with fewer than three digits are taken to be in
+ * the 2000s
+ */
+final class LogLineParser {
+
+  private static final int IGNORED = 0;
+  private static final int MESSAGE = 1;
+  private static final int FIELDS = 2;
+  private static final int LEVEL = 3;
+  private static final int YEAR = 4;
+  private static final int MONTH = 5;
+  private static final int MONTH_NAME = 6;
+  private static final int DAY = 7;
+  private static final int HOUR = 8;
+  private static final int HOUR_OF_HALF_DAY = 9;
+  private static final int HALF_DAY = 10;
+  private static final int MINUTE = 11;
+  private static final int SECOND = 12;
+  private static final int MILLIS = 13;
+  private static final int EPOCH_SECOND = 14;
+
+  private static final String NUMBER = " *(-?\\d+) *";
+  private static final String TWO_DIGITS = "(\\d{2})";
+
+  private final Matcher matcher;
+  private final int[] groups;
+  private final ZoneId zone;
+  private final boolean dated;
+
+  private final int[] values;
+  private long epochMillis;
+  private String level, message, fields;
+
+  private final int[] cachedValues;
+  private long cachedEpochSecond;
+
+  LogLineParser(LogTemplate template, ZoneId zone) {
+
+    StringBuilder regex;
+    List<Integer> groups;
+    boolean[] seen;
+
+    if (zone == null)
+      throw new IllegalArgumentException("zone cannot be null");
+
+    regex = new StringBuilder();
+    groups = new ArrayList<>();
+    for (int k = 0; k < template.size(); k++)
+      appendOp(
+          regex,
+          groups,
+          template.getOp(k),
+          template.getLiteral(k),
+          k == template.size() - 1
+          );
+
+    this.matcher = Pattern.compile(regex.toString()).matcher("");
+    this.groups = new int [groups.size()];
+    for (int k = 0; k < this.groups.length; k++)
+      this.groups[k] = groups.get(k);
+    this.zone = zone;
+
+    seen = new boolean [EPOCH_SECOND + 1];
+    for (int group : this.groups)
+      seen[group] = true;
+    this.dated = seen[EPOCH_SECOND]
+        || (seen[YEAR] && (seen[MONTH] || seen[MONTH_NAME]) && seen[DAY]);
+
+    this.values = new int [EPOCH_SECOND + 1];
+    this.cachedValues = new int [MILLIS];
+    this.cachedEpochSecond = Long.MIN_VALUE;
+  }
+
+  private static void appendOp(
+      StringBuilder regex,
+      List<Integer> groups,
+      char op,
+      String literal,
+      boolean last
+      ) {
+
+    switch (op) {
+      case '\0':
+        regex.append(Pattern.quote(literal));
+        return;
+      case 'c':
+        regex.append(last ? "(.*)" : "(.*?)");
+        groups.add(MESSAGE);
+        return;
+      case 'v':
+        regex.append(last ? " *(.*)" : " *(.*?) *");
+        groups.add(FIELDS);
+        return;
+      case 'l':
+        regex.append(" *([^ ]*) *");
+        groups.add(LEVEL);
+        return;
+      case 'r':
+        regex.append("(-?\\d+)-").append(TWO_DIGITS).append('-');
+        regex.append(TWO_DIGITS);
+        groups.add(YEAR);
+        groups.add(MONTH);
+        groups.add(DAY);
+        return;
+      case 'p':
+        regex.append(TWO_DIGITS).append('-').append(TWO_DIGITS).append('-');
+        regex.append(TWO_DIGITS);
+        groups.add(YEAR);
+        groups.add(MONTH);
+        groups.add(DAY);
+        return;
+      case 't':
+        regex.append(TWO_DIGITS).append('-').append(TWO_DIGITS).append('-');
+        regex.append(TWO_DIGITS);
+        groups.add(HOUR);
+        groups.add(MINUTE);
+        groups.add(SECOND);
+        return;
+      case 'K':
+      case 'k':
+        regex.append("(\\d{3})");
+        groups.add(MILLIS);
+        return;
+      case 'A':
+      case 'a':
+        regex.append("([AaPp][Mm])");
+        groups.add(HALF_DAY);
+        return;
+      case 'U':
+      case 'u':
+        regex.append("(-?\\d+)");
+        groups.add(EPOCH_SECOND);
+        return;
+      case 'Y':
+      case 'y':
+        appendNumber(regex, groups, YEAR);
+        return;
+      case 'M':
+      case 'm':
+        appendNumber(regex, groups, MONTH);
+        return;
+      case 'D':
+      case 'd':
+        appendNumber(regex, groups, DAY);
+        return;
+      case 'H':
+      case 'h':
+        appendNumber(regex, groups, HOUR);
+        return;
+      case 'J':
+      case 'j':
+        appendNumber(regex, groups, HOUR_OF_HALF_DAY);
+        return;
+      case 'F':
+      case 'f':
+        appendNumber(regex, groups, MINUTE);
+        return;
+      case 'S':
+      case 's':
+        appendNumber(regex, groups, SECOND);
+        return;
+      case 'E':
+      case 'e':
+        appendNumber(regex, groups, IGNORED);
+        return;
+      case 'N':
+      case 'n':
+      case 'b':
+      case 'B':
+        regex.append("([\\p{L}.]+)");
+        groups.add(MONTH_NAME);
+        return;
+      case 'Q':
+      case 'q':
+      case 'W':
+      case 'w':
+        regex.append("([\\p{L}.]+)");
+        groups.add(IGNORED);
+        return;
+      default:
+        throw new IllegalArgumentException("unknown specifier: " + op);
+    }
+  }
+
+  private static void appendNumber(
+      StringBuilder regex,
+      List<Integer> groups,
+      int group
+      ) {
+    regex.append(NUMBER);
+    groups.add(group);
+  }
+
+  /**
+   * parses a line
+   *
+   * @return false if the line does not begin an entry
+   */
+  boolean parse(String line) {
+
+    int group;
+
+    if (!this.matcher.reset(line).matches())
+      return false;
+
+    this.level = null;
+    this.message = "";
+    this.fields = null;
+    for (int k = 0; k < this.values.length; k++)
+      this.values[k] = -1;
+
+    for (int k = 0; k < this.groups.length; k++) {
+      group = this.groups[k];
+      switch (group) {
+        case IGNORED:
+          break;
+        case MESSAGE:
+          this.message = this.matcher.group(k + 1);
+          break;
+        case FIELDS:
+          this.fields = this.matcher.group(k + 1);
+          if (this.fields.isEmpty())
+            this.fields = null;
+          break;
+        case LEVEL:
+          this.level = this.matcher.group(k + 1);
+          break;
+        case HALF_DAY:
+          this.values[group] =
+              Character.toUpperCase(line.charAt(this.matcher.start(k + 1)))
+              == 'P' ? 1 : 0;
+          break;
+        case MONTH_NAME:
+          this.values[group] = parseMonth(this.matcher.group(k + 1));
+          break;
+        case EPOCH_SECOND:
+          this.epochMillis = Long.parseLong(
+              line,
+              this.matcher.start(k + 1),
+              this.matcher.end(k + 1),
+              10
+              ) * 1000L;
+          this.values[group] = 0;
+          break;
+        default:
+          this.values[group] = Integer.parseInt(
+              line,
+              this.matcher.start(k + 1),
+              this.matcher.end(k + 1),
+              10
+              );
+          break;
+      }
+    }
+
+    this.epochMillis = timeOf(this.epochMillis);
+
+    return true;
+  }
+
+  /**
+   * gets the time of the entry last parsed
+   *
+   * @return the time in milliseconds since the epoch, or Long.MIN_VALUE if
+   *         the format does not hold enough of it
+   */
+  long getEpochMillis() {
+    return this.epochMillis;
+  }
+
+  String getLevel() {
+    return this.level;
+  }
+
+  String getMessage() {
+    return this.message;
+  }
+
+  String getFields() {
+    return this.fields;
+  }
+
+  private long timeOf(long epochMillis) {
+
+    int millis;
+
+    if (!this.dated)
+      return Long.MIN_VALUE;
+
+    millis = Math.max(0, this.values[MILLIS]);
+    if (this.values[EPOCH_SECOND] == 0)
+      return epochMillis + millis;
+
+    try {
+      return epochSecond() * 1000L + millis;
+    }
+    catch (RuntimeException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+  /**
+   * gets the epoch second of the calendar fields last parsed, reusing the
+   * last conversion if they are the same
+   */
+  private long epochSecond() {
+
+    int year, month, hour;
+    boolean same;
+
+    year = this.values[YEAR];
+    if (year >= 0 && year < 100)
+      year += 2000;
+    month = this.values[MONTH] >= 0
+        ? this.values[MONTH]
+        : this.values[MONTH_NAME];
+    hour = this.values[HOUR] >= 0 ? this.values[HOUR] : 0;
+    if (this.values[HOUR_OF_HALF_DAY] >= 0)
+      hour = this.values[HOUR_OF_HALF_DAY] % 12
+          + (this.values[HALF_DAY] == 1 ? 12 : 0);
+
+    this.values[YEAR] = year;
+    this.values[MONTH] = month;
+    this.values[HOUR] = hour;
+
+    same = this.cachedEpochSecond != Long.MIN_VALUE;
+    for (int k = YEAR; k < MILLIS && same; k++)
+      same = this.values[k] == this.cachedValues[k];
+    if (same)
+      return this.cachedEpochSecond;
+
+    this.cachedEpochSecond = LocalDateTime
+      .of(
+          year,
+          month,
+          this.values[DAY],
+          hour,
+          Math.max(0, this.values[MINUTE]),
+          Math.max(0, this.values[SECOND])
+          )
+      .atZone(this.zone)
+      .toEpochSecond();
+    System.arraycopy(this.values, 0, this.cachedValues, 0, MILLIS);
+
+    return this.cachedEpochSecond;
+  }
+
+  private static int parseMonth(String name) {
+    for (Month month : Month.values()) {
+      if (
+          month
+            .getDisplayName(TextStyle.FULL, Locale.getDefault())
+            .equalsIgnoreCase(name)
+          || month
+            .getDisplayName(TextStyle.SHORT, Locale.getDefault())
+            .equalsIgnoreCase(name)
+          )
+        return month.getValue();
+    }
+    return -1;
+  }
+
+}
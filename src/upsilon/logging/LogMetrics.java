@@ -0,0 +1,154 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+/**
+ * Snapshot of the activity of a log since it was created: how many entries
+ * and bytes it has written or discarded, how deep its asynchronous queue
+ * has grown, and how long rendering, writing and syncing entries has taken
+ */
+public class LogMetrics {
+
+  private final long entriesWritten, bytesWritten;
+  private final long entriesDropped, entriesSuppressed;
+  private final int queueSize;
+  private final long queueHighWaterMark;
+  private final LatencyHistogram formatLatency, writeLatency, syncLatency;
+
+  LogMetrics(
+      long entriesWritten,
+      long bytesWritten,
+      long entriesDropped,
+      long entriesSuppressed,
+      int queueSize,
+      long queueHighWaterMark,
+      LatencyHistogram formatLatency,
+      LatencyHistogram writeLatency,
+      LatencyHistogram syncLatency
+      ) {
+    this.entriesWritten = entriesWritten;
+    this.bytesWritten = bytesWritten;
+    this.entriesDropped = entriesDropped;
+    this.entriesSuppressed = entriesSuppressed;
+    this.queueSize = queueSize;
+    this.queueHighWaterMark = queueHighWaterMark;
+    this.formatLatency = formatLatency;
+    this.writeLatency = writeLatency;
+    this.syncLatency = syncLatency;
+  }
+
+  /**
+   * gets the number of entries written to the log file
+   *
+   * @return the number of entries written
+   */
+  public long getEntriesWritten() {
+    return this.entriesWritten;
+  }
+  /**
+   * gets the number of bytes written to the log file, including headers and
+   * template definitions of binary logs
+   *
+   * @return the number of bytes written
+   */
+  public long getBytesWritten() {
+    return this.bytesWritten;
+  }
+  /**
+   * gets the number of entries discarded because the asynchronous queue was
+   * full or its writer unavailable
+   *
+   * @return the number of entries dropped
+   */
+  public long getEntriesDropped() {
+    return this.entriesDropped;
+  }
+  /**
+   * gets the number of entries withheld by burst suppression or sampling
+   *
+   * @return the number of entries suppressed
+   */
+  public long getEntriesSuppressed() {
+    return this.entriesSuppressed;
+  }
+  /**
+   * gets the number of entries waiting in the asynchronous queue when the
+   * snapshot was taken
+   *
+   * @return the queue size
+   */
+  public int getQueueSize() {
+    return this.queueSize;
+  }
+  /**
+   * gets the largest number of entries the asynchronous queue has held at
+   * once
+   *
+   * @return the queue high-water mark
+   */
+  public long getQueueHighWaterMark() {
+    return this.queueHighWaterMark;
+  }
+  /**
+   * gets the time taken to render each entry into the bytes written, on
+   * whichever thread rendered it
+   *
+   * @return the format latency
+   */
+  public LatencyHistogram getFormatLatency() {
+    return this.formatLatency;
+  }
+  /**
+   * gets the time taken by each write to the log file
+   *
+   * @return the write latency
+   */
+  public LatencyHistogram getWriteLatency() {
+    return this.writeLatency;
+  }
+  /**
+   * gets the time taken by each sync of the log file to the storage device
+   *
+   * @return the sync latency
+   */
+  public LatencyHistogram getSyncLatency() {
+    return this.syncLatency;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "entries=%d bytes=%d dropped=%d suppressed=%d queue=%d " +
+          "queueHighWater=%d format={%s} write={%s} sync={%s}",
+        this.entriesWritten,
+        this.bytesWritten,
+        this.entriesDropped,
+        this.entriesSuppressed,
+        this.queueSize,
+        this.queueHighWaterMark,
+        this.formatLatency,
+        this.writeLatency,
+        this.syncLatency
+        );
+  }
+
+}
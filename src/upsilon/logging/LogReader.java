@@ -0,0 +1,824 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+import upsilon.tools.StringTools;
+
+/**
+ * Reads the entries of a log back from its files. Lines of a text log are
+ * parsed according to the log's format, and binary logs are decoded, into
+ * LogRecords. Files are read in large blocks and entries are produced
+ * lazily, one at a time, so that a file of any size is scanned in constant
+ * memory. Rotated files, compressed or not, are read along with the active
+ * file, from the oldest to the newest.
+ *
+ * A text log can also be followed: entries are produced as they are
+ * appended, waiting for the file to change by means of a WatchService
+ * rather than polling it, and carrying on into the new file when the log is
+ * rotated. Text logs must use a character set which encodes '\n' as that
+ * single byte, such as ASCII or UTF-8. Lines of JSON logs do not match any
+ * format and are produced as entries of unknown time holding the whole
+ * line
+ */
+public class LogReader {
+
+  private static final int BLOCK_SIZE = 1 << 16;
+  private static final long WAKE_MILLIS = 1000;
+
+  private final Path path;
+  private volatile LogTemplate template;
+  private volatile boolean useLocalTime;
+  private volatile Charset charset;
+
+	/**
+	 * Creates a new reader of the log at the given path, using the default
+	 * log format, local time and the ASCII character set
+	 * 
+	 * @param path location of the active log file
+	 */
+  public LogReader(Path path) {
+
+    if (path == null)
+      throw new IllegalArgumentException("path cannot be null");
+
+    this.path = path;
+    this.template = LogTemplate.compile("[%5l] %r %t : %c");
+    this.useLocalTime = true;
+    this.charset = StandardCharsets.US_ASCII;
+  }
+	/**
+	 * Creates a new reader of the given log, using its current path, format,
+	 * time zone and character set
+	 * 
+	 * @param log the log to be read
+	 */
+  public LogReader(Log log) {
+
+    if (log == null)
+      throw new IllegalArgumentException("log cannot be null");
+
+    this.path = log.getPath();
+    this.template = LogTemplate.compile(log.getFormat());
+    this.useLocalTime = log.getUseLocalTime();
+    this.charset = log.getCharset();
+  }
+
+	/**
+	 * sets the format in which lines were written, as for Log.setFormat
+	 * 
+	 * @param format the format
+	 */
+  public void setFormat(String format) {
+    if (StringTools.isNullOrEmpty(format))
+      throw new IllegalArgumentException("format cannot be null or empty");
+    this.template = LogTemplate.compile(format);
+  }
+	/**
+	 * sets whether times were written in local time rather than UTC
+	 * 
+	 * @param useLocalTime the new value
+	 */
+  public void setUseLocalTime(boolean useLocalTime) {
+    this.useLocalTime = useLocalTime;
+  }
+	/**
+	 * sets the character set in which lines were written
+	 * 
+	 * @param charset the character set
+	 */
+  public void setCharset(Charset charset) {
+    if (charset == null)
+      throw new IllegalArgumentException("charset cannot be null");
+    this.charset = charset;
+  }
+
+	/**
+	 * gets the location of the active log file
+	 * 
+	 * @return the path
+	 */
+  public Path getPath() {
+    return this.path;
+  }
+	/**
+	 * gets the format in which lines were written
+	 * 
+	 * @return the format
+	 */
+  public String getFormat() {
+    return this.template.getSource();
+  }
+	/**
+	 * gets whether times were written in local time rather than UTC
+	 * 
+	 * @return the value
+	 */
+  public boolean getUseLocalTime() {
+    return this.useLocalTime;
+  }
+	/**
+	 * gets the character set in which lines were written
+	 * 
+	 * @return the character set
+	 */
+  public Charset getCharset() {
+    return this.charset;
+  }
+
+	/**
+	 * reads the entries of every file of the log, from the oldest rotated
+	 * file to the active one. The stream must be closed once finished with
+	 * 
+	 * @return the entries
+	 * @throws IOException if the log's directory cannot be listed
+	 */
+  public Stream<LogRecord> entries() throws IOException {
+
+    List<Path> files;
+
+    files = LogRotator.rotatedFiles(this.path);
+    if (Files.exists(this.path))
+      files.add(this.path);
+
+    return stream(new ChainSource(files));
+  }
+	/**
+	 * reads the entries of a single file of the log, which may be compressed.
+	 * The stream must be closed once finished with
+	 * 
+	 * @param file location of the file
+	 * @return the entries
+	 * @throws IOException if the file cannot be opened
+	 */
+  public Stream<LogRecord> entries(Path file) throws IOException {
+    if (file == null)
+      throw new IllegalArgumentException("file cannot be null");
+    return stream(open(file));
+  }
+	/**
+	 * follows the active file of the log from its current end, producing
+	 * entries as they are appended, until the stream is closed. Closing the
+	 * stream from another thread ends it, even while waiting
+	 * 
+	 * @return the entries appended from now on
+	 * @throws IOException if the log's directory cannot be watched
+	 */
+  public Stream<LogRecord> follow() throws IOException {
+    return stream(new FollowSource(-1));
+  }
+	/**
+	 * follows the active file of the log from the given offset, such as that
+	 * of an entry read earlier. If the file is shorter than the offset, it is
+	 * taken to have been rotated or truncated, and read from its start
+	 * 
+	 * @param offset the offset at which to start
+	 * @return the entries from the offset on
+	 * @throws IOException if the log's directory cannot be watched
+	 */
+  public Stream<LogRecord> follow(long offset) throws IOException {
+    if (offset < 0)
+      throw new IllegalArgumentException("offset cannot be negative");
+    return stream(new FollowSource(offset));
+  }
+
+  private static Stream<LogRecord> stream(Source source) {
+    return StreamSupport
+      .stream(
+          Spliterators.spliteratorUnknownSize(
+            source,
+            Spliterator.ORDERED | Spliterator.NONNULL
+            ),
+          false
+          )
+      .onClose(source::closeUnchecked);
+  }
+
+  private LogLineParser parser() {
+    return new LogLineParser(
+        this.template,
+        TimestampCache.zoneFor(this.useLocalTime)
+        );
+  }
+
+  /**
+   * opens a file of the log, deciding whether it is binary from its first
+   * bytes
+   */
+  private Source open(Path file) throws IOException {
+
+    FileChannel channel;
+    InputStream in;
+    byte[] start;
+    int length;
+
+    start = new byte [1 + BinaryFormat.MAGIC.length];
+
+    if (file.getFileName().toString().endsWith(LogRotator.COMPRESSED_SUFFIX)) {
+      in = new BufferedInputStream(
+          new GZIPInputStream(Files.newInputStream(file), BLOCK_SIZE),
+          BLOCK_SIZE
+          );
+      try {
+        in.mark(start.length);
+        length = in.readNBytes(start, 0, start.length);
+        in.reset();
+      }
+      catch (IOException e) {
+        in.close();
+        throw e;
+      }
+      if (BinaryFormat.isHeader(start, length))
+        return new BinarySource(file, in);
+      return new TextSource(file, Channels.newChannel(in), 0);
+    }
+
+    channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      length = Math.max(0, channel.read(ByteBuffer.wrap(start), 0));
+    }
+    catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    if (BinaryFormat.isHeader(start, length))
+      return new BinarySource(file, Channels.newInputStream(channel));
+    return new TextSource(file, channel, 0);
+  }
+
+
+  /**
+   * Produces entries one at a time, for as long as read gives them
+   */
+  private abstract static class Source
+      implements Iterator<LogRecord>, Closeable {
+
+    private LogRecord next;
+    private boolean ended;
+    volatile boolean closed;
+
+    /**
+     * reads the next entry
+     *
+     * @return the entry, or null if there are no more
+     */
+    abstract LogRecord read() throws IOException;
+
+    @Override
+    public boolean hasNext() {
+
+      if (this.next != null)
+        return true;
+      if (this.ended)
+        return false;
+
+      try {
+        this.next = read();
+      }
+      catch (IOException e) {
+        if (!this.closed)
+          throw new UncheckedIOException(e);
+      }
+      this.ended = this.next == null;
+
+      return !this.ended;
+    }
+
+    @Override
+    public LogRecord next() {
+
+      LogRecord ret;
+
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      ret = this.next;
+      this.next = null;
+
+      return ret;
+    }
+
+    void closeUnchecked() {
+      try {
+        close();
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Gathers the lines of a text log into entries. A line matching the
+   * format begins an entry, which takes in every following line which does
+   * not. A line which does not, and has no entry before it, is an entry of
+   * its own
+   */
+  private static class Assembler {
+
+    private static final int MAX_RETAINED_CONTINUATION = 1 << 16;
+
+    private final LogLineParser parser;
+    private final Path path;
+    private StringBuilder continuation;
+    private String line, level, message, fields;
+    private long offset, epochMillis;
+    private boolean pending;
+
+    Assembler(LogLineParser parser, Path path) {
+      this.parser = parser;
+      this.path = path;
+      this.continuation = new StringBuilder();
+      this.pending = false;
+    }
+
+    /**
+     * takes in a line
+     *
+     * @return the entry completed by the line, or null if there is none yet
+     */
+    LogRecord add(String line, long offset) {
+
+      LogRecord ret;
+
+      if (!this.parser.parse(line)) {
+        if (this.pending) {
+          this.continuation.append('\n').append(line);
+          return null;
+        }
+        return new LogRecord(
+            this.path,
+            offset,
+            Long.MIN_VALUE,
+            null,
+            line,
+            null,
+            line
+            );
+      }
+
+      ret = finish();
+      this.pending = true;
+      this.line = line;
+      this.offset = offset;
+      this.epochMillis = this.parser.getEpochMillis();
+      this.level = this.parser.getLevel();
+      this.message = this.parser.getMessage();
+      this.fields = this.parser.getFields();
+
+      return ret;
+    }
+
+    /**
+     * completes the entry being gathered
+     *
+     * @return the entry, or null if there is none
+     */
+    LogRecord finish() {
+
+      LogRecord ret;
+      String rest;
+
+      if (!this.pending)
+        return null;
+
+      rest = this.continuation.toString();
+      ret = new LogRecord(
+          this.path,
+          this.offset,
+          this.epochMillis,
+          this.level,
+          this.message + rest,
+          this.fields,
+          this.line + rest
+          );
+
+      this.pending = false;
+      this.line = null;
+      this.message = null;
+      if (this.continuation.capacity() > MAX_RETAINED_CONTINUATION)
+        this.continuation = new StringBuilder();
+      else
+        this.continuation.setLength(0);
+
+      return ret;
+    }
+  }
+
+  /**
+   * Reads the entries of a text file
+   */
+  private class TextSource extends Source {
+
+    private final LineReader lines;
+    private final Assembler assembler;
+
+    TextSource(Path file, ReadableByteChannel channel, long offset) {
+      this.lines = new LineReader(
+          channel,
+          offset,
+          LogReader.this.charset,
+          false
+          );
+      this.assembler = new Assembler(parser(), file);
+    }
+
+    @Override
+    LogRecord read() throws IOException {
+
+      LogRecord ret;
+      String line;
+
+      while ((line = this.lines.readLine()) != null) {
+        ret = this.assembler.add(line, this.lines.getLineOffset());
+        if (ret != null)
+          return ret;
+      }
+
+      return this.assembler.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.closed = true;
+      this.lines.close();
+    }
+  }
+
+  /**
+   * Decodes the entries of a binary file, rendering the text of each with
+   * the reader's format
+   */
+  private class BinarySource extends Source {
+
+    private final Path file;
+    private final InputStream in;
+    private final BinaryRecordReader reader;
+    private final LogTemplate template;
+    private final TimestampCache timestamps;
+    private final StringBuilder sb;
+
+    BinarySource(Path file, InputStream in) {
+      this.file = file;
+      this.in = in;
+      this.reader = new BinaryRecordReader(in, 0);
+      this.template = LogReader.this.template;
+      this.timestamps = new TimestampCache(
+          TimestampCache.zoneFor(LogReader.this.useLocalTime)
+          );
+      this.sb = new StringBuilder();
+    }
+
+    @Override
+    LogRecord read() throws IOException {
+
+      String line, fields;
+      long epochMillis;
+      int tag;
+
+      while ((tag = this.reader.next()) != -1) {
+        if (tag != BinaryFormat.ENTRY)
+          continue;
+
+        epochMillis = this.reader.getEpochMillis();
+        line = this.reader.getLine();
+        fields = this.reader.getFields();
+        this.sb.setLength(0);
+        this.template.render(
+            this.sb,
+            this.reader.getLevel(),
+            line,
+            fields,
+            epochMillis,
+            this.timestamps.get(epochMillis)
+            );
+
+        return new LogRecord(
+            this.file,
+            this.reader.getOffset(),
+            epochMillis,
+            this.reader.getLevel(),
+            line,
+            fields,
+            this.sb.toString()
+            );
+      }
+
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.closed = true;
+      this.in.close();
+    }
+  }
+
+  /**
+   * Reads the entries of several files in turn, opening each only once the
+   * one before it is finished
+   */
+  private class ChainSource extends Source {
+
+    private final List<Path> files;
+    private Source current;
+    private int index;
+
+    ChainSource(List<Path> files) {
+      this.files = files;
+      this.current = null;
+      this.index = 0;
+    }
+
+    @Override
+    LogRecord read() throws IOException {
+
+      LogRecord ret;
+
+      for (;;) {
+        if (this.current == null) {
+          if (this.index == this.files.size())
+            return null;
+          try {
+            this.current = open(this.files.get(this.index++));
+          }
+          catch (NoSuchFileException e) {
+            /* removed by retention since it was listed */
+            continue;
+          }
+        }
+
+        ret = this.current.read();
+        if (ret != null)
+          return ret;
+
+        this.current.close();
+        this.current = null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.closed = true;
+      if (this.current != null)
+        this.current.close();
+    }
+  }
+
+  /**
+   * Follows the active file of a text log. The directory holding it is
+   * watched, so that a thread waiting for entries wakes up as soon as the
+   * file is written, or replaced by rotation. It also wakes up every so
+   * often regardless, since writes through a memory mapping are not
+   * reported
+   */
+  private class FollowSource extends Source {
+
+    private final WatchService watcher;
+    private final Assembler assembler;
+    private LineReader lines;
+    private Object fileKey;
+    private long startOffset;
+    private boolean replaced;
+
+    FollowSource(long offset) throws IOException {
+
+      Path directory;
+
+      directory = LogReader.this.path.toAbsolutePath().getParent();
+      this.watcher = directory.getFileSystem().newWatchService();
+      try {
+        directory.register(
+            this.watcher,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY
+            );
+      }
+      catch (IOException e) {
+        this.watcher.close();
+        throw e;
+      }
+
+      this.assembler = new Assembler(parser(), LogReader.this.path);
+      this.lines = null;
+      this.startOffset = offset;
+      this.replaced = false;
+    }
+
+    @Override
+    LogRecord read() throws IOException {
+
+      LogRecord ret;
+      String line;
+
+      for (;;) {
+
+        if (this.lines == null && !reopen()) {
+          if (!await())
+            return null;
+          continue;
+        }
+
+        while ((line = this.lines.readLine()) != null) {
+          ret = this.assembler.add(line, this.lines.getLineOffset());
+          if (ret != null)
+            return ret;
+        }
+
+        ret = this.assembler.finish();
+        if (ret != null)
+          return ret;
+
+        if (this.replaced) {
+          /* everything written to the old file has been read */
+          this.lines.close();
+          this.lines = null;
+          this.replaced = false;
+          continue;
+        }
+        if (isReplaced()) {
+          /* read the old file once more before moving on */
+          this.replaced = true;
+          continue;
+        }
+
+        if (!await())
+          return null;
+      }
+    }
+
+    /**
+     * opens the active file, if there is one
+     *
+     * @return false if there is none yet
+     */
+    private boolean reopen() throws IOException {
+
+      FileChannel channel;
+      long offset, size;
+
+      try {
+        channel = FileChannel.open(
+            LogReader.this.path,
+            StandardOpenOption.READ
+            );
+      }
+      catch (NoSuchFileException e) {
+        return false;
+      }
+
+      try {
+        this.fileKey = Files
+          .readAttributes(LogReader.this.path, BasicFileAttributes.class)
+          .fileKey();
+        size = channel.size();
+        offset = this.startOffset < 0 ? size : this.startOffset;
+        if (offset > size)
+          offset = 0;
+        channel.position(offset);
+      }
+      catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+
+      this.lines = new LineReader(
+          channel,
+          offset,
+          LogReader.this.charset,
+          true
+          );
+      if (this.startOffset < 0 && offset != 0 && !startsLine(channel, offset))
+        /* the end of a line being written when following began */
+        this.lines.readLine();
+      this.startOffset = 0;
+
+      return true;
+    }
+
+    private boolean startsLine(FileChannel channel, long offset)
+        throws IOException {
+
+      ByteBuffer previous;
+
+      previous = ByteBuffer.allocate(1);
+      channel.read(previous, offset - 1);
+
+      return previous.get(0) == '\n';
+    }
+
+    /**
+     * checks whether the file at the log's path is no longer the one being
+     * read, having been rotated or truncated
+     */
+    private boolean isReplaced() throws IOException {
+
+      BasicFileAttributes attributes;
+
+      try {
+        attributes = Files.readAttributes(
+            LogReader.this.path,
+            BasicFileAttributes.class
+            );
+      }
+      catch (NoSuchFileException e) {
+        return false;
+      }
+
+      return attributes.size() < this.lines.getOffset()
+          || (
+              this.fileKey != null
+              && !this.fileKey.equals(attributes.fileKey())
+              );
+    }
+
+    /**
+     * waits for the log's directory to change, or for a while
+     *
+     * @return false if following has ended
+     */
+    private boolean await() {
+
+      WatchKey key;
+
+      try {
+        key = this.watcher.poll(WAKE_MILLIS, TimeUnit.MILLISECONDS);
+        while (key != null) {
+          key.pollEvents();
+          key.reset();
+          key = this.watcher.poll();
+        }
+      }
+      catch (ClosedWatchServiceException e) {
+        return false;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+
+      return !this.closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.closed = true;
+      try {
+        this.watcher.close();
+      }
+      finally {
+        if (this.lines != null)
+          this.lines.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * An entry read back from a log file by a LogReader. An entry of a text log
+ * spans the line which begins it, matching the log's format, and any lines
+ * after it which do not, such as those of a stack trace
+ */
+public class LogRecord {
+
+  private final Path path;
+  private final long offset, epochMillis;
+  private final String level, message, fields, text;
+
+  LogRecord(
+      Path path,
+      long offset,
+      long epochMillis,
+      String level,
+      String message,
+      String fields,
+      String text
+      ) {
+    this.path = path;
+    this.offset = offset;
+    this.epochMillis = epochMillis;
+    this.level = level;
+    this.message = message;
+    this.fields = fields;
+    this.text = text;
+  }
+
+  /**
+   * gets the file the entry was read from
+   *
+   * @return the location of the file
+   */
+  public Path getPath() {
+    return this.path;
+  }
+  /**
+   * gets the offset within its file at which the entry starts. For an
+   * uncompressed file, following from this offset starts at this entry
+   *
+   * @return the offset of the entry
+   */
+  public long getOffset() {
+    return this.offset;
+  }
+  /**
+   * gets the time of the entry
+   *
+   * @return the time in milliseconds since the epoch, or Long.MIN_VALUE if
+   *         the log format does not record enough of it
+   */
+  public long getEpochMillis() {
+    return this.epochMillis;
+  }
+  /**
+   * gets the time of the entry
+   *
+   * @return the time, or null if the log format does not record enough of
+   *         it
+   */
+  public Instant getTimestamp() {
+    return this.epochMillis == Long.MIN_VALUE
+        ? null
+        : Instant.ofEpochMilli(this.epochMillis);
+  }
+  /**
+   * gets the level of the entry as written
+   *
+   * @return the level, or null if the log format does not record it or the
+   *         line did not match the format
+   */
+  public String getLevel() {
+    return this.level;
+  }
+  /**
+   * gets the level of the entry, if it is one of the standard levels
+   *
+   * @return the level, or null if there is none
+   */
+  public LogLevel getLogLevel() {
+    return LogLevel.parse(this.level);
+  }
+  /**
+   * gets the message of the entry, including the text of any lines after
+   * the first
+   *
+   * @return the message
+   */
+  public String getMessage() {
+    return this.message;
+  }
+  /**
+   * gets the structured fields of the entry, as written
+   *
+   * @return the fields, or null if there are none
+   */
+  public String getFields() {
+    return this.fields;
+  }
+  /**
+   * gets the whole text of the entry, without its final line-feed
+   *
+   * @return the text
+   */
+  public String getText() {
+    return this.text;
+  }
+
+  @Override
+  public String toString() {
+    return this.text;
+  }
+
+}
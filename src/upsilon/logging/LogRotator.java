@@ -0,0 +1,406 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides when a log file is to be rotated, renames it out of the way, and
+ * hands compression and retention of rotated files to a background thread.
+ *
+ * A file is rotated once it would exceed the maximum size, or once the
+ * rotation pattern, rendered with the same date fields as the log format,
+ * yields different text than it did for the entries already in the file.
+ * Rotated files are named after the active file followed by the pattern
+ * text of the entries they hold, and a counter if that name is taken
+ */
+class LogRotator {
+
+  static final String COMPRESSED_SUFFIX = ".gz";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private volatile long maxSize;
+  private volatile LogTemplate pattern;
+  private volatile boolean compress;
+  private volatile int maxFiles;
+  private volatile long maxBytes;
+  private volatile TimestampCache timestamps;
+
+  private String currentKey;
+  private long lastKeySecond;
+  private String lastKey;
+
+  LogRotator(ZoneId zone) {
+    this.maxSize = 0;
+    this.pattern = null;
+    this.compress = true;
+    this.maxFiles = 0;
+    this.maxBytes = 0;
+    this.timestamps = new TimestampCache(zone);
+    this.currentKey = null;
+    this.lastKey = null;
+  }
+
+  void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  long getMaxSize() {
+    return this.maxSize;
+  }
+
+  void setPattern(String pattern) {
+
+    LogTemplate compiled;
+
+    if (pattern == null) {
+      this.pattern = null;
+      return;
+    }
+
+    compiled = LogTemplate.compile(pattern);
+    if (compiled.containsOp('c') || compiled.containsOp('l'))
+      throw new IllegalArgumentException(
+          "rotation pattern can only contain date and time fields"
+          );
+    this.pattern = compiled;
+  }
+
+  String getPattern() {
+    LogTemplate pattern = this.pattern;
+    return pattern == null ? null : pattern.getSource();
+  }
+
+  void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  boolean getCompress() {
+    return this.compress;
+  }
+
+  void setMaxFiles(int maxFiles) {
+    this.maxFiles = maxFiles;
+  }
+
+  int getMaxFiles() {
+    return this.maxFiles;
+  }
+
+  void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  void setZone(ZoneId zone) {
+    this.timestamps = new TimestampCache(zone);
+  }
+
+  /**
+   * forgets the pattern text of the active file, as when the log is moved
+   * to a different file
+   */
+  void reset() {
+    this.currentKey = null;
+  }
+
+  boolean isEnabled() {
+    return this.maxSize > 0 || this.pattern != null;
+  }
+
+  /**
+   * determines whether the file must be rotated before an entry with the
+   * given timestamp is added to it
+   *
+   * @param path the active log file
+   * @param timestamp the timestamp of the entry to be added
+   * @param size the size of the file before the entry
+   * @param entrySize the size of the entry
+   */
+  boolean shouldRotate(Path path, long timestamp, long size, long entrySize)
+      throws IOException {
+
+    String key;
+
+    if (this.maxSize > 0 && size > 0 && size + entrySize > this.maxSize)
+      return true;
+
+    if (this.pattern == null)
+      return false;
+
+    key = keyFor(timestamp);
+    if (this.currentKey == null) {
+      this.currentKey = size > 0
+          ? keyFor(Files.getLastModifiedTime(path).toMillis())
+          : key;
+    }
+
+    return !key.equals(this.currentKey);
+  }
+
+  /**
+   * renames the active file out of the way. It must already be closed
+   *
+   * @param path the active log file
+   * @param timestamp the timestamp of the first entry of the new file
+   */
+  void rotate(Path path, long timestamp) throws IOException {
+
+    String key;
+    Path rotated;
+
+    key = this.currentKey != null
+        ? this.currentKey
+        : this.timestamps.get(timestamp).dateText;
+    this.currentKey = this.pattern == null ? null : keyFor(timestamp);
+
+    rotated = availableName(path, key);
+    try {
+      Files.move(path, rotated);
+    }
+    catch (NoSuchFileException e) {
+      return;
+    }
+
+    if (this.compress)
+      LogScheduler.execute(() -> compressThenRetain(path, rotated));
+    else
+      LogScheduler.execute(() -> retain(path));
+  }
+
+  private String keyFor(long timestamp) {
+
+    long second;
+
+    second = Math.floorDiv(timestamp, 1000L);
+    if (this.lastKey == null || second != this.lastKeySecond) {
+      this.lastKey = render(this.pattern, timestamp);
+      this.lastKeySecond = second;
+    }
+
+    return this.lastKey;
+  }
+
+  private String render(LogTemplate template, long timestamp) {
+
+    StringBuilder sb;
+
+    sb = new StringBuilder();
+    template.render(
+        sb,
+        "",
+        "",
+        null,
+        timestamp,
+        this.timestamps.get(timestamp)
+        );
+
+    return sb.toString().replace('/', '-').replace('\\', '-');
+  }
+
+  private static Path availableName(Path path, String key) {
+
+    String base;
+    Path ret;
+
+    base = path.getFileName().toString() + "." + key;
+    ret = path.resolveSibling(base);
+    for (int k = 1; exists(ret); k++)
+      ret = path.resolveSibling(base + "." + k);
+
+    return ret;
+  }
+
+  private static boolean exists(Path path) {
+    return Files.exists(path)
+        || Files.exists(path.resolveSibling(
+            path.getFileName() + COMPRESSED_SUFFIX
+            ));
+  }
+
+  private void compressThenRetain(Path path, Path rotated) {
+
+    Path temporary, compressed;
+
+    compressed = rotated.resolveSibling(
+        rotated.getFileName() + COMPRESSED_SUFFIX
+        );
+    temporary = rotated.resolveSibling(
+        compressed.getFileName() + TEMPORARY_SUFFIX
+        );
+
+    try {
+      try (
+          InputStream in = Files.newInputStream(rotated);
+          OutputStream out = new GZIPOutputStream(
+              Files.newOutputStream(temporary),
+              1 << 16
+              )
+          ) {
+        byte[] buffer = new byte [1 << 16];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+          out.write(buffer, 0, read);
+      }
+      Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING);
+      Files.delete(rotated);
+    }
+    catch (IOException e) {
+      try {
+        Files.deleteIfExists(temporary);
+      }
+      catch (IOException ignored) {
+        /* the uncompressed file is kept */
+      }
+    }
+
+    retain(path);
+  }
+
+  /**
+   * deletes the oldest rotated files until the retention limits are met
+   */
+  private void retain(Path path) {
+
+    List<Path> rotated;
+    Path file;
+    long totalBytes;
+    int files;
+
+    if (this.maxFiles <= 0 && this.maxBytes <= 0)
+      return;
+
+    try {
+      rotated = rotatedFiles(path);
+    }
+    catch (IOException e) {
+      return;
+    }
+
+    files = 0;
+    totalBytes = 0;
+    for (int k = rotated.size() - 1; k >= 0; k--) {
+      file = rotated.get(k);
+      try {
+        files++;
+        totalBytes += Files.size(file);
+        if (
+            (this.maxFiles > 0 && files > this.maxFiles) ||
+            (this.maxBytes > 0 && totalBytes > this.maxBytes)
+            )
+          Files.deleteIfExists(file);
+      }
+      catch (IOException e) {
+        /* left for the next pass */
+      }
+    }
+  }
+
+  /**
+   * lists the rotated files of the given log from the oldest to the newest.
+   * A file being compressed is listed once, under its compressed name
+   *
+   * @param path the active log file
+   * @return the rotated files
+   */
+  static List<Path> rotatedFiles(Path path) throws IOException {
+
+    List<Path> ret;
+    String prefix, index, marker;
+
+    prefix = path.getFileName().toString() + ".";
+    index = TimeIndex.pathOf(path).getFileName().toString();
+    marker = MappedLogChannel.markerOf(path).getFileName().toString();
+    ret = new ArrayList<>();
+
+    try (
+        Stream<Path> siblings = Files.list(path.toAbsolutePath().getParent())
+        ) {
+      siblings
+        .filter(sibling -> {
+            String name = sibling.getFileName().toString();
+            return name.startsWith(prefix)
+                && !name.endsWith(TEMPORARY_SUFFIX)
+                && !name.equals(index)
+                && !name.equals(marker)
+                && !Files.exists(sibling.resolveSibling(
+                    name + COMPRESSED_SUFFIX
+                    ));
+          })
+        .forEach(ret::add);
+    }
+
+    ret.sort((a, b) -> {
+        int order = Long.compare(lastModified(a), lastModified(b));
+        return order != 0 ? order : compareNames(a, b);
+      });
+
+    return ret;
+  }
+
+  /**
+   * orders files rotated within the same millisecond by name, ignoring
+   * whether they are compressed, with shorter names first so that a name
+   * taken before its counter is added, and ".9" before ".10"
+   */
+  private static int compareNames(Path a, Path b) {
+
+    String first, second;
+
+    first = stripCompressed(a.getFileName().toString());
+    second = stripCompressed(b.getFileName().toString());
+
+    return first.length() != second.length()
+        ? Integer.compare(first.length(), second.length())
+        : first.compareTo(second);
+  }
+
+  private static String stripCompressed(String name) {
+    return name.endsWith(COMPRESSED_SUFFIX)
+        ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length())
+        : name;
+  }
+
+  private static long lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    }
+    catch (IOException e) {
+      return 0;
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daemon threads shared by all logs: one for short deferred tasks, such as
+ * timed flushes, and one for long-running background work, such as
+ * compressing rotated files
+ */
+class LogScheduler { private LogScheduler() {}
+
+  private static ScheduledExecutorService executor = null;
+  private static ExecutorService background = null;
+
+  static synchronized ScheduledFuture<?> scheduleRepeating(
+      Runnable task,
+      long periodMillis
+      ) {
+
+    ensureExecutor();
+    return executor.scheduleWithFixedDelay(
+        task,
+        periodMillis,
+        periodMillis,
+        TimeUnit.MILLISECONDS
+        );
+  }
+
+  static synchronized ScheduledFuture<?> schedule(
+      Runnable task,
+      long delayMillis
+      ) {
+
+    ensureExecutor();
+    return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static void ensureExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread thread = new Thread(r, "upsilon-log-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        });
+    }
+  }
+
+  static synchronized void execute(Runnable task) {
+
+    if (background == null) {
+      background = Executors.newSingleThreadExecutor(r -> {
+          Thread thread = new Thread(r, "upsilon-log-background");
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        });
+    }
+
+    background.execute(task);
+  }
+
+}
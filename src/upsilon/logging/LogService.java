@@ -0,0 +1,162 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writer service shared by many logs. Asynchronous logs created with a
+ * service are drained by its fixed pool of writer threads instead of each
+ * having a thread of its own, and all of its logs borrow file handles from
+ * a bounded cache which closes the least recently used and idle files,
+ * reopening them on demand
+ */
+public class LogService implements AutoCloseable {
+
+  private static final AtomicInteger SERVICE_COUNT = new AtomicInteger();
+
+  private final ExecutorService executor;
+  private final FileHandleCache handles;
+  private final ScheduledFuture<?> sweep;
+  private final int threadCount;
+  private volatile boolean closed;
+
+  /**
+   * Creates a new log service with 2 writer threads, at most 64 open files,
+   * and an idle timeout of one minute
+   */
+  public LogService() {
+    this(2, 64, 60_000);
+  }
+  /**
+   * Creates a new log service
+   * 
+   * @param threadCount the number of writer threads
+   * @param maxOpenFiles the most log files held open at once
+   * @param idleMillis time after which an unused log file is closed
+   */
+  public LogService(int threadCount, int maxOpenFiles, long idleMillis) {
+
+    final int serviceNumber;
+
+    if (threadCount <= 0)
+      throw new IllegalArgumentException("thread count must be positive");
+    if (maxOpenFiles <= 0)
+      throw new IllegalArgumentException("max open files must be positive");
+    if (idleMillis <= 0)
+      throw new IllegalArgumentException("idle time must be positive");
+
+    serviceNumber = SERVICE_COUNT.incrementAndGet();
+
+    this.threadCount = threadCount;
+    this.handles = new FileHandleCache(maxOpenFiles, idleMillis);
+    this.executor = Executors.newFixedThreadPool(threadCount, r -> {
+        Thread thread = new Thread(
+            r,
+            "upsilon-log-service-" + serviceNumber
+            );
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.sweep = LogScheduler.scheduleRepeating(
+        this.handles::closeIdle,
+        Math.max(1, idleMillis / 2)
+        );
+    this.closed = false;
+  }
+
+  ExecutorService getExecutor() {
+    return this.executor;
+  }
+
+  FileHandleCache getHandles() {
+    return this.handles;
+  }
+
+  /**
+   * gets the number of writer threads of this service
+   * 
+   * @return the number of writer threads
+   */
+  public int getThreadCount() {
+    return this.threadCount;
+  }
+  /**
+   * gets the most log files this service holds open at once
+   * 
+   * @return the maximum number of open files
+   */
+  public int getMaxOpenFiles() {
+    return this.handles.getMaxOpen();
+  }
+  /**
+   * gets the number of log files this service currently holds open
+   * 
+   * @return the number of open files
+   */
+  public int getOpenFileCount() {
+    return this.handles.getOpenCount();
+  }
+  /**
+   * gets whether or not this service has been closed
+   * 
+   * @return true if this service has been closed
+   */
+  public boolean isClosed() {
+    return this.closed;
+  }
+
+  /**
+   * shuts down the writer threads, once they have finished their current
+   * work, and closes all files. Logs using this service should be closed
+   * beforehand, so that their pending entries are written
+   */
+  @Override
+  public void close() {
+
+    if (this.closed)
+      return;
+
+    this.closed = true;
+    this.sweep.cancel(false);
+    this.executor.shutdown();
+    try {
+      this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      this.handles.closeAll();
+    }
+    catch (IOException e) {
+      throw new LogException(e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,63 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A destination to which a log copies each entry it writes, in addition to
+ * its own file. Each entry is formatted once and the same bytes are handed
+ * to every sink of the log.
+ *
+ * A sink is driven by a writer thread of its own, fed through a bounded
+ * queue, so that a slow or failing sink holds up neither the log's other
+ * sinks nor the threads adding entries: when its queue is full, entries are
+ * dropped for that sink alone, and when it fails, the entries it was given
+ * are dropped and it is given a rest before being tried again. A sink is
+ * only ever called from its writer thread, and is closed by it once the
+ * sink is removed from the log or the log is closed
+ */
+public interface LogSink extends AutoCloseable {
+
+  /**
+   * writes an entry, or buffers it until flush is called
+   *
+   * @param entry the bytes of the entry, including its line-feed, which must
+   *              not be kept once this returns
+   * @param timestamp the time of the entry in milliseconds since the epoch
+   * @throws IOException if the entry cannot be written
+   */
+  void write(ByteBuffer entry, long timestamp) throws IOException;
+
+  /**
+   * writes out any buffered entries. It is called after each batch of
+   * entries taken from the queue
+   *
+   * @throws IOException if the entries cannot be written
+   */
+  void flush() throws IOException;
+
+  @Override
+  void close() throws IOException;
+
+}
@@ -0,0 +1,418 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import upsilon.tools.FormatTemplate;
+
+/**
+ * A log format string compiled into a flat sequence of operations. Each
+ * operation is either a literal or a specifier along with its numeric
+ * argument, both parsed and validated once when the template is compiled
+ */
+class LogTemplate {
+
+	static final char[] FORMAT_TERMINATORS = new char[] {
+		'C', 'c', 'L', 'l', 'R', 'r', 'T', 't', 'H', 'h', 'Y',
+    'y', 'M', 'm', 'D', 'd', 'P', 'p', 'F', 'f', 'S', 's',
+		'J', 'j', 'A', 'a', 'U', 'u', 'N', 'n', 'B', 'b', 'Q',
+		'q', 'W', 'w', 'E', 'e', 'K', 'k', 'v',
+	};
+
+  private static final char LITERAL = '\0';
+
+  static LogTemplate compile(String format) {
+
+    FormatTemplate template;
+    String segment;
+    LogTemplate ret;
+
+    template = FormatTemplate.compile(format, FORMAT_TERMINATORS);
+    ret = new LogTemplate(format, template.getSegmentCount());
+
+    for (int k = 0; k < template.getSegmentCount(); k++) {
+
+      segment = template.getSegment(k);
+      if (!template.isSpecifier(k)) {
+        ret.ops[k] = LITERAL;
+        ret.literals[k] = segment;
+        continue;
+      }
+
+      ret.ops[k] = segment.charAt(segment.length() - 1);
+      ret.arguments[k] = parseArgument(segment);
+      validate(segment, ret.ops[k], ret.arguments[k]);
+    }
+    ret.placesFields = ret.containsOp('v');
+
+    return ret;
+  }
+
+  private static int parseArgument(String segment) {
+
+    String pre;
+
+    pre = segment.substring(0, segment.length() - 1);
+    if (pre.isEmpty())
+      return 0;
+
+    try {
+      return Integer.parseInt(pre);
+    }
+    catch (NumberFormatException e) {
+      raiseException(segment);
+      return 0;
+    }
+  }
+
+  @SuppressWarnings("fallthrough")
+  private static void validate(String segment, char op, int argument) {
+    switch (op) {
+      case 'r':
+      case 't':
+      case 'p':
+      case 'A':
+      case 'a':
+      case 'K':
+      case 'k':
+        if (argument != 0)
+          raiseException(segment);
+      case 'c':
+      case 'v':
+      case 'l':
+      case 'Y':
+      case 'y':
+      case 'M':
+      case 'm':
+      case 'D':
+      case 'd':
+      case 'H':
+      case 'h':
+      case 'F':
+      case 'f':
+      case 'S':
+      case 's':
+      case 'J':
+      case 'j':
+      case 'U':
+      case 'u':
+      case 'N':
+      case 'n':
+      case 'B':
+      case 'b':
+      case 'Q':
+      case 'q':
+      case 'W':
+      case 'w':
+      case 'E':
+      case 'e':
+        return;
+      default:
+        raiseException(segment);
+    }
+  }
+
+  private static void raiseException(String arg) {
+    throw new IllegalArgumentException(
+        String.format("bad format argument: %%%s", arg)
+      );
+  }
+
+
+  private final String source;
+  private final char[] ops;
+  private final int[] arguments;
+  private final String[] literals;
+  private boolean placesFields;
+
+  private LogTemplate(String source, int size) {
+    this.source = source;
+    this.ops = new char [size];
+    this.arguments = new int [size];
+    this.literals = new String [size];
+    this.placesFields = false;
+  }
+
+  String getSource() {
+    return this.source;
+  }
+
+  int size() {
+    return this.ops.length;
+  }
+
+  /**
+   * gets the specifier of the given operation, or zero if it is a literal
+   */
+  char getOp(int index) {
+    return this.ops[index];
+  }
+
+  int getArgument(int index) {
+    return this.arguments[index];
+  }
+
+  String getLiteral(int index) {
+    return this.literals[index];
+  }
+
+  boolean containsOp(char op) {
+    for (char c : this.ops) {
+      if (c == op)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * renders an entry. Its structured fields, if any, are placed where the
+   * format has '%v', or else appended to the end after a space
+   */
+  void render(
+      StringBuilder sb,
+      String level,
+      CharSequence line,
+      CharSequence fields,
+      long epochMillis,
+      TimestampCache.Timestamp time
+      ) {
+    for (int k = 0; k < this.ops.length; k++) {
+      if (this.ops[k] == LITERAL)
+        sb.append(this.literals[k]);
+      else
+        renderOp(
+            sb,
+            this.ops[k],
+            this.arguments[k],
+            level,
+            line,
+            fields,
+            epochMillis,
+            time
+          );
+    }
+    if (!this.placesFields && fields != null && fields.length() != 0)
+      sb.append(' ').append(fields);
+  }
+
+  private static void renderOp(
+      StringBuilder sb,
+      char op,
+      int integer,
+      String level,
+      CharSequence line,
+      CharSequence fields,
+      long epochMillis,
+      TimestampCache.Timestamp time
+      ) {
+
+    switch (op)
+    {
+      case 'c':
+        appendPadded(sb, line, integer);
+        return;
+      case 'v':
+        appendPadded(sb, fields == null ? "" : fields, integer);
+        return;
+      case 'l':
+        appendPadded(sb, level, integer);
+        return;
+      case 'r':
+        sb.append(time.dateText);
+        return;
+      case 't':
+        sb.append(time.timeText);
+        return;
+      case 'p':
+        sb.append(time.shortDateText);
+        return;
+      case 'K':
+      case 'k':
+        appendZeroPadded(sb, Math.floorMod(epochMillis, 1000L), 3);
+        return;
+      case 'Y':
+      case 'y':
+        appendChopped(sb, time.time.getYear(), integer);
+        return;
+      case 'M':
+      case 'm':
+        appendChopped(sb, time.time.getMonthValue(), integer);
+        return;
+      case 'D':
+      case 'd':
+        appendChopped(sb, time.time.getDayOfMonth(), integer);
+        return;
+      case 'H':
+      case 'h':
+        appendChopped(sb, time.time.getHour(), integer);
+        return;
+      case 'F':
+      case 'f':
+        appendChopped(sb, time.time.getMinute(), integer);
+        return;
+      case 'S':
+      case 's':
+        appendChopped(sb, time.time.getSecond(), integer);
+        return;
+      case 'J':
+      case 'j':
+        appendChopped(
+            sb,
+            time.time.getHour() % 12 == 0 ? 12 : time.time.getHour() % 12,
+            integer
+          );
+        return;
+      case 'A':
+        sb.append(time.time.getHour() > 11 ? "PM" : "AM");
+        return;
+      case 'a':
+        sb.append(time.time.getHour() > 11 ? "pm" : "am");
+        return;
+      case 'U':
+      case 'u':
+        sb.append(time.epochSecond);
+        return;
+      case 'N':
+        sb.append(time.getMonthFull().toUpperCase());
+        return;
+      case 'n':
+      case 'b':
+        sb.append(time.getMonthShort());
+        return;
+      case 'B':
+        sb.append(time.getMonthShort().toUpperCase());
+        return;
+      case 'Q':
+        sb.append(time.getDayFull().toUpperCase());
+        return;
+      case 'q':
+        sb.append(time.getDayFull());
+        return;
+      case 'W':
+        sb.append(time.getDayShort().toUpperCase());
+        return;
+      case 'w':
+        sb.append(time.getDayShort());
+        return;
+      case 'E':
+      case 'e':
+        sb.append(time.time.getDayOfWeek().ordinal());
+        return;
+      default:
+        raiseException(Character.toString(op));
+    }
+  }
+
+  /**
+   * appends the string padded with spaces to the given width. A negative
+   * width pads on the right instead of the left
+   */
+  static void appendPadded(
+      StringBuilder sb,
+      CharSequence string,
+      int width
+      ) {
+
+    int padding;
+
+    padding = Math.abs(width) - string.length();
+    if (width < 0)
+      sb.append(string);
+    for (int k = 0; k < padding; k++)
+      sb.append(' ');
+    if (width >= 0)
+      sb.append(string);
+  }
+
+  /**
+   * appends the value padded with spaces to the given width, keeping only
+   * its last digits if it is too wide. A negative width pads on the right
+   * and keeps the first digits instead. A width of zero appends the value
+   * as is
+   */
+  static void appendChopped(StringBuilder sb, long value, int width) {
+
+    int digits;
+    long modulus;
+
+    if (width == 0) {
+      sb.append(value);
+      return;
+    }
+
+    digits = digitCount(value);
+    if (width < 0) {
+      if (digits <= -width) {
+        sb.append(value);
+        for (int k = digits; k < -width; k++)
+          sb.append(' ');
+      }
+      else
+        sb.append(value / pow10(digits + width));
+      return;
+    }
+
+    if (digits <= width) {
+      for (int k = digits; k < width; k++)
+        sb.append(' ');
+      sb.append(value);
+      return;
+    }
+
+    modulus = pow10(width);
+    appendZeroPadded(sb, value % modulus, width);
+  }
+
+  private static long pow10(int exponent) {
+
+    long ret;
+
+    ret = 1;
+    for (int k = 0; k < exponent; k++)
+      ret *= 10;
+
+    return ret;
+  }
+
+  /**
+   * appends the non-negative value padded with zeros to the given width
+   */
+  static void appendZeroPadded(StringBuilder sb, long value, int width) {
+    for (int k = digitCount(value); k < width; k++)
+      sb.append('0');
+    sb.append(value);
+  }
+
+  private static int digitCount(long value) {
+
+    int ret;
+
+    ret = value < 0 ? 2 : 1;
+    value = Math.abs(value);
+    while (value >= 10) {
+      value /= 10;
+      ret++;
+    }
+
+    return ret;
+  }
+
+}
@@ -0,0 +1,675 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Copies encoded entries into a staging buffer and commits them to a log
+ * channel together with a single write, according to a flush policy or
+ * whenever the staging buffer fills up, optionally
+ * forcing each commit to the storage device. Before an entry is accepted,
+ * the rotator is consulted and the file rotated if required.
+ *
+ * Appending threads never wait for one another. A thread which finds the
+ * writer busy leaves its entry on a lock-free queue and returns; whichever
+ * thread holds the writer drains that queue before releasing it. Each entry
+ * is one complete line and is written by a single write, so lines are never
+ * interleaved. When every write must be synced, appending threads do wait,
+ * so that their entry is durable once they return
+ */
+class LogWriter implements AutoCloseable {
+
+  /**
+   * Supplies bytes which must precede an entry in the file it is written to,
+   * such as a header at the start of each file. It is only ever called while
+   * the writer is held
+   */
+  interface Preamble {
+
+    /**
+     * called whenever the entries which follow go to a new or reopened file
+     */
+    void reset();
+
+    /**
+     * gets the bytes to be written before the given entry, without consuming
+     * it. The returned buffer is written before the next call
+     *
+     * @return the bytes to precede the entry, or null if there are none
+     */
+    ByteBuffer before(ByteBuffer entry);
+
+  }
+
+  private static class Staged {
+    final ByteBuffer entry;
+    final long timestamp;
+
+    Staged(ByteBuffer entry, long timestamp) {
+      this.entry = entry;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private static final int MAX_DRAIN = 1024;
+  private static final int STAGING_CAPACITY = 1 << 16;
+
+  private final ReentrantLock lock;
+  private final ConcurrentLinkedQueue<Staged> incoming;
+
+  private LogChannel channel;
+  private final LogRotator rotator;
+  private final MetricsRecorder metrics;
+  private FlushPolicy policy;
+  private int entryCount;
+  private long intervalMillis;
+  private volatile boolean syncOnFlush;
+  private Preamble preamble;
+  private TimeIndex index;
+
+  private ByteBuffer staging;
+  private int pendingCount;
+  private long fileSize;
+  private long firstPendingNanos;
+  private ScheduledFuture<?> scheduledFlush;
+
+  private long batches, entries, maxBatchSize;
+  private long syncs, totalSyncNanos, maxSyncNanos;
+
+  LogWriter(LogChannel channel, LogRotator rotator, MetricsRecorder metrics) {
+
+    if (channel == null)
+      throw new IllegalArgumentException("channel cannot be null");
+    if (rotator == null)
+      throw new IllegalArgumentException("rotator cannot be null");
+    if (metrics == null)
+      throw new IllegalArgumentException("metrics cannot be null");
+
+    this.lock = new ReentrantLock();
+    this.incoming = new ConcurrentLinkedQueue<>();
+    this.channel = channel;
+    this.rotator = rotator;
+    this.metrics = metrics;
+    this.policy = FlushPolicy.IMMEDIATE;
+    this.entryCount = 64;
+    this.intervalMillis = 1000;
+    this.syncOnFlush = false;
+    this.staging = ByteBuffer.allocate(STAGING_CAPACITY);
+    this.pendingCount = 0;
+    this.fileSize = -1;
+    this.scheduledFlush = null;
+    this.preamble = null;
+    this.index = null;
+  }
+
+  void setPolicy(FlushPolicy policy) throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      this.policy = policy;
+      commit();
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  void setEntryCount(int entryCount) throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      this.entryCount = entryCount;
+      if (this.pendingCount >= entryCount)
+        commit();
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  void setIntervalMillis(long intervalMillis) {
+    this.lock.lock();
+    try {
+      this.intervalMillis = intervalMillis;
+    }
+    finally {
+      unlockQuietly();
+    }
+  }
+
+  void setSyncOnFlush(boolean syncOnFlush) {
+    this.syncOnFlush = syncOnFlush;
+  }
+
+  /**
+   * commits any pending entries, then replaces the staging buffer with an
+   * off-heap or heap buffer
+   */
+  void setDirect(boolean direct) throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      commit();
+      if (this.staging.isDirect() != direct)
+        this.staging = direct
+            ? ByteBuffer.allocateDirect(STAGING_CAPACITY)
+            : ByteBuffer.allocate(STAGING_CAPACITY);
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  /**
+   * commits any pending entries, then sets the preamble which precedes the
+   * entries appended from now on
+   */
+  void setPreamble(Preamble preamble) throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      commit();
+      this.preamble = preamble;
+      if (preamble != null)
+        preamble.reset();
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  /**
+   * commits any pending entries, then replaces the time index of the log,
+   * closing the old one
+   */
+  void setIndex(TimeIndex index) throws IOException {
+
+    TimeIndex old;
+
+    this.lock.lock();
+    try {
+      old = this.index;
+      try {
+        drainIncoming();
+        commit();
+      }
+      finally {
+        this.index = null;
+        if (old != null)
+          old.close();
+      }
+      if (index != null) {
+        index.open(this.channel.getPath(), this.channel.size());
+        this.index = index;
+      }
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  /**
+   * commits any pending entries, then replaces and closes the channel
+   */
+  void setChannel(LogChannel channel) throws IOException {
+
+    LogChannel old;
+
+    this.lock.lock();
+    try {
+      old = this.channel;
+      try {
+        drainIncoming();
+        commit();
+      }
+      finally {
+        this.channel = channel;
+        this.fileSize = -1;
+        this.rotator.reset();
+        if (this.preamble != null)
+          this.preamble.reset();
+        old.close();
+        if (this.index != null)
+          this.index.open(channel.getPath(), channel.size());
+      }
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  /**
+   * appends an entry. The buffer may be reused by the caller once this
+   * returns
+   */
+  void append(ByteBuffer entry, long timestamp) throws IOException {
+
+    ByteBuffer copy;
+
+    if (this.lock.tryLock()) {
+      try {
+        drainIncoming();
+        if (this.policy == FlushPolicy.IMMEDIATE && this.pendingCount == 0)
+          writeThrough(entry, timestamp);
+        else {
+          addPending(entry, timestamp);
+          afterAppend();
+        }
+      }
+      finally {
+        unlock();
+      }
+    }
+    else {
+      copy = ByteBuffer.allocate(entry.remaining());
+      copy.put(entry);
+      copy.flip();
+      this.incoming.add(new Staged(copy, timestamp));
+      if (this.syncOnFlush) {
+        this.lock.lock();
+        try {
+          if (drainIncoming())
+            afterAppend();
+        }
+        finally {
+          unlock();
+        }
+      }
+      else
+        combine();
+    }
+  }
+
+  /**
+   * appends a batch of entries, encoding each while the writer is held. The
+   * buffer returned by the encoder may be reused for the next entry
+   */
+  void append(IntFunction<ByteBuffer> encoder, long[] timestamps, int count)
+      throws IOException {
+
+    this.lock.lock();
+    try {
+      drainIncoming();
+      for (int k = 0; k < count; k++)
+        addPending(encoder.apply(k), timestamps[k]);
+      afterAppend();
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  /**
+   * writes all pending entries, without forcing them to the storage device
+   */
+  void commitPending() throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      commit();
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  /**
+   * writes all pending entries and forces the channel to the storage device
+   */
+  void flush() throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      if (!commit() || !this.syncOnFlush)
+        sync();
+    }
+    finally {
+      unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.lock.lock();
+    try {
+      drainIncoming();
+      commit();
+    }
+    finally {
+      try {
+        this.channel.close();
+        if (this.index != null)
+          this.index.close();
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  BatchStatistics getStatistics() {
+    this.lock.lock();
+    try {
+      return new BatchStatistics(
+          this.batches,
+          this.entries,
+          this.maxBatchSize,
+          this.syncs,
+          this.totalSyncNanos,
+          this.maxSyncNanos
+          );
+    }
+    finally {
+      unlockQuietly();
+    }
+  }
+
+  /**
+   * releases the writer, then takes over any entries queued by threads which
+   * found it busy meanwhile, so that none are left behind until the next
+   * append. Every holder except close releases the writer this way
+   */
+  private void unlock() throws IOException {
+    this.lock.unlock();
+    if (!this.lock.isHeldByCurrentThread())
+      combine();
+  }
+
+  private void unlockQuietly() {
+    try {
+      unlock();
+    }
+    catch (IOException e) {
+      /* there is no caller to report to */
+    }
+  }
+
+  /**
+   * takes over entries left on the queue by threads which found the writer
+   * busy, for as long as there are any and the writer is free
+   */
+  private void combine() throws IOException {
+    while (!this.incoming.isEmpty() && this.lock.tryLock()) {
+      try {
+        if (drainIncoming())
+          afterAppend();
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * moves queued entries into the pending batch, committing them every so
+   * often so that the batch stays bounded while other threads keep adding
+   * to the queue. The lock must be held
+   *
+   * @return false if there were none
+   */
+  private boolean drainIncoming() throws IOException {
+
+    Staged staged;
+    int drained;
+
+    drained = 0;
+    while ((staged = this.incoming.poll()) != null) {
+      addPending(staged.entry, staged.timestamp);
+      if (++drained % MAX_DRAIN == 0)
+        afterAppend();
+    }
+
+    return drained != 0;
+  }
+
+  private void addPending(ByteBuffer entry, long timestamp)
+      throws IOException {
+
+    ByteBuffer prefix;
+    int size;
+
+    checkRotation(entry, timestamp);
+    markIndex(entry, timestamp, this.staging.position());
+
+    prefix = this.preamble == null ? null : this.preamble.before(entry);
+    size = entry.remaining() + (prefix == null ? 0 : prefix.remaining());
+    if (size > this.staging.remaining())
+      commit();
+    if (size > this.staging.capacity()) {
+      writeEntry(prefix, entry);
+      return;
+    }
+
+    if (this.pendingCount == 0)
+      this.firstPendingNanos = System.nanoTime();
+    if (prefix != null)
+      this.staging.put(prefix);
+    this.staging.put(entry);
+    this.pendingCount++;
+  }
+
+  /**
+   * writes a single entry straight to the channel. Nothing may be pending
+   */
+  private void writeThrough(ByteBuffer entry, long timestamp)
+      throws IOException {
+
+    checkRotation(entry, timestamp);
+    markIndex(entry, timestamp, 0);
+    writeEntry(
+        this.preamble == null ? null : this.preamble.before(entry),
+        entry
+        );
+  }
+
+  private void writeEntry(ByteBuffer prefix, ByteBuffer entry)
+      throws IOException {
+
+    long start;
+    int size;
+
+    size = entry.remaining();
+    start = System.nanoTime();
+    if (prefix != null) {
+      size += prefix.remaining();
+      this.channel.write(prefix);
+    }
+    this.channel.write(entry);
+    this.metrics.write.recordSince(start);
+    if (this.fileSize >= 0)
+      this.fileSize += size;
+    if (this.index != null)
+      this.index.flush();
+
+    recordBatch(1, size);
+  }
+
+  /**
+   * records a point in the time index, if one is due, at the offset the
+   * entry will be written to. Since a binary log can only be read from
+   * where its template definitions are, the preamble is restarted there
+   */
+  private void markIndex(ByteBuffer entry, long timestamp, int stagedBytes)
+      throws IOException {
+
+    long offset;
+
+    if (this.index == null)
+      return;
+
+    if (this.fileSize < 0)
+      this.fileSize = currentFileSize();
+    offset = this.fileSize + stagedBytes;
+    if (
+        this.index.mark(timestamp, offset, entry.remaining())
+        && this.preamble != null
+        )
+      this.preamble.reset();
+  }
+
+  private void checkRotation(ByteBuffer entry, long timestamp)
+      throws IOException {
+
+    if (!this.rotator.isEnabled())
+      return;
+
+    if (this.fileSize < 0)
+      this.fileSize = currentFileSize();
+    if (
+        this.rotator.shouldRotate(
+          this.channel.getPath(),
+          timestamp,
+          this.fileSize + this.staging.position(),
+          entry.remaining()
+          )
+        )
+      rotate(timestamp);
+  }
+
+  private void rotate(long timestamp) throws IOException {
+    commit();
+    this.channel.close();
+    this.rotator.rotate(this.channel.getPath(), timestamp);
+    this.fileSize = 0;
+    if (this.preamble != null)
+      this.preamble.reset();
+    if (this.index != null)
+      this.index.clear();
+  }
+
+  private long currentFileSize() throws IOException {
+    return this.channel.size();
+  }
+
+  private void afterAppend() throws IOException {
+    switch (this.policy) {
+      case IMMEDIATE:
+        commit();
+        break;
+      case ENTRY_COUNT:
+        if (this.pendingCount >= this.entryCount)
+          commit();
+        break;
+      case INTERVAL:
+        if (
+            System.nanoTime() - this.firstPendingNanos
+              >= this.intervalMillis * 1_000_000L
+            )
+          commit();
+        else if (this.scheduledFlush == null)
+          this.scheduledFlush = LogScheduler.schedule(
+              this::scheduledCommit,
+              this.intervalMillis
+              );
+        break;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  void scheduledCommit() {
+    this.lock.lock();
+    try {
+      this.scheduledFlush = null;
+      drainIncoming();
+      commit();
+    }
+    catch (IOException e) {
+      /* there is no caller to report to */
+    }
+    finally {
+      unlockQuietly();
+    }
+  }
+
+  /**
+   * writes all pending entries, discarding them if the write fails
+   *
+   * @return false if there was nothing to write
+   */
+  private boolean commit() throws IOException {
+
+    long start;
+    int count, size;
+
+    if (this.scheduledFlush != null) {
+      this.scheduledFlush.cancel(false);
+      this.scheduledFlush = null;
+    }
+
+    if (this.pendingCount == 0)
+      return false;
+
+    count = this.pendingCount;
+    this.staging.flip();
+    size = this.staging.remaining();
+    try {
+      if (this.fileSize >= 0)
+        this.fileSize += size;
+      start = System.nanoTime();
+      this.channel.write(this.staging);
+      this.metrics.write.recordSince(start);
+    }
+    finally {
+      this.staging.clear();
+      this.pendingCount = 0;
+    }
+    if (this.index != null)
+      this.index.flush();
+
+    recordBatch(count, size);
+
+    return true;
+  }
+
+  private void recordBatch(int count, int size) throws IOException {
+
+    this.metrics.written(count, size);
+    this.batches++;
+    this.entries += count;
+    this.maxBatchSize = Math.max(this.maxBatchSize, count);
+
+    if (this.syncOnFlush)
+      sync();
+  }
+
+  private void sync() throws IOException {
+
+    long start, elapsed;
+
+    start = System.nanoTime();
+    this.channel.force();
+    elapsed = System.nanoTime() - start;
+    this.metrics.sync.record(elapsed);
+
+    this.syncs++;
+    this.totalSyncNanos += elapsed;
+    this.maxSyncNanos = Math.max(this.maxSyncNanos, elapsed);
+  }
+
+}
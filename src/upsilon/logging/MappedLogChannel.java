@@ -0,0 +1,230 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append channel which copies log content into a memory-mapped region of
+ * the file, so that appending costs no system call. Mapping a region
+ * extends the file to cover it; when a region fills up, the next one is
+ * mapped at the end of the content.
+ *
+ * Content written to a region lives in the operating system's page cache
+ * and so survives the virtual machine crashing. On close, the unused slack
+ * past the content is truncated away. While the file is open, the end of
+ * its content is also kept in a small mapped marker file beside it, which
+ * is deleted on close; if the marker is found on opening, the previous
+ * writer crashed, and the content is taken to end where the marker says
+ * rather than at the end of the file, slack included
+ */
+class MappedLogChannel implements LogChannel {
+
+  private static final int MARKER_SIZE = Long.BYTES;
+
+  private final Path path;
+  private final long regionSize;
+  private FileChannel channel;
+  private MappedByteBuffer region, marker;
+  private long position;
+
+  MappedLogChannel(Path path, long regionSize) {
+
+    if (path == null)
+      throw new IllegalArgumentException("path cannot be null");
+    if (regionSize <= 0 || regionSize > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("region size out of range");
+
+    this.path = path;
+    this.regionSize = regionSize;
+    this.channel = null;
+    this.region = null;
+    this.marker = null;
+  }
+
+  /**
+   * gets the location of the marker file of the given log, which holds the
+   * end of the log's content while a mapped channel has it open
+   *
+   * @param log the log file
+   * @return the marker file
+   */
+  static Path markerOf(Path log) {
+    return log.resolveSibling(log.getFileName() + ".end");
+  }
+
+  @Override
+  public Path getPath() {
+    return this.path;
+  }
+
+  @Override
+  public synchronized void write(ByteBuffer buffer) throws IOException {
+
+    int count, limit;
+
+    if (this.channel == null)
+      open();
+
+    while (buffer.hasRemaining()) {
+
+      if (!this.region.hasRemaining())
+        map(this.position);
+
+      count = Math.min(buffer.remaining(), this.region.remaining());
+      limit = buffer.limit();
+      buffer.limit(buffer.position() + count);
+      this.region.put(buffer);
+      buffer.limit(limit);
+      this.position += count;
+    }
+
+    this.marker.putLong(0, this.position);
+  }
+
+  @Override
+  public synchronized long size() throws IOException {
+    if (this.channel == null)
+      open();
+    return this.position;
+  }
+
+  @Override
+  public synchronized void force() throws IOException {
+    if (this.region != null) {
+      this.region.force();
+      this.marker.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+
+    if (this.channel == null)
+      return;
+
+    try {
+      this.region.force();
+      this.region = null;
+      this.channel.truncate(this.position);
+    }
+    finally {
+      this.channel.close();
+      this.channel = null;
+      this.marker = null;
+    }
+
+    /* only once the slack is gone does the file end where its content does */
+    Files.deleteIfExists(markerOf(this.path));
+  }
+
+  private void open() throws IOException {
+
+    FileChannel markerChannel;
+    long end;
+
+    this.channel = FileChannel.open(
+        this.path,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE
+        );
+    try {
+      markerChannel = FileChannel.open(
+          markerOf(this.path),
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE
+          );
+      try {
+        end = this.channel.size();
+        if (markerChannel.size() >= MARKER_SIZE)
+          end = Math.max(0, Math.min(end, readEnd(markerChannel)));
+        writeEnd(markerChannel, end);
+        this.marker = markerChannel.map(
+            FileChannel.MapMode.READ_WRITE,
+            0,
+            MARKER_SIZE
+            );
+      }
+      finally {
+        markerChannel.close();
+      }
+      this.position = end;
+      map(end);
+    }
+    catch (IOException e) {
+      this.channel.close();
+      this.channel = null;
+      this.marker = null;
+      throw e;
+    }
+  }
+
+  private void map(long at) throws IOException {
+    this.region = this.channel.map(
+        FileChannel.MapMode.READ_WRITE,
+        at,
+        this.regionSize
+        );
+  }
+
+  /**
+   * reads the end of the content left in the marker by a writer which did
+   * not close the file
+   */
+  private static long readEnd(FileChannel markerChannel) throws IOException {
+
+    ByteBuffer buffer;
+
+    buffer = ByteBuffer.allocate(MARKER_SIZE);
+    while (buffer.hasRemaining()) {
+      if (markerChannel.read(buffer, buffer.position()) < 0)
+        return Long.MAX_VALUE;
+    }
+    buffer.flip();
+
+    return buffer.getLong();
+  }
+
+  /**
+   * writes the end of the content into the marker before it is mapped, so
+   * that the marker never holds less than a whole position
+   */
+  private static void writeEnd(FileChannel markerChannel, long end)
+      throws IOException {
+
+    ByteBuffer buffer;
+
+    buffer = ByteBuffer.allocate(MARKER_SIZE);
+    buffer.putLong(0, end);
+    while (buffer.hasRemaining())
+      markerChannel.write(buffer, buffer.position());
+  }
+
+}
@@ -0,0 +1,135 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sink keeping the most recent entries in memory, for diagnostics such as
+ * showing what led up to an error. Once full, each entry replaces the
+ * oldest one
+ */
+public class MemorySink implements LogSink {
+
+  private final String[] entries;
+  private final Charset charset;
+  private int head, count;
+
+	/**
+	 * Creates a new sink keeping the given number of entries, decoded as
+	 * UTF-8
+	 * 
+	 * @param capacity the number of entries kept
+	 */
+  public MemorySink(int capacity) {
+    this(capacity, StandardCharsets.UTF_8);
+  }
+	/**
+	 * Creates a new sink keeping the given number of entries, decoded in the
+	 * given character set, which should be that of the log
+	 * 
+	 * @param capacity the number of entries kept
+	 * @param charset the character set of the entries
+	 */
+  public MemorySink(int capacity, Charset charset) {
+
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive");
+    if (charset == null)
+      throw new IllegalArgumentException("charset cannot be null");
+
+    this.entries = new String [capacity];
+    this.charset = charset;
+    this.head = 0;
+    this.count = 0;
+  }
+
+  @Override
+  public void write(ByteBuffer entry, long timestamp) {
+
+    String text;
+    int end;
+
+    text = this.charset.decode(entry.duplicate()).toString();
+    end = text.length();
+    if (end > 0 && text.charAt(end - 1) == '\n')
+      end--;
+    if (end > 0 && text.charAt(end - 1) == '\r')
+      end--;
+    text = text.substring(0, end);
+
+    synchronized (this) {
+      this.entries[(this.head + this.count) % this.entries.length] = text;
+      if (this.count == this.entries.length)
+        this.head = (this.head + 1) % this.entries.length;
+      else
+        this.count++;
+    }
+  }
+
+	/**
+	 * gets the entries currently kept, from the oldest to the newest, without
+	 * their line-feeds
+	 * 
+	 * @return the entries
+	 */
+  public synchronized List<String> getEntries() {
+
+    List<String> ret;
+
+    ret = new ArrayList<>(this.count);
+    for (int k = 0; k < this.count; k++)
+      ret.add(this.entries[(this.head + k) % this.entries.length]);
+
+    return ret;
+  }
+	/**
+	 * gets the number of entries this sink keeps
+	 * 
+	 * @return the capacity
+	 */
+  public int getCapacity() {
+    return this.entries.length;
+  }
+	/**
+	 * discards all entries kept
+	 */
+  public synchronized void clear() {
+    for (int k = 0; k < this.entries.length; k++)
+      this.entries[k] = null;
+    this.head = 0;
+    this.count = 0;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+}
@@ -0,0 +1,233 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Formattable;
+import java.util.Locale;
+
+/**
+ * Renders the common subset of printf-style message formats directly into
+ * a reused, per-thread buffer. Only '%s', '%d', '%%' and '%n' without flags,
+ * width or precision are handled, and '%d' only where the default format
+ * locale writes digits in ASCII; anything else marks the message as
+ * unsupported, in which case the caller falls back to String.format so that
+ * the output is always identical to it
+ */
+class MessageFormatter {
+
+  private static final int MAX_RETAINED_BUFFER = 1 << 16;
+  private static final ThreadLocal<MessageFormatter> INSTANCE =
+      ThreadLocal.withInitial(MessageFormatter::new);
+
+  /**
+   * gets this thread's formatter, prepared to render the given format, or
+   * null if it is already in use further up the stack
+   */
+  static MessageFormatter begin(String format) {
+
+    MessageFormatter ret;
+    Locale locale;
+
+    ret = INSTANCE.get();
+    if (ret.inUse)
+      return null;
+
+    locale = Locale.getDefault(Locale.Category.FORMAT);
+    if (locale != ret.locale) {
+      ret.locale = locale;
+      ret.asciiDigits =
+          DecimalFormatSymbols.getInstance(locale).getZeroDigit() == '0';
+    }
+
+    ret.inUse = true;
+    ret.format = format;
+    ret.position = 0;
+    ret.supported = true;
+    ret.buffer.setLength(0);
+
+    return ret;
+  }
+
+
+  private final StringBuilder buffer;
+  private String format;
+  private Locale locale;
+  private int position;
+  private boolean supported, inUse, asciiDigits;
+
+  private MessageFormatter() {
+    this.buffer = new StringBuilder();
+    this.locale = null;
+    this.inUse = false;
+  }
+
+  boolean arg(long value) {
+    switch (nextConversion()) {
+      case 'd':
+        if (!this.asciiDigits)
+          return unsupported();
+        this.buffer.append(value);
+        return true;
+      case 's':
+        this.buffer.append(value);
+        return true;
+      case '\0':
+        return true;
+      default:
+        return unsupported();
+    }
+  }
+
+  boolean arg(int value) {
+    return arg((long) value);
+  }
+
+  boolean arg(double value) {
+    switch (nextConversion()) {
+      case 's':
+        this.buffer.append(value);
+        return true;
+      case '\0':
+        return true;
+      default:
+        return unsupported();
+    }
+  }
+
+  boolean arg(Object value) {
+
+    char conversion;
+
+    conversion = nextConversion();
+    if (conversion == '\0')
+      return true;
+
+    if (conversion == 'd') {
+      if (!this.asciiDigits)
+        return unsupported();
+      if (
+          value instanceof Long ||
+          value instanceof Integer ||
+          value instanceof Short ||
+          value instanceof Byte
+          ) {
+        this.buffer.append(((Number) value).longValue());
+        return true;
+      }
+      return unsupported();
+    }
+
+    if (conversion == 's') {
+      if (value == null)
+        this.buffer.append("null");
+      else if (value instanceof Formattable)
+        return unsupported();
+      else if (value instanceof CharSequence)
+        this.buffer.append((CharSequence) value);
+      else if (value instanceof Long || value instanceof Integer)
+        this.buffer.append(((Number) value).longValue());
+      else
+        this.buffer.append(value.toString());
+      return true;
+    }
+
+    return unsupported();
+  }
+
+  /**
+   * renders the remainder of the format. Any further specifier means an
+   * argument is missing, which is left to String.format to report
+   *
+   * @return the rendered message, or null if the format was not supported
+   */
+  CharSequence finish() {
+    if (this.supported && nextConversion() != '\0')
+      unsupported();
+
+    return this.supported ? this.buffer : null;
+  }
+
+  /**
+   * releases this formatter for reuse by the current thread. The buffer
+   * returned by finish() must no longer be in use
+   */
+  void end() {
+    this.inUse = false;
+    this.format = null;
+    if (this.buffer.capacity() > MAX_RETAINED_BUFFER) {
+      this.buffer.setLength(0);
+      this.buffer.trimToSize();
+    }
+  }
+
+  private boolean unsupported() {
+    this.supported = false;
+    return false;
+  }
+
+  /**
+   * appends literal text up to the next specifier that consumes an argument
+   *
+   * @return the conversion character, or '\0' if the end was reached
+   */
+  private char nextConversion() {
+
+    char c, conversion;
+
+    if (!this.supported)
+      return '\0';
+
+    while (this.position < this.format.length()) {
+
+      c = this.format.charAt(this.position++);
+      if (c != '%') {
+        this.buffer.append(c);
+        continue;
+      }
+
+      if (this.position == this.format.length()) {
+        unsupported();
+        return '\0';
+      }
+
+      conversion = this.format.charAt(this.position++);
+      switch (conversion) {
+        case '%':
+          this.buffer.append('%');
+          break;
+        case 'n':
+          this.buffer.append(System.lineSeparator());
+          break;
+        case 'd':
+        case 's':
+          return conversion;
+        default:
+          unsupported();
+          return '\0';
+      }
+    }
+
+    return '\0';
+  }
+
+}
@@ -0,0 +1,68 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters behind a log's metrics. Each is striped or only updated when
+ * a new maximum is reached, so that recording adds no contention between
+ * threads adding entries
+ */
+final class MetricsRecorder {
+
+  final LatencyRecorder format, write, sync;
+  private final LongAdder entries, bytes;
+  private final LongAccumulator queueHighWaterMark;
+
+  MetricsRecorder() {
+    this.entries = new LongAdder();
+    this.bytes = new LongAdder();
+    this.format = new LatencyRecorder();
+    this.write = new LatencyRecorder();
+    this.sync = new LatencyRecorder();
+    this.queueHighWaterMark = new LongAccumulator(Math::max, 0);
+  }
+
+  void written(int entries, long bytes) {
+    this.entries.add(entries);
+    this.bytes.add(bytes);
+  }
+
+  void queueDepth(int depth) {
+    this.queueHighWaterMark.accumulate(depth);
+  }
+
+  long getEntries() {
+    return this.entries.sum();
+  }
+
+  long getBytes() {
+    return this.bytes.sum();
+  }
+
+  long getQueueHighWaterMark() {
+    return this.queueHighWaterMark.get();
+  }
+
+}
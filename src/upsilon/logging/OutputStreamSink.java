@@ -0,0 +1,101 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Sink writing entries to an output stream, such as standard error or a
+ * SplitOutputStream, through a buffer which is flushed after each batch
+ */
+public class OutputStreamSink implements LogSink {
+
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  private final OutputStream out;
+  private final boolean closeStream;
+  private byte[] copy;
+
+	/**
+	 * Creates a new sink writing to the given stream, which is closed along
+	 * with the sink
+	 * 
+	 * @param out the stream
+	 */
+  public OutputStreamSink(OutputStream out) {
+    this(out, true);
+  }
+	/**
+	 * Creates a new sink writing to the given stream
+	 * 
+	 * @param out the stream
+	 * @param closeStream whether the stream is closed along with the sink,
+	 *										which should be false for standard output or error
+	 */
+  public OutputStreamSink(OutputStream out, boolean closeStream) {
+
+    if (out == null)
+      throw new IllegalArgumentException("stream cannot be null");
+
+    this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    this.closeStream = closeStream;
+    this.copy = new byte [256];
+  }
+
+  @Override
+  public void write(ByteBuffer entry, long timestamp) throws IOException {
+
+    int length;
+
+    if (entry.hasArray()) {
+      this.out.write(
+          entry.array(),
+          entry.arrayOffset() + entry.position(),
+          entry.remaining()
+          );
+      return;
+    }
+
+    length = entry.remaining();
+    if (length > this.copy.length)
+      this.copy = new byte [Math.max(length, this.copy.length * 2)];
+    entry.duplicate().get(this.copy, 0, length);
+    this.out.write(this.copy, 0, length);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.closeStream)
+      this.out.close();
+    else
+      this.out.flush();
+  }
+
+}
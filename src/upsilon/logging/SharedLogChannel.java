@@ -0,0 +1,93 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Append channel which borrows its file handle from a cache shared by many
+ * logs, rather than holding one open for its own lifetime. The channel is
+ * one owner of its path in the cache while open, so closing it leaves the
+ * handle open for any other log writing to the same file
+ */
+class SharedLogChannel implements LogChannel {
+
+  private final Path path;
+  private final FileHandleCache handles;
+  private boolean owner;
+
+  SharedLogChannel(Path path, FileHandleCache handles) {
+
+    if (path == null)
+      throw new IllegalArgumentException("path cannot be null");
+    if (handles == null)
+      throw new IllegalArgumentException("handles cannot be null");
+
+    this.path = path.toAbsolutePath().normalize();
+    this.handles = handles;
+    this.handles.open(this.path);
+    this.owner = true;
+  }
+
+  @Override
+  public Path getPath() {
+    return this.path;
+  }
+
+  @Override
+  public void write(ByteBuffer buffer) throws IOException {
+    /* a rotation closes the channel and then carries on writing to it */
+    if (!this.owner) {
+      this.handles.open(this.path);
+      this.owner = true;
+    }
+    this.handles.write(this.path, buffer);
+  }
+
+  @Override
+  public long size() throws IOException {
+    try {
+      return Files.size(this.path);
+    }
+    catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public void force() throws IOException {
+    this.handles.force(this.path);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.owner) {
+      this.owner = false;
+      this.handles.close(this.path);
+    }
+  }
+
+}
@@ -0,0 +1,190 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a sink from a writer thread of its own, fed through a bounded
+ * queue which never makes the offering thread wait. When the sink fails,
+ * the entries it was given are dropped and it is left alone for a while,
+ * twice as long after each consecutive failure up to a limit, dropping
+ * whatever arrives in the meantime
+ */
+final class SinkRunner {
+
+  /**
+   * An entry as formatted by the log, shared by all of its sinks
+   */
+  static final class Entry {
+    final byte[] bytes;
+    final long timestamp;
+
+    Entry(byte[] bytes, long timestamp) {
+      this.bytes = bytes;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final long POLL_MILLIS = 100;
+  private static final long MIN_REST_MILLIS = 10;
+  private static final long MAX_REST_MILLIS = 5000;
+
+  private final LogSink sink;
+  private final BlockingQueue<Entry> queue;
+  private final AtomicLong dropped, failures;
+  private final Thread thread;
+  private volatile boolean stopping;
+  private long restUntil;
+  private int consecutiveFailures;
+
+  SinkRunner(LogSink sink, int capacity, String name) {
+
+    if (sink == null)
+      throw new IllegalArgumentException("sink cannot be null");
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive");
+
+    this.sink = sink;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.dropped = new AtomicLong();
+    this.failures = new AtomicLong();
+    this.stopping = false;
+    this.restUntil = 0;
+    this.consecutiveFailures = 0;
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  LogSink getSink() {
+    return this.sink;
+  }
+
+  long getDroppedCount() {
+    return this.dropped.get();
+  }
+
+  long getFailureCount() {
+    return this.failures.get();
+  }
+
+  /**
+   * queues an entry for the sink, dropping it if the queue is full
+   */
+  void offer(Entry entry) {
+    if (this.stopping || !this.queue.offer(entry))
+      this.dropped.incrementAndGet();
+  }
+
+  /**
+   * stops accepting entries and waits for those queued to be written, for
+   * at most the given time if it is positive. A sink still busy after that
+   * is interrupted, and closed once it returns
+   */
+  void stop(long timeoutMillis) throws InterruptedException {
+    this.stopping = true;
+    if (Thread.currentThread() == this.thread)
+      return;
+    this.thread.join(timeoutMillis);
+    if (this.thread.isAlive())
+      this.thread.interrupt();
+  }
+
+  private void run() {
+
+    List<Entry> batch;
+    Entry first;
+
+    batch = new ArrayList<>(MAX_BATCH_SIZE);
+    try {
+      for (;;) {
+        try {
+          first = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+          break;
+        }
+        if (first == null) {
+          if (this.stopping)
+            break;
+          continue;
+        }
+
+        batch.add(first);
+        this.queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+        write(batch);
+        batch.clear();
+      }
+    }
+    finally {
+      this.dropped.addAndGet(this.queue.size());
+      this.queue.clear();
+      try {
+        this.sink.close();
+      }
+      catch (Exception e) {
+        this.failures.incrementAndGet();
+      }
+    }
+  }
+
+  private void write(List<Entry> batch) {
+
+    int written;
+
+    if (System.currentTimeMillis() < this.restUntil) {
+      this.dropped.addAndGet(batch.size());
+      return;
+    }
+
+    written = 0;
+    try {
+      for (Entry entry : batch) {
+        this.sink.write(
+            ByteBuffer.wrap(entry.bytes).asReadOnlyBuffer(),
+            entry.timestamp
+            );
+        written++;
+      }
+      this.sink.flush();
+      this.consecutiveFailures = 0;
+    }
+    catch (Exception e) {
+      this.dropped.addAndGet(batch.size() - written);
+      this.failures.incrementAndGet();
+      this.restUntil = System.currentTimeMillis() + Math.min(
+          MAX_REST_MILLIS,
+          MIN_REST_MILLIS << Math.min(this.consecutiveFailures, 20)
+          );
+      this.consecutiveFailures++;
+    }
+  }
+
+}
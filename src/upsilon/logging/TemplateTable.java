@@ -0,0 +1,148 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns ids to the message templates of a binary log, and writes each
+ * template's definition into a file ahead of the first entry there which
+ * uses it, so that repeated messages cost only their arguments. Since the
+ * definitions are added while the writer is held, every file stays
+ * readable on its own, however its entries were interleaved or rotated
+ */
+class TemplateTable implements LogWriter.Preamble {
+
+  private static final int MAX_TEMPLATES = 1 << 12;
+
+  private final ConcurrentHashMap<String, Integer> literals, formats;
+  private final List<ByteBuffer> definitions;
+  private final BitSet written;
+  private final ByteBuffer header;
+  private ByteBuffer prefix;
+  private boolean headerWritten;
+
+  TemplateTable() {
+    this.literals = new ConcurrentHashMap<>();
+    this.formats = new ConcurrentHashMap<>();
+    this.definitions = new ArrayList<>();
+    this.definitions.add(null);
+    this.written = new BitSet();
+    this.header = ByteBuffer.allocate(1 + BinaryFormat.MAGIC.length + 1);
+    this.header
+      .put(BinaryFormat.HEADER)
+      .put(BinaryFormat.MAGIC)
+      .put((byte) BinaryFormat.VERSION)
+      .flip();
+    this.prefix = ByteBuffer.allocate(1 << 8);
+    this.headerWritten = false;
+  }
+
+  /**
+   * gets the id of the given template, assigning one if it has none
+   *
+   * @param text the template text
+   * @param format whether the text is a format, rather than a literal line
+   * @return the id, or -1 if the table is full
+   */
+  int idOf(String text, boolean format) {
+
+    ConcurrentHashMap<String, Integer> ids;
+    Integer ret;
+
+    ids = format ? this.formats : this.literals;
+    ret = ids.get(text);
+    if (ret != null)
+      return ret;
+
+    synchronized (this) {
+      ret = ids.get(text);
+      if (ret != null)
+        return ret;
+      if (this.definitions.size() >= MAX_TEMPLATES)
+        return -1;
+
+      ret = this.definitions.size();
+      this.definitions.add(BinaryEncoder.encodeTemplate(ret, text, format));
+      ids.put(text, ret);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public void reset() {
+    this.written.clear();
+    this.headerWritten = false;
+  }
+
+  @Override
+  public ByteBuffer before(ByteBuffer entry) {
+
+    ByteBuffer definition;
+    boolean defined;
+    int id;
+
+    id = (int) BinaryFormat.getVarInt(
+        entry.duplicate().position(entry.position() + 1)
+        );
+    defined = id == BinaryFormat.RAW_TEMPLATE || this.written.get(id);
+
+    if (this.headerWritten && defined)
+      return null;
+
+    this.prefix.clear();
+    if (!this.headerWritten) {
+      put(this.header.duplicate());
+      this.headerWritten = true;
+    }
+    if (!defined) {
+      synchronized (this) {
+        definition = this.definitions.get(id);
+      }
+      put(definition.duplicate());
+      this.written.set(id);
+    }
+    this.prefix.flip();
+
+    return this.prefix;
+  }
+
+  private void put(ByteBuffer bytes) {
+
+    ByteBuffer grown;
+
+    if (this.prefix.remaining() < bytes.remaining()) {
+      grown = ByteBuffer.allocate(this.prefix.position() + bytes.remaining());
+      this.prefix.flip();
+      grown.put(this.prefix);
+      this.prefix = grown;
+    }
+
+    this.prefix.put(bytes);
+  }
+
+}
@@ -0,0 +1,287 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sparse, append-only index of a log file, kept in a sidecar file next to
+ * it. Every so many entries or bytes, a point is recorded holding the byte
+ * offset of an entry and a time no earlier than that of any entry before
+ * it, so that a reader looking for entries at or after some time can skip
+ * straight past every point with an earlier time. Points are held back
+ * until the entries they refer to have been written, so after a crash the
+ * index usually lags behind the log; any points left referring beyond its
+ * end are discarded when the index is next opened. Each point is
+ * two big-endian longs: the time in milliseconds since the epoch, then the
+ * offset
+ */
+class TimeIndex implements AutoCloseable {
+
+  static final int POINT_SIZE = 16;
+  private static final int PENDING_POINTS = 64;
+
+  static Path pathOf(Path log) {
+    return log.resolveSibling(log.getFileName() + ".idx");
+  }
+
+  /**
+   * gets the number of whole points in an index, disregarding points which
+   * refer beyond the end of the log, such as those of a log since truncated
+   */
+  static long countPoints(FileChannel index, long logSize)
+      throws IOException {
+
+    ByteBuffer point;
+    long ret;
+
+    point = ByteBuffer.allocate(POINT_SIZE);
+    ret = index.size() / POINT_SIZE;
+    while (ret > 0) {
+      point.clear();
+      readPoint(index, ret - 1, point);
+      if (point.getLong(8) <= logSize)
+        break;
+      ret--;
+    }
+
+    return ret;
+  }
+
+  static void readPoint(FileChannel index, long number, ByteBuffer point)
+      throws IOException {
+
+    long position;
+
+    position = number * POINT_SIZE;
+    while (point.hasRemaining()) {
+      if (index.read(point, position + point.position()) < 0)
+        throw new IOException("index ends within a point");
+    }
+  }
+
+
+  private final int entryInterval;
+  private final long byteInterval;
+  private ByteBuffer pending;
+  private FileChannel channel;
+  private long maxTimestamp;
+  private int entriesSincePoint;
+  private long bytesSincePoint;
+
+  TimeIndex(int entryInterval, long byteInterval) {
+
+    if (entryInterval < 0)
+      throw new IllegalArgumentException("entry interval cannot be negative");
+    if (byteInterval < 0)
+      throw new IllegalArgumentException("byte interval cannot be negative");
+    if (entryInterval == 0 && byteInterval == 0)
+      throw new IllegalArgumentException("no interval given");
+
+    this.entryInterval = entryInterval;
+    this.byteInterval = byteInterval;
+    this.pending = ByteBuffer.allocate(POINT_SIZE * PENDING_POINTS);
+    this.channel = null;
+    restart();
+  }
+
+  int getEntryInterval() {
+    return this.entryInterval;
+  }
+
+  long getByteInterval() {
+    return this.byteInterval;
+  }
+
+  /**
+   * opens the index of the given log, discarding any partly written or
+   * dangling points left behind by a crash
+   */
+  void open(Path log, long logSize) throws IOException {
+
+    close();
+
+    this.channel = FileChannel.open(
+        pathOf(log),
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE
+        );
+    try {
+      this.channel.truncate(
+          countPoints(this.channel, logSize) * POINT_SIZE
+          );
+      this.channel.position(this.channel.size());
+    }
+    catch (IOException e) {
+      close();
+      throw e;
+    }
+    restart();
+  }
+
+  /**
+   * creates an empty index in the given file, replacing any existing one
+   */
+  void create(Path file) throws IOException {
+
+    close();
+
+    this.channel = FileChannel.open(
+        file,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING
+        );
+    restart();
+  }
+
+  /**
+   * discards the whole index, when the log has been rotated
+   */
+  void clear() throws IOException {
+    this.pending.clear();
+    if (this.channel != null) {
+      this.channel.truncate(0);
+      this.channel.position(0);
+    }
+    restart();
+  }
+
+  /**
+   * accounts for an entry about to be written at the given offset, first
+   * recording a point there if one is due
+   *
+   * @return true if a point was recorded
+   */
+  boolean mark(long timestamp, long offset, int size) {
+
+    boolean ret;
+
+    ret = isDue();
+    if (ret)
+      addPoint(
+          this.maxTimestamp == Long.MIN_VALUE ? timestamp : this.maxTimestamp,
+          offset
+          );
+    account(timestamp, size);
+
+    return ret;
+  }
+
+  /**
+   * gets whether a point should be recorded before the next entry
+   */
+  boolean isDue() {
+    return this.maxTimestamp == Long.MIN_VALUE
+        || (
+            this.entryInterval > 0
+            && this.entriesSincePoint >= this.entryInterval
+            )
+        || (
+            this.byteInterval > 0
+            && this.bytesSincePoint >= this.byteInterval
+            );
+  }
+
+  /**
+   * records a point, holding it back until the next flush. Points are never
+   * written from here, since the entries they refer to may not have been
+   * written yet; if the points outgrow the buffer, it grows until then
+   */
+  private void addPoint(long timestamp, long offset) {
+
+    ByteBuffer grown;
+
+    if (!this.pending.hasRemaining()) {
+      grown = ByteBuffer.allocate(this.pending.capacity() * 2);
+      this.pending.flip();
+      grown.put(this.pending);
+      this.pending = grown;
+    }
+    this.pending.putLong(timestamp).putLong(offset);
+    this.entriesSincePoint = 0;
+    this.bytesSincePoint = 0;
+  }
+
+  void account(long timestamp, int size) {
+    this.entriesSincePoint++;
+    this.bytesSincePoint += size;
+    this.maxTimestamp = Math.max(this.maxTimestamp, timestamp);
+  }
+
+  /**
+   * gets whether the points held back have filled the buffer, so that a
+   * caller whose entries are all written already may flush them early
+   */
+  boolean isPendingFull() {
+    return !this.pending.hasRemaining();
+  }
+
+  /**
+   * writes the points recorded so far. This must only be called once the
+   * entries they refer to have been written
+   */
+  void flush() throws IOException {
+    if (this.pending.position() != 0)
+      writePending();
+    if (this.pending.capacity() > POINT_SIZE * PENDING_POINTS)
+      this.pending = ByteBuffer.allocate(POINT_SIZE * PENDING_POINTS);
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    FileChannel closing;
+
+    closing = this.channel;
+    this.channel = null;
+    this.pending.clear();
+    if (closing != null)
+      closing.close();
+  }
+
+  private void writePending() throws IOException {
+
+    this.pending.flip();
+    try {
+      if (this.channel != null) {
+        while (this.pending.hasRemaining())
+          this.channel.write(this.pending);
+      }
+    }
+    finally {
+      this.pending.clear();
+    }
+  }
+
+  private void restart() {
+    this.maxTimestamp = Long.MIN_VALUE;
+    this.entriesSincePoint = 0;
+    this.bytesSincePoint = 0;
+  }
+
+}
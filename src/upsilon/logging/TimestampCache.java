@@ -0,0 +1,200 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.logging;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
+/**
+ * Caches the calendar fields and rendered date and time text of the most
+ * recent second seen, so that entries logged within the same second share
+ * one conversion from the clock value
+ */
+class TimestampCache {
+
+  private final ZoneId zone;
+  private volatile Timestamp last;
+
+  TimestampCache(ZoneId zone) {
+
+    if (zone == null)
+      throw new IllegalArgumentException("zone cannot be null");
+
+    this.zone = zone;
+    this.last = null;
+  }
+
+  ZoneId getZone() {
+    return this.zone;
+  }
+
+  /**
+   * gets the timestamp for the second containing the given clock value,
+   * reusing the cached one if it is the same second
+   */
+  Timestamp get(long epochMillis) {
+
+    Timestamp cached;
+    long epochSecond;
+
+    epochSecond = Math.floorDiv(epochMillis, 1000L);
+    cached = this.last;
+    if (cached != null && cached.epochSecond == epochSecond)
+      return cached;
+
+    cached = new Timestamp(epochSecond, this.zone);
+    this.last = cached;
+
+    return cached;
+  }
+
+
+  /**
+   * The calendar fields of a single second, along with rendered text for
+   * the composite and (lazily) the named specifiers
+   */
+  static class Timestamp {
+
+    final long epochSecond;
+    final LocalDateTime time;
+    final String dateText, timeText, shortDateText;
+    private final ZoneId zone;
+    private String monthFull, monthShort, dayFull, dayShort;
+    private String isoText, offsetText;
+
+    private Timestamp(long epochSecond, ZoneId zone) {
+
+      StringBuilder sb;
+
+      this.epochSecond = epochSecond;
+      this.zone = zone;
+      this.time = LocalDateTime.ofInstant(
+          Instant.ofEpochSecond(epochSecond),
+          zone
+        );
+      sb = new StringBuilder();
+
+      LogTemplate.appendZeroPadded(sb, this.time.getYear(), 4);
+      sb.append('-');
+      LogTemplate.appendZeroPadded(sb, this.time.getMonthValue(), 2);
+      sb.append('-');
+      LogTemplate.appendZeroPadded(sb, this.time.getDayOfMonth(), 2);
+      this.dateText = sb.toString();
+
+      sb.setLength(0);
+      LogTemplate.appendZeroPadded(sb, this.time.getHour(), 2);
+      sb.append('-');
+      LogTemplate.appendZeroPadded(sb, this.time.getMinute(), 2);
+      sb.append('-');
+      LogTemplate.appendZeroPadded(sb, this.time.getSecond(), 2);
+      this.timeText = sb.toString();
+
+      sb.setLength(0);
+      LogTemplate.appendZeroPadded(sb, this.time.getYear() % 100, 2);
+      sb.append('-');
+      LogTemplate.appendZeroPadded(sb, this.time.getMonthValue(), 2);
+      sb.append('-');
+      LogTemplate.appendZeroPadded(sb, this.time.getDayOfMonth(), 2);
+      this.shortDateText = sb.toString();
+    }
+
+    /**
+     * gets the ISO-8601 local date and time of this second
+     */
+    String getIsoText() {
+
+      StringBuilder sb;
+
+      if (this.isoText == null) {
+        sb = new StringBuilder();
+        sb.append(this.dateText).append('T');
+        LogTemplate.appendZeroPadded(sb, this.time.getHour(), 2);
+        sb.append(':');
+        LogTemplate.appendZeroPadded(sb, this.time.getMinute(), 2);
+        sb.append(':');
+        LogTemplate.appendZeroPadded(sb, this.time.getSecond(), 2);
+        this.isoText = sb.toString();
+      }
+
+      return this.isoText;
+    }
+
+    /**
+     * gets the ISO-8601 zone offset of this second, "Z" for UTC
+     */
+    String getOffsetText() {
+
+      ZoneOffset offset;
+
+      if (this.offsetText == null) {
+        offset = this.zone
+            .getRules()
+            .getOffset(Instant.ofEpochSecond(this.epochSecond));
+        this.offsetText = offset.getTotalSeconds() == 0 ? "Z" : offset.getId();
+      }
+
+      return this.offsetText;
+    }
+
+    String getMonthFull() {
+      if (this.monthFull == null)
+        this.monthFull = this.time
+            .getMonth()
+            .getDisplayName(TextStyle.FULL, Locale.getDefault());
+      return this.monthFull;
+    }
+
+    String getMonthShort() {
+      if (this.monthShort == null)
+        this.monthShort = this.time
+            .getMonth()
+            .getDisplayName(TextStyle.SHORT, Locale.getDefault());
+      return this.monthShort;
+    }
+
+    String getDayFull() {
+      if (this.dayFull == null)
+        this.dayFull = this.time
+            .getDayOfWeek()
+            .getDisplayName(TextStyle.FULL, Locale.getDefault());
+      return this.dayFull;
+    }
+
+    String getDayShort() {
+      if (this.dayShort == null)
+        this.dayShort = this.time
+            .getDayOfWeek()
+            .getDisplayName(TextStyle.SHORT, Locale.getDefault());
+      return this.dayShort;
+    }
+
+  }
+
+  static ZoneId zoneFor(boolean useLocalTime) {
+    return useLocalTime ? ZoneId.systemDefault() : ZoneOffset.UTC;
+  }
+
+}
@@ -0,0 +1,228 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package upsilon.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A format string which has been parsed once into a flat sequence of
+ * literal segments and specifiers, so that it may be rendered many times
+ * without being parsed again. Specifiers are introduced by '%' and end with
+ * any of the terminator characters given at compilation; '%%' denotes a
+ * literal '%'
+ */
+public class FormatTemplate {
+
+  /**
+   * parses the given format string
+   *
+   * @param string the format string
+   * @param terminators characters which end a format specifier
+   * @return the compiled template
+   */
+  public static FormatTemplate compile(String string, char[] terminators) {
+
+    List<String> segments;
+    List<Boolean> specifiers;
+    StringBuilder literal;
+    int start;
+    boolean[] asciiTerminators;
+    boolean parsingArg;
+
+    if (string == null)
+      throw new IllegalArgumentException("string cannot be null");
+    if (terminators == null)
+      throw new IllegalArgumentException("terminators cannot be null");
+
+    asciiTerminators = new boolean [128];
+    for (char c : terminators) {
+      if (c < 128)
+        asciiTerminators[c] = true;
+    }
+
+    segments = new ArrayList<>();
+    specifiers = new ArrayList<>();
+    literal = new StringBuilder();
+    parsingArg = false;
+    start = 0;
+
+    for (int k = 0; k < string.length(); k++) {
+
+      char c = string.charAt(k);
+
+      if (parsingArg) {
+        if (c == '%') {
+          if (k == start) {
+            literal.append('%');
+            parsingArg = false;
+          }
+          else
+            throw new IllegalArgumentException(
+                String.format(
+                  "bad format specifier: %%%s",
+                  string.substring(start, k)
+                  )
+                );
+        }
+        else if (
+            c < 128
+              ? asciiTerminators[c]
+              : ArrayTools.contains(terminators, c)
+            ) {
+          if (literal.length() != 0) {
+            segments.add(literal.toString());
+            specifiers.add(false);
+            literal.setLength(0);
+          }
+          segments.add(string.substring(start, k + 1));
+          specifiers.add(true);
+          parsingArg = false;
+        }
+      }
+      else if (c == '%') {
+        parsingArg = true;
+        start = k + 1;
+      }
+      else
+        literal.append(c);
+    }
+
+    if (literal.length() != 0) {
+      segments.add(literal.toString());
+      specifiers.add(false);
+    }
+
+    return new FormatTemplate(string, segments, specifiers);
+  }
+
+
+  private final String source;
+  private final String[] segments;
+  private final boolean[] specifiers;
+
+  private FormatTemplate(
+      String source,
+      List<String> segments,
+      List<Boolean> specifiers
+      ) {
+
+    this.source = source;
+    this.segments = segments.toArray(new String [segments.size()]);
+    this.specifiers = new boolean [specifiers.size()];
+    for (int k = 0; k < this.specifiers.length; k++)
+      this.specifiers[k] = specifiers.get(k);
+  }
+
+  /**
+   * gets the format string from which this template was compiled
+   *
+   * @return the source format string
+   */
+  public String getSource() {
+    return this.source;
+  }
+
+  /**
+   * gets the number of segments, literal or specifier, in this template
+   *
+   * @return the number of segments
+   */
+  public int getSegmentCount() {
+    return this.segments.length;
+  }
+
+  /**
+   * gets the segment at the given index. For literal segments, this is the
+   * literal text. For specifiers, it is the specifier text without the
+   * leading '%', but including its terminator
+   *
+   * @param index the index of the segment
+   * @return the segment text
+   */
+  public String getSegment(int index) {
+    return this.segments[index];
+  }
+
+  /**
+   * gets whether or not the segment at the given index is a specifier
+   *
+   * @param index the index of the segment
+   * @return true if the segment is a specifier, false if it is a literal
+   */
+  public boolean isSpecifier(int index) {
+    return this.specifiers[index];
+  }
+
+  /**
+   * renders this template, replacing each specifier with the value returned
+   * for it by the callback
+   *
+   * @param callback function mapping specifier text to its replacement
+   * @return the rendered string
+   */
+  public String render(Function<String, String> callback) {
+
+    StringBuilder sb;
+
+    if (this.segments.length == 1 && !this.specifiers[0])
+      return this.segments[0];
+
+    sb = new StringBuilder();
+    renderTo(sb, callback);
+
+    return sb.toString();
+  }
+
+  /**
+   * renders this template into the given buffer, replacing each specifier
+   * with the value returned for it by the callback
+   *
+   * @param sb the buffer to append to
+   * @param callback function mapping specifier text to its replacement
+   */
+  public void renderTo(StringBuilder sb, Function<String, String> callback) {
+
+    String callbackRet;
+
+    if (sb == null)
+      throw new IllegalArgumentException("sb cannot be null");
+    if (callback == null)
+      throw new IllegalArgumentException("callback cannot be null");
+
+    for (int k = 0; k < this.segments.length; k++) {
+      if (!this.specifiers[k]) {
+        sb.append(this.segments[k]);
+        continue;
+      }
+
+      callbackRet = callback.apply(this.segments[k]);
+      if (callbackRet == null)
+        throw new IllegalArgumentException(
+            String.format("bad format specifier: %%%s", this.segments[k])
+            );
+      sb.append(callbackRet);
+    }
+  }
+
+}
@@ -22,10 +22,9 @@
 package upsilon.tools;
 
 
-import java.util.LinkedList;
-import java.util.List;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import upsilon.types.CharPredicate;
 
 
 public /*static*/ class StringTools { private StringTools() {  }
@@ -53,18 +52,36 @@ public /*static*/ class StringTools { private StringTools() {  }
 	}
 
   public static boolean containsASCIIControlCharacter(String string) {
-    return contains(string, c -> c < 0x20);
+    return containsChar(string, c -> c < 0x20);
   }
   public static boolean containsNonASCIICharacter(String string) {
-    return contains(string, c -> c > 0x7F);
+    return containsChar(string, c -> c > 0x7F);
   }
 
   public static boolean contains(String string, Predicate<Character> predicate){
+
+    if (predicate == null)
+      throw new IllegalArgumentException("predicate cannot be null");
+
+    return containsChar(string, predicate::test);
+  }
+
+  public static boolean containsChar(String string, CharPredicate predicate) {
+    return indexOfChar(string, predicate) != -1;
+  }
+
+  public static int indexOfChar(String string, CharPredicate predicate) {
+
+    if (string == null)
+      throw new IllegalArgumentException("string cannot be null");
+    if (predicate == null)
+      throw new IllegalArgumentException("predicate cannot be null");
+
     for (int k = 0; k < string.length(); k++) {
       if (predicate.test(string.charAt(k)))
-        return true;
+        return k;
     }
-    return false;
+    return -1;
   }
 
 
@@ -145,7 +162,7 @@ public /*static*/ class StringTools { private StringTools() {  }
 		else if (string.length() >= length)
 			return string;
 
-		return repeat(string.length() - length, c) + string;
+		return repeat(length - string.length(), c) + string;
 	}
 
 	public static String rightPad(String string, int length) {
@@ -158,7 +175,7 @@ public /*static*/ class StringTools { private StringTools() {  }
 		else if (string.length() >= length)
 			return string;
 	 
-		return string + repeat(string.length() - length, c);
+		return string + repeat(length - string.length(), c);
 	}
 
 	public static String leftChop(String string, int length) {
@@ -181,64 +198,23 @@ public /*static*/ class StringTools { private StringTools() {  }
 			return string;
 	}
 
+  public static FormatTemplate compileFormat(
+    String string,
+    char[] terminators
+    ) {
+    return FormatTemplate.compile(string, terminators);
+  }
+
   public static String format(
     String string,
     char[] terminators,
     Function<String, String> callback
 	  ) {
 
-    String callbackRet;
-		StringBuilder sb, buffer;
-		boolean parsingArg = false;
-
 		if (!string.contains("%"))
 		  return string;
 
-		sb = new StringBuilder();
-		buffer = new StringBuilder();
-
-		for (char c : string.toCharArray()) {
-
-			if (parsingArg) {
-				if (c == '%') {
-					if (buffer.toString().isEmpty()) {
-						sb.append("%");
-						parsingArg = false;
-					}
-					else
-						throw new IllegalArgumentException(
-										String.format(
-									    "bad format specifier: %%%s",
-											buffer.toString()
-										)
-									);
-				}
-				else if (ArrayTools.contains(terminators, c)) {
-					callbackRet = callback.apply(buffer.toString() + c);
-          if (callbackRet == null)
-            throw new IllegalArgumentException(
-                    String.format(
-                      "bad format specifier: %%%s",
-                      buffer.toString() + c
-                    )
-                  );
-          sb.append(callbackRet);
-					buffer = new StringBuilder();
-				  parsingArg = false;
-				}
-				else {
-					buffer.append(c);
-				}
-			}
-			else {
-				if (c == '%')
-					parsingArg = true;
-				else
-					sb.append(c);
-			}
-		}
-
-		return sb.toString();
+    return FormatTemplate.compile(string, terminators).render(callback);
   }
 
 }
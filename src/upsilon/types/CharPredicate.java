@@ -0,0 +1,81 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.types;
+
+import java.util.function.Predicate;
+
+/**
+ * A predicate over primitive chars, so that scanning code can test each
+ * character without boxing it. It extends Predicate&lt;Character&gt; so that
+ * it can be passed wherever one is expected
+ */
+@FunctionalInterface
+public interface CharPredicate extends Predicate<Character> {
+
+  CharPredicate ASCII_DIGIT = range('0', '9');
+  CharPredicate ASCII_LETTER = range('a', 'z').or(range('A', 'Z'));
+  CharPredicate ASCII_WHITESPACE = anyOf(" \t\n\f\r")
+      .or(range('\u000B', '\u000B'))
+      .or(range('\u001C', '\u001F'));
+  CharPredicate ASCII_IDENTIFIER = ASCII_LETTER.or(ASCII_DIGIT).or(anyOf("_"));
+
+  boolean test(char c);
+
+  @Override
+  default boolean test(Character c) {
+    return test(c.charValue());
+  }
+
+  default CharPredicate and(CharPredicate other) {
+    if (other == null)
+      throw new IllegalArgumentException("other cannot be null");
+
+    return c -> test(c) && other.test(c);
+  }
+
+  default CharPredicate or(CharPredicate other) {
+    if (other == null)
+      throw new IllegalArgumentException("other cannot be null");
+
+    return c -> test(c) || other.test(c);
+  }
+
+  @Override
+  default CharPredicate negate() {
+    return c -> !test(c);
+  }
+
+  /* matches every character of chars, testing ascii ones against a bitset */
+  static CharPredicate anyOf(CharSequence chars) {
+    if (chars == null)
+      throw new IllegalArgumentException("chars cannot be null");
+
+    return CharSetPredicate.of(chars);
+  }
+
+  static CharPredicate range(char from, char to) {
+    if (from > to)
+      throw new IllegalArgumentException("from cannot be greater than to");
+
+    return CharSetPredicate.range(from, to);
+  }
+
+}
@@ -0,0 +1,216 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.types;
+
+import java.util.Arrays;
+
+/**
+ * A set of characters kept as a 128 bit bitset for ascii plus sorted ranges
+ * for anything above, so that the common case is a shift and a mask. Sets
+ * combined with and, or and negate stay sets, so composed predicates cost
+ * no more to test than the originals
+ */
+final class CharSetPredicate implements CharPredicate {
+
+  private final long low;
+  private final long high;
+  /* sorted, disjoint, inclusive [from, to] pairs of non-ascii characters */
+  private final char[] ranges;
+
+  private CharSetPredicate(long low, long high, char[] ranges) {
+    this.low = low;
+    this.high = high;
+    this.ranges = ranges;
+  }
+
+  static CharSetPredicate of(CharSequence chars) {
+
+    CharSetPredicate ret;
+
+    ret = new CharSetPredicate(0, 0, new char[0]);
+    for (int k = 0; k < chars.length(); k++)
+      ret = ret.union(range(chars.charAt(k), chars.charAt(k)));
+
+    return ret;
+  }
+
+  static CharSetPredicate range(char from, char to) {
+
+    long low;
+    long high;
+    char[] ranges;
+
+    low = 0;
+    high = 0;
+    for (int c = from; c <= to && c < 128; c++) {
+      if (c < 64)
+        low |= 1L << c;
+      else
+        high |= 1L << (c - 64);
+    }
+
+    if (to < 128)
+      ranges = new char[0];
+    else
+      ranges = new char[] { (char) Math.max(from, 128), to };
+
+    return new CharSetPredicate(low, high, ranges);
+  }
+
+  @Override
+  public boolean test(char c) {
+
+    int index;
+
+    if (c < 64)
+      return (this.low & (1L << c)) != 0;
+    if (c < 128)
+      return (this.high & (1L << (c - 64))) != 0;
+    if (this.ranges.length == 0)
+      return false;
+
+    /* c is inside a range when the insertion point lands on its end */
+    index = Arrays.binarySearch(this.ranges, c);
+
+    return index >= 0 || (-index - 1) % 2 == 1;
+  }
+
+  @Override
+  public CharPredicate and(CharPredicate other) {
+    if (other instanceof CharSetPredicate)
+      return intersection((CharSetPredicate) other);
+
+    return CharPredicate.super.and(other);
+  }
+
+  @Override
+  public CharPredicate or(CharPredicate other) {
+    if (other instanceof CharSetPredicate)
+      return union((CharSetPredicate) other);
+
+    return CharPredicate.super.or(other);
+  }
+
+  @Override
+  public CharPredicate negate() {
+
+    char[] ranges;
+    int count;
+    int next;
+
+    ranges = new char[this.ranges.length + 2];
+    count = 0;
+    next = 128;
+    for (int k = 0; k < this.ranges.length; k += 2) {
+      if (this.ranges[k] > next) {
+        ranges[count++] = (char) next;
+        ranges[count++] = (char) (this.ranges[k] - 1);
+      }
+      next = this.ranges[k + 1] + 1;
+    }
+    if (next <= Character.MAX_VALUE) {
+      ranges[count++] = (char) next;
+      ranges[count++] = Character.MAX_VALUE;
+    }
+
+    return new CharSetPredicate(
+        ~this.low,
+        ~this.high,
+        Arrays.copyOf(ranges, count)
+        );
+  }
+
+  private CharSetPredicate union(CharSetPredicate other) {
+
+    char[] ranges;
+    int count;
+    int a;
+    int b;
+    char from;
+    char to;
+
+    ranges = new char[this.ranges.length + other.ranges.length];
+    count = 0;
+    a = 0;
+    b = 0;
+    while (a < this.ranges.length || b < other.ranges.length) {
+      if (b == other.ranges.length ||
+          (a < this.ranges.length && this.ranges[a] <= other.ranges[b])) {
+        from = this.ranges[a];
+        to = this.ranges[a + 1];
+        a += 2;
+      }
+      else {
+        from = other.ranges[b];
+        to = other.ranges[b + 1];
+        b += 2;
+      }
+
+      /* merge with the previous range when they touch or overlap */
+      if (count != 0 && from <= ranges[count - 1] + 1)
+        ranges[count - 1] = (char) Math.max(ranges[count - 1], to);
+      else {
+        ranges[count++] = from;
+        ranges[count++] = to;
+      }
+    }
+
+    return new CharSetPredicate(
+        this.low | other.low,
+        this.high | other.high,
+        Arrays.copyOf(ranges, count)
+        );
+  }
+
+  private CharSetPredicate intersection(CharSetPredicate other) {
+
+    char[] ranges;
+    int count;
+    int a;
+    int b;
+    char from;
+    char to;
+
+    ranges = new char[this.ranges.length + other.ranges.length];
+    count = 0;
+    a = 0;
+    b = 0;
+    while (a < this.ranges.length && b < other.ranges.length) {
+      from = (char) Math.max(this.ranges[a], other.ranges[b]);
+      to = (char) Math.min(this.ranges[a + 1], other.ranges[b + 1]);
+      if (from <= to) {
+        ranges[count++] = from;
+        ranges[count++] = to;
+      }
+      if (this.ranges[a + 1] < other.ranges[b + 1])
+        a += 2;
+      else
+        b += 2;
+    }
+
+    return new CharSetPredicate(
+        this.low & other.low,
+        this.high & other.high,
+        Arrays.copyOf(ranges, count)
+        );
+  }
+
+}
@@ -0,0 +1,21 @@
+#!/bin/bash
+
+rm -rf test-bin
+mkdir test-bin
+
+javac -Xlint -d test-bin `find src test -name '*.java'`
+if [[ $? != 0 ]] ; then
+  echo javac failed
+  exit 1
+fi
+
+for test in `cd test && find . -name '*Test.java'` ; do
+  class=`echo ${test#./} | sed -e 's/\.java$//' -e 's/\//./g'`
+  java -cp test-bin $class
+  if [[ $? != 0 ]] ; then
+    echo $class failed
+    exit 2
+  fi
+done
+
+rm -rf test-bin
@@ -0,0 +1,250 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.io;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Checks CharDeque against a boxed ArrayDeque, first across a wrap of the
+ * ring and a growth while wrapped, then over a long random sequence of
+ * every operation, comparing the whole contents after each one
+ */
+public class CharDequeTest {
+
+  private static final int OPERATIONS = 20_000;
+
+  public static void main(String[] args) throws IOException {
+    checkWrapAndGrowth();
+    checkRandom(new Random(0x5eedL));
+    System.out.println("CharDequeTest: passed");
+  }
+
+  /**
+   * takes from the front of a minimal ring so that the next characters put
+   * back wrap around its start, then puts back enough to make it grow
+   */
+  private static void checkWrapAndGrowth() throws IOException {
+
+    CharDeque deque;
+    ArrayDeque<Character> expected;
+    StringReader reader;
+
+    deque = new CharDeque(16);
+    expected = new ArrayDeque<>();
+    reader = new StringReader("abcdefghijklmnop");
+
+    fill(deque, expected, reader, 16);
+    for (int k = 0; k < 10; k++)
+      pollFirst(deque, expected);
+    /* six are left at the end of the ring, so these go at its start */
+    fill(deque, expected, new StringReader("qrstuvwxyz"), 10);
+    compare("wrapped", deque, expected);
+
+    addFirst(deque, expected, "0123456789ABCDEFGHIJ");
+    compare("grown while wrapped", deque, expected);
+
+    if (deque.indexOf('z') != expected.size() - 1)
+      throw new AssertionError("indexOf across the wrap");
+    if (deque.indexOf('!') != -1)
+      throw new AssertionError("indexOf of a missing char");
+  }
+
+  private static void checkRandom(Random random) throws IOException {
+
+    CharDeque deque;
+    ArrayDeque<Character> expected;
+    StringReader reader;
+    StringBuilder builder;
+    char[] buffer;
+    int count, start, end, index;
+
+    deque = new CharDeque(1);
+    expected = new ArrayDeque<>();
+    reader = new StringReader(randomText(random, OPERATIONS * 8));
+
+    for (int k = 0; k < OPERATIONS; k++) {
+      switch (random.nextInt(10)) {
+        case 0:
+          addFirst(deque, expected, String.valueOf(randomChar(random)));
+          break;
+        case 1:
+          addFirst(deque, expected, randomText(random, random.nextInt(40)));
+          break;
+        case 2:
+          builder = new StringBuilder(randomText(random, 40));
+          start = random.nextInt(41);
+          end = start + random.nextInt(41 - start);
+          deque.addFirst(builder, start, end);
+          for (int j = end - 1; j >= start; j--)
+            expected.addFirst(builder.charAt(j));
+          break;
+        case 3:
+          if (!expected.isEmpty())
+            pollFirst(deque, expected);
+          break;
+        case 4:
+          buffer = new char [48];
+          start = random.nextInt(8);
+          count = deque.pollFirst(buffer, start, random.nextInt(41));
+          for (int j = 0; j < count; j++)
+            check("pollFirst(char[])", buffer[start + j], expected.pollFirst());
+          break;
+        case 5:
+          builder = new StringBuilder("prefix");
+          count = deque.pollFirst(builder, random.nextInt(40));
+          for (int j = 0; j < count; j++)
+            check("pollFirst(builder)", builder.charAt(6 + j), expected.poll());
+          break;
+        case 6:
+          count = deque.skipFirst(random.nextInt(40));
+          for (int j = 0; j < count; j++)
+            expected.pollFirst();
+          break;
+        case 7:
+          fill(deque, expected, reader, 1 + random.nextInt(64));
+          break;
+        case 8:
+          checkIndexOf(deque, expected, randomChar(random));
+          break;
+        default:
+          if (!expected.isEmpty()) {
+            index = random.nextInt(expected.size());
+            check("get", deque.get(index), nth(expected, index));
+          }
+          break;
+      }
+      compare("operation " + k, deque, expected);
+    }
+  }
+
+  private static void addFirst(
+      CharDeque deque,
+      ArrayDeque<Character> expected,
+      String chars
+      ) {
+    deque.addFirst(chars);
+    for (int k = chars.length() - 1; k >= 0; k--)
+      expected.addFirst(chars.charAt(k));
+  }
+
+  private static void pollFirst(
+      CharDeque deque,
+      ArrayDeque<Character> expected
+      ) {
+    check("pollFirst", deque.pollFirst(), expected.pollFirst());
+  }
+
+  private static void fill(
+      CharDeque deque,
+      ArrayDeque<Character> expected,
+      StringReader reader,
+      int length
+      ) throws IOException {
+
+    int size, read;
+
+    size = deque.size();
+    read = deque.fill(reader, length);
+    if (read > length)
+      throw new AssertionError("fill read " + read + " of " + length);
+    for (int k = 0; k < read; k++)
+      expected.addLast(deque.get(size + k));
+  }
+
+  private static void checkIndexOf(
+      CharDeque deque,
+      ArrayDeque<Character> expected,
+      char c
+      ) {
+
+    Iterator<Character> chars;
+    int index;
+
+    index = 0;
+    chars = expected.iterator();
+    while (chars.hasNext() && chars.next() != c)
+      index++;
+    if (index == expected.size())
+      index = -1;
+
+    if (deque.indexOf(c) != index)
+      throw new AssertionError(
+          "indexOf " + c + " gave " + deque.indexOf(c) + ", not " + index
+          );
+  }
+
+  private static void compare(
+      String name,
+      CharDeque deque,
+      ArrayDeque<Character> expected
+      ) {
+
+    int index;
+
+    if (
+        deque.size() != expected.size()
+        || deque.isEmpty() != expected.isEmpty()
+        )
+      throw new AssertionError(
+          name + ": size " + deque.size() + ", not " + expected.size()
+          );
+
+    index = 0;
+    for (char c : expected)
+      check(name, deque.get(index++), c);
+  }
+
+  private static void check(String name, char actual, char expected) {
+    if (actual != expected)
+      throw new AssertionError(name + ": " + actual + ", not " + expected);
+  }
+
+  private static char nth(ArrayDeque<Character> deque, int index) {
+
+    Iterator<Character> chars;
+
+    chars = deque.iterator();
+    for (int k = 0; k < index; k++)
+      chars.next();
+
+    return chars.next();
+  }
+
+  private static char randomChar(Random random) {
+    return (char) ('a' + random.nextInt(26));
+  }
+
+  private static String randomText(Random random, int length) {
+
+    StringBuilder ret;
+
+    ret = new StringBuilder(length);
+    for (int k = 0; k < length; k++)
+      ret.append(randomChar(random));
+
+    return ret.toString();
+  }
+
+}
@@ -0,0 +1,174 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks what each overflow policy does with entries added while the queue
+ * is full: the writer is held on its first entry while the queue is filled,
+ * then two more entries are added before it is let go
+ */
+public class AsyncAppenderTest {
+
+  private static final int CAPACITY = 4;
+  private static final long STALL_MILLIS = 60_000;
+
+  public static void main(String[] args) throws Exception {
+    check(OverflowPolicy.DROP_NEWEST, "0 1 2 3 4", 2, 0);
+    check(OverflowPolicy.DROP_OLDEST, "0 3 4 5 6", 2, 0);
+    check(OverflowPolicy.CALLER_RUNS, "0 1 2 3 4", 0, 2);
+    checkBlock();
+    System.out.println("AsyncAppenderTest: passed");
+  }
+
+  private static void check(
+      OverflowPolicy policy,
+      String expected,
+      long expectedDropped,
+      int expectedRefused
+      ) throws Exception {
+
+    List<String> written;
+    CountDownLatch gate;
+    AtomicLong dropped;
+    AsyncAppender appender;
+    int refused;
+
+    written = new ArrayList<>();
+    gate = new CountDownLatch(1);
+    dropped = new AtomicLong();
+    appender = create(policy, written, gate, dropped);
+
+    fill(appender);
+    refused = 0;
+    for (int k = CAPACITY + 1; k < CAPACITY + 3; k++) {
+      if (!appender.offer("INFO", Integer.toString(k), null, 0))
+        refused++;
+    }
+    gate.countDown();
+    appender.stop(0);
+
+    check(policy, written, expected);
+    if (dropped.get() != expectedDropped)
+      throw new AssertionError(policy + ": dropped " + dropped.get());
+    if (refused != expectedRefused)
+      throw new AssertionError(policy + ": refused " + refused);
+  }
+
+  private static void checkBlock() throws Exception {
+
+    List<String> written;
+    CountDownLatch gate;
+    AtomicLong dropped;
+    AsyncAppender appender;
+    Thread adder;
+
+    written = new ArrayList<>();
+    gate = new CountDownLatch(1);
+    dropped = new AtomicLong();
+    appender = create(OverflowPolicy.BLOCK, written, gate, dropped);
+
+    fill(appender);
+    adder = new Thread(() -> {
+        appender.offer("INFO", Integer.toString(CAPACITY + 1), null, 0);
+      });
+    adder.start();
+    adder.join(200);
+    if (!adder.isAlive())
+      throw new AssertionError("BLOCK: adding to a full queue did not wait");
+
+    gate.countDown();
+    adder.join(10_000);
+    if (adder.isAlive())
+      throw new AssertionError("BLOCK: adder still waiting once emptied");
+    appender.stop(0);
+
+    check(OverflowPolicy.BLOCK, written, "0 1 2 3 4 5");
+    if (dropped.get() != 0)
+      throw new AssertionError("BLOCK: dropped " + dropped.get());
+  }
+
+  private static AsyncAppender create(
+      OverflowPolicy policy,
+      List<String> written,
+      CountDownLatch gate,
+      AtomicLong dropped
+      ) {
+    return new AsyncAppender(
+        "async-appender-test",
+        CAPACITY,
+        policy,
+        STALL_MILLIS,
+        dropped,
+        new MetricsRecorder(),
+        (levels, lines, fields, timestamps, count) -> {
+          gate.await();
+          synchronized (written) {
+            for (int k = 0; k < count; k++)
+              written.add(lines[k].toString());
+          }
+        },
+        null
+        );
+  }
+
+  /**
+   * adds one entry for the writer to be held on, then fills the queue
+   */
+  private static void fill(AsyncAppender appender) throws Exception {
+
+    long deadline;
+
+    appender.offer("INFO", "0", null, 0);
+    deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (appender.size() != 0) {
+      if (System.nanoTime() - deadline >= 0)
+        throw new AssertionError("the writer never took the first entry");
+      Thread.sleep(1);
+    }
+    for (int k = 1; k <= CAPACITY; k++) {
+      if (!appender.offer("INFO", Integer.toString(k), null, 0))
+        throw new AssertionError("entry " + k + " was refused");
+    }
+  }
+
+  private static void check(
+      OverflowPolicy policy,
+      List<String> written,
+      String expected
+      ) {
+
+    List<String> lines;
+
+    synchronized (written) {
+      lines = new ArrayList<>(written);
+    }
+    if (!lines.equals(Arrays.asList(expected.split(" "))))
+      throw new AssertionError(policy + ": wrote " + lines);
+  }
+
+}
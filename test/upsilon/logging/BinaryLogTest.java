@@ -0,0 +1,259 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the same entries to a text log and to a binary log, and checks
+ * that decoding the binary log gives exactly the text log's lines, also
+ * once the template table is full and entries are written raw, and when
+ * each rotated file of a binary log is decoded on its own
+ */
+public class BinaryLogTest {
+
+  private static final String FORMAT = "[%5l] %c";
+  private static final int ENTRIES = 2000;
+
+  public static void main(String[] args) throws Exception {
+
+    Path directory;
+
+    directory = Files.createTempDirectory("upsilon-log-binary");
+    try {
+      checkRoundTrip(directory);
+      checkTableOverflow(directory);
+      checkRotated(directory);
+    }
+    finally {
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+
+    System.out.println("BinaryLogTest: passed");
+  }
+
+  private static void checkRoundTrip(Path directory) throws Exception {
+
+    Path text, binary;
+    Log log;
+
+    text = directory.resolve("round-trip.log");
+    binary = directory.resolve("round-trip.bin");
+
+    log = open(text, LogFormat.TEXT);
+    writeEntries(log, 0, ENTRIES);
+    log.close();
+
+    log = open(binary, LogFormat.BINARY);
+    writeEntries(log, 0, ENTRIES);
+    log.close();
+
+    compare("round trip", readText(text), decode(binary));
+  }
+
+  /**
+   * every line is a distinct literal, so the table fills up and the rest
+   * are written as raw entries, which must decode all the same
+   */
+  private static void checkTableOverflow(Path directory) throws Exception {
+
+    List<String> expected;
+    Path binary;
+    Log log;
+    int templates, entries, tag;
+
+    binary = directory.resolve("overflow.bin");
+    expected = new ArrayList<>();
+    log = open(binary, LogFormat.BINARY);
+    for (int k = 0; k < 5000; k++) {
+      log.add("distinct line " + k);
+      expected.add("[TRACE] distinct line " + k);
+    }
+    log.close();
+
+    compare("overflow", expected, decode(binary));
+
+    templates = 0;
+    entries = 0;
+    try (InputStream in = Files.newInputStream(binary)) {
+      BinaryRecordReader reader = new BinaryRecordReader(in, 0);
+      while ((tag = reader.next()) != -1) {
+        if (tag == BinaryFormat.TEMPLATE)
+          templates++;
+        else if (tag == BinaryFormat.ENTRY)
+          entries++;
+      }
+    }
+    if (entries != 5000 || templates >= entries)
+      throw new AssertionError(
+          "overflow: " + templates + " templates for " + entries + " entries"
+          );
+  }
+
+  /**
+   * each rotated file must carry the definitions of the templates its own
+   * entries use
+   */
+  private static void checkRotated(Path directory) throws Exception {
+
+    List<String> expected, actual;
+    List<Path> files;
+    Path text, binary;
+    Log log;
+
+    text = directory.resolve("rotated.log");
+    binary = directory.resolve("rotated.bin");
+
+    log = open(text, LogFormat.TEXT);
+    writeEntries(log, 0, ENTRIES);
+    log.close();
+    expected = readText(text);
+
+    log = open(binary, LogFormat.BINARY);
+    log.setRotationSize(4096);
+    writeEntries(log, 0, ENTRIES);
+    log.close();
+
+    files = new ArrayList<>(LogRotator.rotatedFiles(binary));
+    if (files.size() < 2)
+      throw new AssertionError("rotated: only " + files.size() + " files");
+    files.add(binary);
+
+    actual = new ArrayList<>();
+    for (Path file : files)
+      actual.addAll(decode(file));
+    actual.sort(null);
+    expected.sort(null);
+
+    compare("rotated", expected, actual);
+  }
+
+  private static Log open(Path path, LogFormat format) {
+
+    Log log;
+
+    log = new Log(path.toString(), true);
+    log.setCharset(StandardCharsets.UTF_8);
+    log.setFormat(FORMAT);
+    log.setOutputFormat(format);
+
+    return log;
+  }
+
+  /**
+   * adds entries through every kind of add, several sharing each template
+   */
+  private static void writeEntries(Log log, int from, int count) {
+    for (int k = from; k < from + count; k++) {
+      switch (k % 10) {
+        case 0:
+          log.add("repeated literal line");
+          break;
+        case 1:
+          log.add("formatted %s and %d", "text " + k, k);
+          break;
+        case 2:
+          log.addInt("int %d", k);
+          break;
+        case 3:
+          log.addLong("longs %d %d", k, -k * 1_000_000_000L);
+          break;
+        case 4:
+          log.addDouble("double %s", k / 4.0);
+          break;
+        case 5:
+          log.add(LogLevel.WARN, "level %s with null %s", k, null);
+          break;
+        case 6:
+          log.add("%5d padded by String.format", k);
+          break;
+        case 7:
+          log.at(LogLevel.INFO)
+            .message("structured")
+            .kv("k", k)
+            .kv("name", "a b")
+            .kv("ratio", 0.5)
+            .commit();
+          break;
+        case 8:
+          String supplied = "supplied \u00e9 " + k;
+          log.add(() -> supplied);
+          break;
+        default:
+          log.add(LogLevel.ERROR, "error line");
+          break;
+      }
+    }
+  }
+
+  private static List<String> readText(Path path) throws IOException {
+    return Files.readAllLines(path, StandardCharsets.UTF_8);
+  }
+
+  private static List<String> decode(Path path) throws IOException {
+
+    LogDecoder decoder;
+    StringBuilder out;
+
+    decoder = new LogDecoder();
+    decoder.setFormat(FORMAT);
+    out = new StringBuilder();
+    decoder.decode(path, out);
+    if (out.length() == 0)
+      return new ArrayList<>();
+
+    out.setLength(out.length() - 1);
+    return new ArrayList<>(Arrays.asList(out.toString().split("\n", -1)));
+  }
+
+  private static void compare(
+      String name,
+      List<String> expected,
+      List<String> actual
+      ) {
+
+    if (actual.size() != expected.size())
+      throw new AssertionError(
+          name + ": " + actual.size() + " of " + expected.size() + " lines"
+          );
+    for (int k = 0; k < expected.size(); k++) {
+      if (!expected.get(k).equals(actual.get(k)))
+        throw new AssertionError(String.format(
+            "%s: line %d is \"%s\", not \"%s\"",
+            name,
+            k,
+            actual.get(k),
+            expected.get(k)
+            ));
+    }
+  }
+
+}
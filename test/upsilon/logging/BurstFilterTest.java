@@ -0,0 +1,167 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that templates which hash to the same slots cannot reset each
+ * other's count by taking turns, that everything suppressed is summarised
+ * exactly once, and that a log reports a burst which has stopped without
+ * waiting for anything further to be logged
+ */
+public class BurstFilterTest {
+
+  private static final int LIMIT = 10;
+  private static final int ROUNDS = 10_000;
+
+  public static void main(String[] args) throws Exception {
+    checkCollidingTemplates();
+    checkStoppedBurst();
+    System.out.println("BurstFilterTest: passed");
+  }
+
+  private static void checkCollidingTemplates() {
+
+    List<String> templates, summaries;
+    AtomicLong suppressed, reported;
+    BurstFilter filter;
+    long admitted;
+
+    templates = collidingTemplates(3);
+    summaries = new ArrayList<>();
+    suppressed = new AtomicLong();
+    reported = new AtomicLong();
+    filter = new BurstFilter(
+        LIMIT,
+        60_000,
+        0,
+        suppressed,
+        (level, template, count) -> {
+          synchronized (summaries) {
+            summaries.add(template);
+          }
+          reported.addAndGet(count);
+        });
+
+    admitted = 0;
+    for (int k = 0; k < ROUNDS; k++) {
+      for (String template : templates) {
+        if (filter.admit("ERROR", template))
+          admitted++;
+      }
+    }
+    filter.close();
+
+    /* two templates hold the slots, the third shares the overflow slot */
+    if (admitted != 3 * LIMIT)
+      throw new AssertionError(
+          "colliding: " + admitted + " entries admitted, not " + 3 * LIMIT
+          );
+    if (suppressed.get() != 3L * ROUNDS - admitted)
+      throw new AssertionError("colliding: suppressed " + suppressed.get());
+    if (reported.get() != suppressed.get())
+      throw new AssertionError(
+          "colliding: " + reported.get() + " of " + suppressed.get()
+            + " suppressed entries summarised"
+          );
+    if (summaries.size() != 3)
+      throw new AssertionError("colliding: summaries " + summaries);
+  }
+
+  /**
+   * nothing is logged after the burst, yet its summary must be written
+   * once the interval is over
+   */
+  private static void checkStoppedBurst() throws Exception {
+
+    Path directory, path;
+    Log log;
+    long deadline;
+    boolean found;
+
+    directory = Files.createTempDirectory("upsilon-log-burst");
+    path = directory.resolve("burst.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setBurstLimit(2);
+      log.setBurstInterval(100);
+      for (int k = 0; k < 10; k++)
+        log.add("boom");
+
+      found = false;
+      deadline = System.currentTimeMillis() + 10_000;
+      while (!found && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+        found = Files.exists(path) && new String(
+            Files.readAllBytes(path),
+            StandardCharsets.UTF_8
+            ).contains(" : boom (repeated 8 more times)");
+      }
+      if (!found)
+        throw new AssertionError("stopped burst: summary was never written");
+    }
+    finally {
+      log.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * finds templates which all hash to the same pair of slots
+   */
+  private static List<String> collidingTemplates(int count) {
+
+    List<String> ret;
+    String template;
+    int bucket;
+
+    ret = new ArrayList<>();
+    bucket = -1;
+    for (int k = 0; ret.size() < count; k++) {
+      template = "failure " + k;
+      if (bucket == -1)
+        bucket = bucketOf(template);
+      if (bucketOf(template) == bucket)
+        ret.add(template);
+    }
+
+    return ret;
+  }
+
+  private static int bucketOf(String template) {
+
+    int hash;
+
+    hash = template.hashCode();
+    hash ^= hash >>> 16;
+    return hash & ((1 << 10) - 2);
+  }
+
+}
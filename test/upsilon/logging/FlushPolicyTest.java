@@ -0,0 +1,203 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks when each flush policy writes held back entries to the file, that
+ * the entries are grouped into the expected batches, and that syncing on
+ * flush forces every batch
+ */
+public class FlushPolicyTest {
+
+  public static void main(String[] args) throws Exception {
+    checkImmediate();
+    checkEntryCount();
+    checkInterval();
+    checkSyncOnFlush();
+    System.out.println("FlushPolicyTest: passed");
+  }
+
+  private static void checkImmediate() throws Exception {
+
+    Path directory;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-flush");
+    log = create(directory);
+    try {
+      for (int k = 1; k <= 10; k++) {
+        log.add("entry %d", k);
+        expectLines("immediate", log, k);
+      }
+      expectBatches("immediate", log.getBatchStatistics(), 10, 1, 0);
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static void checkEntryCount() throws Exception {
+
+    Path directory;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-flush");
+    log = create(directory);
+    try {
+      log.setFlushPolicy(FlushPolicy.ENTRY_COUNT);
+      log.setFlushEntryCount(4);
+      for (int k = 1; k <= 10; k++) {
+        log.add("entry %d", k);
+        expectLines("entry count", log, k - k % 4);
+      }
+      expectBatches("entry count", log.getBatchStatistics(), 2, 4, 0);
+
+      log.flush();
+      expectLines("entry count", log, 10);
+      expectBatches("entry count", log.getBatchStatistics(), 3, 4, 1);
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  /**
+   * entries must be written once the interval is over even though nothing
+   * more is added
+   */
+  private static void checkInterval() throws Exception {
+
+    Path directory;
+    long deadline;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-flush");
+    log = create(directory);
+    try {
+      log.setFlushPolicy(FlushPolicy.INTERVAL);
+      log.setFlushInterval(200);
+      for (int k = 1; k <= 5; k++)
+        log.add("entry %d", k);
+      expectLines("interval", log, 0);
+
+      deadline = System.currentTimeMillis() + 10_000;
+      while (
+          lineCount(log) != 5
+          && System.currentTimeMillis() < deadline
+          )
+        Thread.sleep(20);
+      expectLines("interval", log, 5);
+      expectBatches("interval", log.getBatchStatistics(), 1, 5, 0);
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static void checkSyncOnFlush() throws Exception {
+
+    Path directory;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-flush");
+    log = create(directory);
+    try {
+      log.setFlushPolicy(FlushPolicy.ENTRY_COUNT);
+      log.setFlushEntryCount(4);
+      log.setSyncOnFlush(true);
+      for (int k = 1; k <= 10; k++)
+        log.add("entry %d", k);
+      expectBatches("sync on flush", log.getBatchStatistics(), 2, 4, 2);
+
+      /* a flush forces the file once, whether or not anything is pending */
+      log.flush();
+      expectBatches("sync on flush", log.getBatchStatistics(), 3, 4, 3);
+      log.flush();
+      expectBatches("sync on flush", log.getBatchStatistics(), 3, 4, 4);
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static Log create(Path directory) {
+
+    Log log;
+
+    log = new Log(directory.resolve("flush.log").toString(), true);
+    log.setFormat("%c");
+    return log;
+  }
+
+  private static void expectLines(String name, Log log, int expected)
+      throws IOException {
+
+    int count;
+
+    count = lineCount(log);
+    if (count != expected)
+      throw new AssertionError(
+          name + ": " + count + " lines written, not " + expected
+          );
+  }
+
+  private static void expectBatches(
+      String name,
+      BatchStatistics statistics,
+      long batches,
+      long maxBatchSize,
+      long syncs
+      ) {
+    if (
+        statistics.getBatchCount() != batches
+        || statistics.getMaxBatchSize() != maxBatchSize
+        || statistics.getSyncCount() != syncs
+        )
+      throw new AssertionError(name + ": " + statistics);
+  }
+
+  private static int lineCount(Log log) throws IOException {
+
+    Path path;
+
+    path = log.getPath();
+    if (!Files.exists(path))
+      return 0;
+    return Files.readAllLines(path, StandardCharsets.UTF_8).size();
+  }
+
+  private static void delete(Path directory) throws IOException {
+    for (File file : directory.toFile().listFiles())
+      Files.delete(file.toPath());
+    Files.delete(directory);
+  }
+
+}
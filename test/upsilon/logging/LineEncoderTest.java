@@ -0,0 +1,204 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the hand-written and cached encoders produce exactly the bytes
+ * String.getBytes does, replacements included, whether encoding into heap
+ * or direct buffers, and that a log writes those bytes to its file
+ */
+public class LineEncoderTest {
+
+  private static final String[] CHARSETS = new String[] {
+    "US-ASCII", "ISO-8859-1", "UTF-8", "UTF-16LE", "windows-1252",
+  };
+
+  private static final String[] LINES = new String[] {
+    "",
+    "plain ascii",
+    "caf\u00e9 \u00fcber \u00ff",
+    "\u20ac \u65e5\u672c\u8a9e \uffff",
+    "pair \ud83d\ude00 end",
+    "lone high \ud83d x",
+    "lone low \ude00 x",
+    "high at end \ud83d",
+    "\u0000\u007f\u0080\u07ff\u0800",
+  };
+
+  private static final int RANDOM_LINES = 2000;
+
+  public static void main(String[] args) throws Exception {
+    checkLines();
+    checkRandom();
+    checkLog();
+    System.out.println("LineEncoderTest: passed");
+  }
+
+  private static void checkLines() {
+    for (String name : CHARSETS) {
+      for (String line : LINES) {
+        check(Charset.forName(name), line, false);
+        check(Charset.forName(name), line, true);
+      }
+      check(Charset.forName(name), repeat("\u00e9\ud83d\ude00x", 5000), true);
+    }
+  }
+
+  private static void checkRandom() {
+
+    StringBuilder sb;
+    Random random;
+    int length;
+
+    random = new Random(10);
+    sb = new StringBuilder();
+    for (int k = 0; k < RANDOM_LINES; k++) {
+      sb.setLength(0);
+      length = random.nextInt(64);
+      for (int j = 0; j < length; j++)
+        sb.append(randomChar(random));
+      for (String name : CHARSETS)
+        check(Charset.forName(name), sb.toString(), random.nextBoolean());
+    }
+  }
+
+  /**
+   * a log writing in a charset without a fast path, through direct
+   * buffers, must leave exactly the bytes of its lines in the file
+   */
+  private static void checkLog() throws Exception {
+
+    Path directory, path;
+    StringBuilder expected;
+    byte[] written;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-encoder");
+    path = directory.resolve("encoder.log");
+    log = new Log(path.toString(), true);
+    expected = new StringBuilder();
+    try {
+      log.setFormat("%c");
+      log.setCharset(StandardCharsets.UTF_16LE);
+      log.setDirectBuffers(true);
+      for (String line : LINES) {
+        if (line.isEmpty())
+          continue;
+        log.add(line);
+        expected.append(line).append('\n');
+      }
+      log.close();
+
+      written = Files.readAllBytes(path);
+      if (
+          !Arrays.equals(
+            written,
+            expected.toString().getBytes(StandardCharsets.UTF_16LE)
+            )
+          )
+        throw new AssertionError("log: file differs from getBytes");
+    }
+    finally {
+      log.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  private static void check(Charset charset, String line, boolean direct) {
+
+    ByteBuffer encoded;
+    byte[] actual, expected;
+
+    encoded = LineEncoder.get().encode(
+        new StringBuilder(line),
+        charset,
+        direct
+        );
+    if (encoded.isDirect() != direct)
+      throw new AssertionError(charset + ": wrong kind of buffer");
+
+    actual = new byte [encoded.remaining()];
+    encoded.get(actual);
+    expected = line.getBytes(charset);
+    if (!Arrays.equals(actual, expected))
+      throw new AssertionError(
+          charset + ": " + Arrays.toString(actual) + " instead of "
+            + Arrays.toString(expected) + " for " + escape(line)
+          );
+  }
+
+  /**
+   * picks mostly from the ranges the encoders treat differently, including
+   * surrogates which may not be paired
+   */
+  private static char randomChar(Random random) {
+    switch (random.nextInt(6)) {
+      case 0:
+        return (char) random.nextInt(0x80);
+      case 1:
+        return (char) (0x80 + random.nextInt(0x80));
+      case 2:
+        return (char) (0x100 + random.nextInt(0x700));
+      case 3:
+        return (char) (0xD800 + random.nextInt(0x800));
+      default:
+        return (char) random.nextInt(0x10000);
+    }
+  }
+
+  private static String repeat(String text, int count) {
+
+    StringBuilder sb;
+
+    sb = new StringBuilder();
+    for (int k = 0; k < count; k++)
+      sb.append(text);
+
+    return sb.toString();
+  }
+
+  private static String escape(String line) {
+
+    StringBuilder sb;
+
+    sb = new StringBuilder();
+    for (char c : line.toCharArray()) {
+      if (c < 0x20 || c > 0x7E)
+        sb.append(String.format("\\u%04x", (int) c));
+      else
+        sb.append(c);
+    }
+
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,79 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Checks that logfmt keys are quoted and escaped exactly as values are, so
+ * that a line still splits back into the fields it was written with
+ */
+public class LogEntryTest {
+
+  public static void main(String[] args) throws Exception {
+    checkKeys();
+    System.out.println("LogEntryTest: passed");
+  }
+
+  private static void checkKeys() throws Exception {
+
+    Path directory, path;
+    List<String> lines;
+    String expected;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-entry");
+    path = directory.resolve("entry.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setFormat("%c %v");
+      log.at(LogLevel.INFO)
+          .message("m")
+          .kv("plain", 1)
+          .kv("has space", "v v")
+          .kv("a=b", "x")
+          .kv("q\"k", "y")
+          .kv("back\\slash", "z")
+          .kv("new\nline", "w")
+          .kv("", "empty")
+          .kv(null, 2)
+          .commit();
+      log.close();
+
+      lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+      expected = "m plain=1 \"has space\"=\"v v\" \"a=b\"=x \"q\\\"k\"=y"
+        + " \"back\\\\slash\"=z \"new\\nline\"=w \"\"=empty null=2";
+      if (lines.size() != 1 || !lines.get(0).equals(expected))
+        throw new AssertionError("keys: " + lines + ", not " + expected);
+    }
+    finally {
+      log.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+}
@@ -0,0 +1,385 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that seeking by time through the index of a text or binary log
+ * gives every entry at or after the instant and nothing before it, that
+ * rebuilding an index from its log seeks the same way, that points left
+ * referring past the end of a truncated log are dropped, and that points
+ * are never written ahead of the entries they refer to
+ */
+public class LogIndexTest {
+
+  /** the time of each entry, in milliseconds, then its content */
+  private static final String FORMAT = "%U%K %c";
+  private static final int ENTRIES = 3000;
+  private static final int INTERVAL = 16;
+
+  public static void main(String[] args) throws Exception {
+
+    Path directory;
+
+    directory = Files.createTempDirectory("upsilon-log-index");
+    try {
+      checkText(directory.resolve("text.log"));
+      checkBinary(directory.resolve("binary.log"));
+      checkTruncated(directory.resolve("truncated.log"));
+      checkPointsFollowEntries(directory.resolve("pending.log"));
+    }
+    finally {
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+
+    System.out.println("LogIndexTest: passed");
+  }
+
+  private static void checkText(Path path) throws Exception {
+
+    List<String> lines;
+    byte[] written;
+
+    write(path, LogFormat.TEXT);
+    lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+    if (lines.size() != ENTRIES)
+      throw new AssertionError("text: " + lines.size() + " lines");
+    checkTextSeeks("text", path, lines);
+
+    written = Files.readAllBytes(LogIndex.pathOf(path));
+    Files.delete(LogIndex.pathOf(path));
+    LogIndex.rebuild(
+        path,
+        INTERVAL,
+        0,
+        StandardCharsets.US_ASCII,
+        LogIndexTest::timestampOf
+        );
+    if (!Arrays.equals(written, Files.readAllBytes(LogIndex.pathOf(path))))
+      throw new AssertionError("text: rebuilt index differs");
+    checkTextSeeks("text rebuilt", path, lines);
+  }
+
+  private static void checkBinary(Path path) throws Exception {
+
+    List<String> lines;
+
+    write(path, LogFormat.BINARY);
+    lines = decode(path, null);
+    if (lines.size() != ENTRIES)
+      throw new AssertionError("binary: " + lines.size() + " entries");
+    checkBinarySeeks("binary", path, lines);
+
+    Files.delete(LogIndex.pathOf(path));
+    LogIndex.rebuild(path, INTERVAL, 0, null, null);
+    checkBinarySeeks("binary rebuilt", path, lines);
+  }
+
+  /**
+   * cuts the log in half behind its index's back; the points past the cut
+   * must be ignored by seeking and discarded when the log is reopened
+   */
+  private static void checkTruncated(Path path) throws Exception {
+
+    long size;
+    Log log;
+
+    write(path, LogFormat.TEXT);
+    size = Files.size(path) / 2;
+    try (FileChannel channel = FileChannel.open(
+        path,
+        StandardOpenOption.WRITE
+        )) {
+      channel.truncate(size);
+    }
+    if (maxOffset(path) <= size)
+      throw new AssertionError("truncated: no point was left dangling");
+
+    if (LogIndex.find(path, Instant.ofEpochMilli(Long.MAX_VALUE / 2)) > size)
+      throw new AssertionError("truncated: seek went past the end");
+
+    log = new Log(path.toString(), true);
+    log.setFormat(FORMAT);
+    log.setIndexEntryInterval(INTERVAL);
+    log.add("after truncation");
+    log.close();
+
+    checkPoints("truncated", path);
+  }
+
+  /**
+   * with entries held back by a long flush interval, and a point due before
+   * every entry, far more points pile up than the index buffers; none may
+   * reach the index before its entry reaches the log
+   */
+  private static void checkPointsFollowEntries(Path path) throws Exception {
+
+    Log log;
+
+    log = new Log(path.toString(), true);
+    log.setFormat(FORMAT);
+    log.setFlushPolicy(FlushPolicy.INTERVAL);
+    log.setFlushInterval(60_000);
+    log.setIndexEntryInterval(1);
+    try {
+      for (int k = 0; k < 1000; k++) {
+        log.add("pending " + k);
+        if (k % 100 == 99 && maxOffset(path) >= size(path))
+          throw new AssertionError(String.format(
+              "pending: point at %d with %d bytes of log written",
+              maxOffset(path),
+              size(path)
+              ));
+      }
+    }
+    finally {
+      log.close();
+    }
+
+    if (Files.size(LogIndex.pathOf(path)) != 1000 * TimeIndex.POINT_SIZE)
+      throw new AssertionError("pending: points were lost");
+    checkPoints("pending", path);
+  }
+
+  /**
+   * writes entries spread over a few hundred milliseconds, so that many
+   * instants fall between indexed points
+   */
+  private static void write(Path path, LogFormat format) throws Exception {
+
+    Log log;
+
+    log = new Log(path.toString(), true);
+    log.setFormat(FORMAT);
+    log.setOutputFormat(format);
+    log.setIndexEntryInterval(INTERVAL);
+    for (int k = 0; k < ENTRIES; k++) {
+      log.add("entry " + k);
+      if (k % 20 == 19)
+        Thread.sleep(1);
+    }
+    log.close();
+  }
+
+  private static void checkTextSeeks(
+      String name,
+      Path path,
+      List<String> lines
+      ) throws IOException {
+
+    List<String> actual;
+
+    for (Instant from : instants(lines)) {
+      try (Stream<String> seeked = LogIndex.lines(
+          path,
+          from,
+          StandardCharsets.US_ASCII,
+          LogIndexTest::timestampOf
+          )) {
+        actual = seeked.collect(Collectors.toList());
+      }
+      compare(name, from, lines, actual);
+    }
+    checkSkips(name, path, lines);
+  }
+
+  private static void checkBinarySeeks(
+      String name,
+      Path path,
+      List<String> lines
+      ) throws IOException {
+
+    for (Instant from : instants(lines))
+      compare(name, from, lines, decode(path, from));
+    checkSkips(name, path, lines);
+  }
+
+  /**
+   * the index must actually be used: seeking to the last entry starts well
+   * into the file
+   */
+  private static void checkSkips(
+      String name,
+      Path path,
+      List<String> lines
+      ) throws IOException {
+
+    long offset;
+
+    offset = LogIndex.find(
+        path,
+        Instant.ofEpochMilli(timestampOf(lines.get(lines.size() - 1)))
+        );
+    if (offset < Files.size(path) / 2)
+      throw new AssertionError(name + ": seek to the end starts at " + offset);
+  }
+
+  /**
+   * the entries at or after the instant must be exactly those returned
+   */
+  private static void compare(
+      String name,
+      Instant from,
+      List<String> lines,
+      List<String> actual
+      ) {
+
+    List<String> expected;
+    int first;
+
+    first = 0;
+    while (
+        first < lines.size()
+        && timestampOf(lines.get(first)) < from.toEpochMilli()
+        )
+      first++;
+    expected = lines.subList(first, lines.size());
+
+    if (!expected.equals(actual))
+      throw new AssertionError(String.format(
+          "%s: from %s gave %d entries, not %d",
+          name,
+          from,
+          actual.size(),
+          expected.size()
+          ));
+  }
+
+  /**
+   * every distinct entry time, with the instants just before the first and
+   * just after the last
+   */
+  private static List<Instant> instants(List<String> lines) {
+
+    List<Instant> ret;
+    long previous, timestamp;
+
+    ret = new ArrayList<>();
+    previous = Long.MIN_VALUE;
+    for (String line : lines) {
+      timestamp = timestampOf(line);
+      if (timestamp != previous)
+        ret.add(Instant.ofEpochMilli(timestamp));
+      previous = timestamp;
+    }
+    ret.add(Instant.ofEpochMilli(timestampOf(lines.get(0)) - 1));
+    ret.add(Instant.ofEpochMilli(previous + 1));
+
+    return ret;
+  }
+
+  private static List<String> decode(Path path, Instant from)
+      throws IOException {
+
+    LogDecoder decoder;
+    StringBuilder out;
+    List<String> ret;
+
+    decoder = new LogDecoder();
+    decoder.setFormat(FORMAT);
+    out = new StringBuilder();
+    if (from == null)
+      decoder.decode(path, out);
+    else
+      decoder.decode(path, from, out);
+
+    ret = new ArrayList<>();
+    for (String line : out.toString().split("\n")) {
+      if (!line.isEmpty())
+        ret.add(line);
+    }
+
+    return ret;
+  }
+
+  private static long timestampOf(String line) {
+    return Long.parseLong(line.substring(0, line.indexOf(' ')));
+  }
+
+  private static long size(Path path) throws IOException {
+    return Files.exists(path) ? Files.size(path) : 0;
+  }
+
+  /**
+   * checks that the offsets of the points in the log's index rise, as they
+   * would were none left over from before a truncation, and lie within the
+   * log
+   */
+  private static void checkPoints(String name, Path path) throws IOException {
+
+    ByteBuffer index;
+    long previous, offset;
+
+    index = ByteBuffer.wrap(Files.readAllBytes(LogIndex.pathOf(path)));
+    previous = -1;
+    while (index.remaining() >= TimeIndex.POINT_SIZE) {
+      index.getLong();
+      offset = index.getLong();
+      if (offset <= previous || offset >= Files.size(path))
+        throw new AssertionError(String.format(
+            "%s: point at %d after %d in a log of %d bytes",
+            name,
+            offset,
+            previous,
+            Files.size(path)
+            ));
+      previous = offset;
+    }
+  }
+
+  /**
+   * gets the greatest offset of any point in the log's index, or -1
+   */
+  private static long maxOffset(Path path) throws IOException {
+
+    ByteBuffer index;
+    long ret;
+
+    if (!Files.exists(LogIndex.pathOf(path)))
+      return -1;
+
+    index = ByteBuffer.wrap(Files.readAllBytes(LogIndex.pathOf(path)));
+    ret = -1;
+    while (index.remaining() >= TimeIndex.POINT_SIZE) {
+      index.getLong();
+      ret = Math.max(ret, index.getLong());
+    }
+
+    return ret;
+  }
+
+}
@@ -0,0 +1,212 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a log's metrics agree with what it actually wrote, syncing
+ * and suppressed entries included, that the histograms place durations in
+ * the documented buckets, and that no recording is lost when many threads
+ * record at once
+ */
+public class LogMetricsTest {
+
+  private static final int ENTRIES = 100;
+  private static final int BATCH = 10;
+  private static final int THREADS = 4;
+  private static final int RECORDS = 100_000;
+
+  public static void main(String[] args) throws Exception {
+    checkLog();
+    checkAsynchronous();
+    checkHistogram();
+    checkConcurrent();
+    System.out.println("LogMetricsTest: passed");
+  }
+
+  private static void checkLog() throws Exception {
+
+    Path directory, path;
+    LogMetrics metrics;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-metrics");
+    path = directory.resolve("metrics.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setFormat("%c");
+      log.setFlushPolicy(FlushPolicy.ENTRY_COUNT);
+      log.setFlushEntryCount(BATCH);
+      log.setSyncOnFlush(true);
+      for (int k = 0; k < ENTRIES; k++)
+        log.add("entry %03d", k);
+      log.setBurstLimit(5);
+      for (int k = 0; k < 20; k++)
+        log.add("burst");
+
+      metrics = log.getMetrics();
+      if (metrics.getEntriesWritten() != ENTRIES)
+        throw new AssertionError("log: " + metrics);
+      if (metrics.getBytesWritten() != Files.size(path))
+        throw new AssertionError(
+            "log: " + metrics.getBytesWritten() + " bytes counted, "
+              + Files.size(path) + " written"
+            );
+      if (metrics.getFormatLatency().getCount() != ENTRIES + 5)
+        throw new AssertionError("log: format " + metrics);
+      if (metrics.getWriteLatency().getCount() != ENTRIES / BATCH)
+        throw new AssertionError("log: write " + metrics);
+      if (metrics.getSyncLatency().getCount() != ENTRIES / BATCH)
+        throw new AssertionError("log: sync " + metrics);
+      if (metrics.getEntriesSuppressed() != 15)
+        throw new AssertionError("log: suppressed " + metrics);
+      if (metrics.getEntriesDropped() != 0 || metrics.getQueueSize() != 0)
+        throw new AssertionError("log: queue " + metrics);
+    }
+    finally {
+      log.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * whatever the queue did, every entry is either written or dropped, and
+   * the queue never grew beyond its capacity
+   */
+  private static void checkAsynchronous() throws Exception {
+
+    Path directory, path;
+    LogMetrics metrics;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-metrics");
+    path = directory.resolve("metrics.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setFormat("%c");
+      log.setAsynchronous(true);
+      log.setQueueCapacity(64);
+      log.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+      for (int k = 0; k < ENTRIES * 10; k++)
+        log.add("entry %03d", k);
+      log.close();
+
+      metrics = log.getMetrics();
+      if (
+          metrics.getEntriesWritten() + metrics.getEntriesDropped()
+            != ENTRIES * 10
+          )
+        throw new AssertionError("asynchronous: " + metrics);
+      if (
+          metrics.getQueueHighWaterMark() < 1
+          || metrics.getQueueHighWaterMark() > 64
+          )
+        throw new AssertionError("asynchronous: queue " + metrics);
+      if (metrics.getBytesWritten() != Files.size(path))
+        throw new AssertionError("asynchronous: bytes " + metrics);
+    }
+    finally {
+      log.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  private static void checkHistogram() {
+
+    LatencyRecorder recorder;
+    LatencyHistogram histogram;
+
+    recorder = new LatencyRecorder();
+    recorder.record(0);
+    for (int k = 1; k <= 100; k++)
+      recorder.record(k);
+    histogram = recorder.snapshot();
+
+    if (
+        histogram.getCount() != 101
+        || histogram.getTotalNanos() != 5050
+        || histogram.getMaxNanos() != 100
+        )
+      throw new AssertionError("histogram: " + histogram);
+
+    /* bucket k holds durations up to 2^k - 1, so 2^(k-1) of them here */
+    if (histogram.getCountInBucket(0) != 1)
+      throw new AssertionError("histogram: bucket 0");
+    for (int k = 1; k <= 6; k++) {
+      if (histogram.getCountInBucket(k) != 1L << (k - 1))
+        throw new AssertionError("histogram: bucket " + k);
+      if (histogram.getBucketLimit(k) != (1L << k) - 1)
+        throw new AssertionError("histogram: limit " + k);
+    }
+    if (histogram.getCountInBucket(7) != 100 - 63)
+      throw new AssertionError("histogram: bucket 7");
+
+    if (
+        histogram.getPercentileNanos(50) != 63
+        || histogram.getPercentileNanos(100) != 100
+        || histogram.getPercentileNanos(0) != 0
+        )
+      throw new AssertionError("histogram: percentiles " + histogram);
+  }
+
+  private static void checkConcurrent() throws Exception {
+
+    List<Thread> threads;
+    MetricsRecorder metrics;
+    LatencyHistogram histogram;
+
+    metrics = new MetricsRecorder();
+    threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      threads.add(new Thread(() -> {
+          for (int k = 0; k < RECORDS; k++) {
+            metrics.written(1, 10);
+            metrics.write.record(10);
+            metrics.queueDepth(k % 100);
+          }
+        }));
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    histogram = metrics.write.snapshot();
+    if (
+        metrics.getEntries() != THREADS * RECORDS
+        || metrics.getBytes() != 10L * THREADS * RECORDS
+        || histogram.getCount() != THREADS * RECORDS
+        || histogram.getTotalNanos() != 10L * THREADS * RECORDS
+        || metrics.getQueueHighWaterMark() != 99
+        )
+      throw new AssertionError("concurrent: " + histogram);
+  }
+
+}
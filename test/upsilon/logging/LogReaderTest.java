@@ -0,0 +1,208 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a log is read back from its rotated, compressed and active
+ * files in the order it was written, with the levels, messages and times of
+ * its entries, and that following it from an offset produces the entries
+ * appended afterwards, across a rotation
+ */
+public class LogReaderTest {
+
+  private static final int ENTRIES = 300;
+  private static final int FOLLOWED = 50;
+  private static final long ROTATION_SIZE = 2000;
+  private static final LogLevel[] LEVELS = new LogLevel[] {
+    LogLevel.DEBUG, LogLevel.INFO, LogLevel.WARN, LogLevel.ERROR,
+  };
+
+  public static void main(String[] args) throws Exception {
+    checkEntries();
+    checkFollow();
+    System.out.println("LogReaderTest: passed");
+  }
+
+  private static void checkEntries() throws Exception {
+
+    Path directory, path;
+    List<LogRecord> records;
+    LogRecord record;
+    LogReader reader;
+    long start, end;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-reader");
+    path = directory.resolve("reader.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setDefaultLevel("TRACE");
+      log.setRotationSize(ROTATION_SIZE);
+      start = System.currentTimeMillis();
+      for (int k = 0; k < ENTRIES; k++)
+        log.add(LEVELS[k % LEVELS.length], "entry %d", k);
+      end = System.currentTimeMillis();
+      log.close();
+      awaitCompressed(path);
+
+      reader = new LogReader(log);
+      try (Stream<LogRecord> entries = reader.entries()) {
+        records = entries.collect(Collectors.toList());
+      }
+      if (records.size() != ENTRIES)
+        throw new AssertionError("entries: " + records.size() + " read");
+
+      for (int k = 0; k < ENTRIES; k++) {
+        record = records.get(k);
+        if (
+            !record.getMessage().equals("entry " + k)
+            || record.getLogLevel() != LEVELS[k % LEVELS.length]
+            )
+          throw new AssertionError("entries: " + k + " read as " + record);
+        /* the default format has times to the second */
+        if (
+            record.getEpochMillis() < start - start % 1000
+            || record.getEpochMillis() > end
+            )
+          throw new AssertionError("entries: time of " + record);
+      }
+
+      /* a single rotated file reads on its own */
+      try (
+          Stream<LogRecord> entries = reader.entries(
+            LogRotator.rotatedFiles(path).get(0)
+            )
+          ) {
+        if (!entries.findFirst().get().getMessage().equals("entry 0"))
+          throw new AssertionError("entries: first rotated file");
+      }
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  /**
+   * follows the log from its second entry while more are added, some of
+   * them after the log has been rotated
+   */
+  private static void checkFollow() throws Exception {
+
+    AtomicReference<Throwable> failure;
+    List<String> messages;
+    Path directory, path;
+    LogReader reader;
+    Stream<LogRecord> followed;
+    Thread follower;
+    long offset;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-reader");
+    path = directory.resolve("follow.log");
+    log = new Log(path.toString(), true);
+    messages = new ArrayList<>();
+    failure = new AtomicReference<>();
+    followed = null;
+    try {
+      log.setRotationSize(ROTATION_SIZE);
+      log.setCompressRotated(false);
+      log.add("skipped");
+      log.add("followed 0");
+
+      reader = new LogReader(log);
+      try (Stream<LogRecord> entries = reader.entries()) {
+        offset = entries.skip(1).findFirst().get().getOffset();
+      }
+
+      followed = reader.follow(offset);
+      final Iterator<LogRecord> iterator = followed.iterator();
+      follower = new Thread(() -> {
+          try {
+            while (messages.size() <= FOLLOWED && iterator.hasNext())
+              messages.add(iterator.next().getMessage());
+          }
+          catch (Throwable e) {
+            failure.set(e);
+          }
+        });
+      follower.start();
+
+      for (int k = 1; k <= FOLLOWED; k++) {
+        log.add("followed %d", k);
+        Thread.sleep(5);
+      }
+      follower.join(10_000);
+      if (follower.isAlive())
+        throw new AssertionError("follow: only read " + messages);
+      if (failure.get() != null)
+        throw new AssertionError("follow: failed", failure.get());
+      if (LogRotator.rotatedFiles(path).isEmpty())
+        throw new AssertionError("follow: the log was never rotated");
+
+      for (int k = 0; k <= FOLLOWED; k++) {
+        if (!messages.get(k).equals("followed " + k))
+          throw new AssertionError("follow: read " + messages);
+      }
+    }
+    finally {
+      if (followed != null)
+        followed.close();
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static void awaitCompressed(Path path) throws Exception {
+
+    long deadline;
+    boolean compressed;
+
+    deadline = System.currentTimeMillis() + 10_000;
+    do {
+      if (System.currentTimeMillis() > deadline)
+        throw new AssertionError("rotated files were never compressed");
+      Thread.sleep(20);
+      compressed = true;
+      for (Path file : LogRotator.rotatedFiles(path)) {
+        if (!file.toString().endsWith(LogRotator.COMPRESSED_SUFFIX))
+          compressed = false;
+      }
+    } while (!compressed);
+  }
+
+  private static void delete(Path directory) throws Exception {
+    for (File file : directory.toFile().listFiles())
+      Files.delete(file.toPath());
+    Files.delete(directory);
+  }
+
+}
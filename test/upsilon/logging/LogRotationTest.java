@@ -0,0 +1,286 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks that a log rotated by size loses no entries and keeps every file
+ * within the size, that rotated files are compressed in the background,
+ * that only the newest rotated files are retained, that a log is rotated
+ * when its rotation pattern renders differently, and that files rotated at
+ * the same moment are listed in the order they were rotated
+ */
+public class LogRotationTest {
+
+  private static final int ENTRIES = 500;
+  private static final long ROTATION_SIZE = 1000;
+
+  public static void main(String[] args) throws Exception {
+    checkCompressed();
+    checkRetained();
+    checkPattern();
+    checkOrder();
+    System.out.println("LogRotationTest: passed");
+  }
+
+  private static void checkCompressed() throws Exception {
+
+    Path directory, path;
+    List<Path> rotated;
+    List<String> lines;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-rotation");
+    path = directory.resolve("rotation.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setFormat("%c");
+      log.setRotationSize(ROTATION_SIZE);
+      for (int k = 0; k < ENTRIES; k++)
+        log.add(entry(k));
+      log.close();
+
+      rotated = awaitRotated(path, files -> {
+          for (Path file : files) {
+            if (!file.toString().endsWith(LogRotator.COMPRESSED_SUFFIX))
+              return false;
+          }
+          return true;
+        });
+      if (rotated.size() < 4)
+        throw new AssertionError("compressed: " + rotated.size() + " files");
+
+      lines = new ArrayList<>();
+      for (Path file : rotated)
+        lines.addAll(read(file));
+      lines.addAll(read(path));
+      Collections.sort(lines);
+      if (!lines.equals(entries(0)))
+        throw new AssertionError("compressed: entries lost or repeated");
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static void checkRetained() throws Exception {
+
+    Path directory, path;
+    List<Path> rotated;
+    List<String> lines;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-rotation");
+    path = directory.resolve("rotation.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setFormat("%c");
+      log.setRotationSize(ROTATION_SIZE);
+      log.setCompressRotated(false);
+      log.setMaxRotatedFiles(2);
+      for (int k = 0; k < ENTRIES; k++)
+        log.add(entry(k));
+      log.close();
+
+      rotated = awaitRotated(path, files -> files.size() == 2);
+
+      /* what is kept must be the newest entries, with none missing */
+      lines = new ArrayList<>();
+      for (Path file : rotated)
+        lines.addAll(read(file));
+      lines.addAll(read(path));
+      Collections.sort(lines);
+      if (lines.isEmpty() || !lines.equals(entries(ENTRIES - lines.size())))
+        throw new AssertionError("retained: " + lines);
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  /**
+   * rotates every second, and adds entries either side of a second
+   * boundary
+   */
+  private static void checkPattern() throws Exception {
+
+    Path directory, path;
+    List<Path> rotated;
+    String expected;
+    long now;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-rotation");
+    path = directory.resolve("rotation.log");
+    log = new Log(path.toString(), true);
+    try {
+      log.setFormat("%c");
+      log.setRotationPattern("%s");
+      log.setCompressRotated(false);
+
+      now = System.currentTimeMillis();
+      Thread.sleep(1000 - now % 1000 + 50);
+      expected = Long.toString((now / 1000 + 1) % 60);
+      log.add("before");
+      Thread.sleep(1000);
+      log.add("after");
+      log.close();
+
+      rotated = awaitRotated(path, files -> files.size() == 1);
+      if (
+          !rotated.get(0).getFileName().toString().equals(
+            "rotation.log." + expected
+            )
+          )
+        throw new AssertionError("pattern: rotated to " + rotated);
+      if (
+          !read(rotated.get(0)).equals(Collections.singletonList("before"))
+          || !read(path).equals(Collections.singletonList("after"))
+          )
+        throw new AssertionError("pattern: entries in the wrong files");
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static void checkOrder() throws Exception {
+
+    Path directory, path;
+    List<Path> expected;
+    FileTime time;
+
+    directory = Files.createTempDirectory("upsilon-log-rotation");
+    path = directory.resolve("rotation.log");
+    expected = new ArrayList<>();
+    time = FileTime.fromMillis(System.currentTimeMillis());
+    try {
+      for (String name : new String[] {
+            "rotation.log.day.gz", "rotation.log.day.1.gz",
+            "rotation.log.day.2", "rotation.log.day.9.gz",
+            "rotation.log.day.10", "rotation.log.day.11.gz",
+          }) {
+        expected.add(directory.resolve(name));
+        Files.write(directory.resolve(name), new byte [0]);
+        Files.setLastModifiedTime(directory.resolve(name), time);
+      }
+
+      if (!LogRotator.rotatedFiles(path).equals(expected))
+        throw new AssertionError(
+            "order: " + LogRotator.rotatedFiles(path)
+            );
+    }
+    finally {
+      delete(directory);
+    }
+  }
+
+  private interface Condition {
+    boolean holds(List<Path> rotated);
+  }
+
+  /**
+   * waits for the background thread to leave the rotated files in the
+   * given state
+   */
+  private static List<Path> awaitRotated(Path path, Condition condition)
+      throws Exception {
+
+    List<Path> rotated;
+    long deadline;
+
+    deadline = System.currentTimeMillis() + 10_000;
+    rotated = LogRotator.rotatedFiles(path);
+    while (!condition.holds(rotated)) {
+      if (System.currentTimeMillis() > deadline)
+        throw new AssertionError("rotated files left as " + rotated);
+      Thread.sleep(20);
+      rotated = LogRotator.rotatedFiles(path);
+    }
+
+    for (Path file : rotated) {
+      if (Files.size(file) > ROTATION_SIZE)
+        throw new AssertionError(file + " exceeds the rotation size");
+    }
+
+    return rotated;
+  }
+
+  private static List<String> read(Path file) throws IOException {
+
+    List<String> ret;
+    InputStream in;
+    String line;
+
+    ret = new ArrayList<>();
+    in = Files.newInputStream(file);
+    if (file.toString().endsWith(LogRotator.COMPRESSED_SUFFIX))
+      in = new GZIPInputStream(in);
+    try (
+        BufferedReader reader = new BufferedReader(
+          new InputStreamReader(in, StandardCharsets.UTF_8)
+          )
+        ) {
+      while ((line = reader.readLine()) != null)
+        ret.add(line);
+    }
+
+    return ret;
+  }
+
+  private static String entry(int k) {
+    return String.format("entry %04d", k);
+  }
+
+  private static List<String> entries(int from) {
+
+    List<String> ret;
+
+    ret = new ArrayList<>();
+    for (int k = from; k < ENTRIES; k++)
+      ret.add(entry(k));
+
+    return ret;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    for (File file : directory.toFile().listFiles())
+      Files.delete(file.toPath());
+    Files.delete(directory);
+  }
+
+}
@@ -0,0 +1,205 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that many asynchronous logs are written by the service's threads
+ * alone, within its limit of open files and losing nothing, that idle files
+ * are closed, and that a log closing its file handle in a service does not
+ * close it for another log still writing to the same file
+ */
+public class LogServiceTest {
+
+  public static void main(String[] args) throws Exception {
+    checkManyLogs();
+    checkIdle();
+    checkSharedPath();
+    System.out.println("LogServiceTest: passed");
+  }
+
+  private static final int LOGS = 20;
+  private static final int THREADS = 4;
+  private static final int ENTRIES = 200;
+
+  private static void checkManyLogs() throws Exception {
+
+    Path directory;
+    List<String> lines;
+    List<Thread> threads;
+    AtomicInteger mostOpen;
+    LogService service;
+    Log[] logs;
+
+    directory = Files.createTempDirectory("upsilon-log-service");
+    service = new LogService(2, 3, 60_000);
+    logs = new Log [LOGS];
+    threads = new ArrayList<>();
+    mostOpen = new AtomicInteger();
+    try {
+      for (int k = 0; k < LOGS; k++) {
+        logs[k] = new Log(
+            directory.resolve("log" + k + ".log").toString(),
+            true,
+            service
+            );
+        logs[k].setFormat("%c");
+        logs[k].setAsynchronous(true);
+      }
+
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        threads.add(new Thread(() -> {
+            for (int k = 0; k < ENTRIES; k++) {
+              logs[k % LOGS].add("thread %d entry %d", thread, k);
+              mostOpen.accumulateAndGet(service.getOpenFileCount(), Math::max);
+            }
+          }));
+      }
+      for (Thread thread : threads)
+        thread.start();
+      for (Thread thread : threads)
+        thread.join();
+
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        if (thread.getName().startsWith("upsilon-log-writer"))
+          throw new AssertionError("many logs: a log started " + thread);
+      }
+      for (Log log : logs)
+        log.close();
+
+      if (mostOpen.get() > service.getMaxOpenFiles())
+        throw new AssertionError("many logs: " + mostOpen + " files open");
+      for (int k = 0; k < LOGS; k++) {
+        lines = Files.readAllLines(logs[k].getPath(), StandardCharsets.UTF_8);
+        if (lines.size() != THREADS * ENTRIES / LOGS)
+          throw new AssertionError("many logs: log" + k + " has " + lines);
+      }
+    }
+    finally {
+      for (Log log : logs) {
+        if (log != null)
+          log.close();
+      }
+      service.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  private static void checkIdle() throws Exception {
+
+    Path directory;
+    List<String> lines;
+    LogService service;
+    long deadline;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-service");
+    service = new LogService(1, 4, 100);
+    log = new Log(directory.resolve("idle.log").toString(), true, service);
+    try {
+      log.setFormat("%c");
+      log.add("before");
+      if (service.getOpenFileCount() != 1)
+        throw new AssertionError("idle: file was not opened");
+
+      deadline = System.currentTimeMillis() + 10_000;
+      while (
+          service.getOpenFileCount() != 0
+          && System.currentTimeMillis() < deadline
+          )
+        Thread.sleep(20);
+      if (service.getOpenFileCount() != 0)
+        throw new AssertionError("idle: file was never closed");
+
+      /* the file is reopened on demand */
+      log.add("after");
+      log.close();
+      lines = Files.readAllLines(log.getPath(), StandardCharsets.UTF_8);
+      if (!lines.equals(Arrays.asList("before", "after")))
+        throw new AssertionError("idle: " + lines);
+    }
+    finally {
+      log.close();
+      service.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+  private static void checkSharedPath() throws Exception {
+
+    Path directory, path;
+    List<String> lines;
+    LogService service;
+    Log first, second;
+
+    directory = Files.createTempDirectory("upsilon-log-service");
+    path = directory.resolve("shared.log");
+    service = new LogService(1, 4, 60_000);
+    first = new Log(path.toString(), true, service);
+    second = new Log(path.toString(), true, service);
+    try {
+      first.setFormat("%c");
+      second.setFormat("%c");
+      first.add("first 1");
+      second.add("second 1");
+      first.close();
+
+      if (service.getOpenFileCount() != 1)
+        throw new AssertionError(
+            "shared path: closing one log closed the file of the other"
+            );
+
+      second.add("second 2");
+      second.close();
+      if (service.getOpenFileCount() != 0)
+        throw new AssertionError(
+            "shared path: " + service.getOpenFileCount()
+              + " files left open once both logs were closed"
+            );
+
+      lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+      if (!lines.equals(Arrays.asList("first 1", "second 1", "second 2")))
+        throw new AssertionError("shared path: " + lines);
+    }
+    finally {
+      first.close();
+      second.close();
+      service.close();
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+  }
+
+}
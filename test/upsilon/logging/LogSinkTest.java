@@ -0,0 +1,249 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that every sink of a log receives exactly the bytes written to its
+ * file, that a sink removed from a log is closed and given nothing more,
+ * and that a stuck or failing sink holds up neither the other sinks nor the
+ * thread adding entries
+ */
+public class LogSinkTest {
+
+  private static final int ENTRIES = 200;
+  private static final int CAPACITY = 64;
+
+  public static void main(String[] args) throws Exception {
+    checkFanOut();
+    checkRemoved();
+    checkIsolated();
+    System.out.println("LogSinkTest: passed");
+  }
+
+  private static void checkFanOut() throws Exception {
+
+    Path directory, path, copy;
+    ByteArrayOutputStream out;
+    MemorySink memory;
+    byte[] expected;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-sink");
+    path = directory.resolve("sink.log");
+    copy = directory.resolve("copy.log");
+    out = new ByteArrayOutputStream();
+    memory = new MemorySink(ENTRIES);
+    log = new Log(path.toString(), true);
+    try {
+      log.setQueueCapacity(ENTRIES);
+      log.addSink(memory);
+      log.addSink(new OutputStreamSink(out));
+      log.addSink(new FileSink(copy));
+      for (int k = 0; k < ENTRIES; k++)
+        log.add("entry %d", k);
+      log.close();
+
+      expected = Files.readAllBytes(path);
+      if (!Arrays.equals(out.toByteArray(), expected))
+        throw new AssertionError("fan out: stream differs from the log");
+      if (!Arrays.equals(Files.readAllBytes(copy), expected))
+        throw new AssertionError("fan out: file differs from the log");
+      if (
+          !memory.getEntries().equals(
+            Files.readAllLines(path, StandardCharsets.UTF_8)
+            )
+          )
+        throw new AssertionError("fan out: memory differs from the log");
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private static void checkRemoved() throws Exception {
+
+    Path directory;
+    CountingSink sink;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-sink");
+    sink = new CountingSink(null, false);
+    log = new Log(directory.resolve("sink.log").toString(), true);
+    try {
+      log.addSink(sink);
+      for (int k = 0; k < 10; k++)
+        log.add("entry %d", k);
+      log.removeSink(sink);
+      if (!sink.closed || !log.getSinks().isEmpty())
+        throw new AssertionError("removed: sink was not closed");
+      for (int k = 0; k < 10; k++)
+        log.add("entry %d", k);
+      log.close();
+
+      if (sink.written.get() != 10)
+        throw new AssertionError("removed: " + sink.written + " written");
+    }
+    finally {
+      log.close();
+      delete(directory);
+    }
+  }
+
+  /**
+   * one sink is held on its first entry and another fails every write,
+   * while the memory sink must keep up with every entry regardless
+   */
+  private static void checkIsolated() throws Exception {
+
+    Path directory;
+    CountDownLatch gate;
+    CountingSink stuck, failing;
+    MemorySink memory;
+    long deadline;
+    Log log;
+
+    directory = Files.createTempDirectory("upsilon-log-sink");
+    gate = new CountDownLatch(1);
+    stuck = new CountingSink(gate, false);
+    failing = new CountingSink(null, true);
+    memory = new MemorySink(ENTRIES);
+    log = new Log(directory.resolve("sink.log").toString(), true);
+    try {
+      log.setFormat("%c");
+      log.setQueueCapacity(CAPACITY);
+      log.addSink(stuck);
+      log.addSink(failing);
+      log.addSink(memory);
+
+      for (int k = 0; k < ENTRIES; k++) {
+        log.add("entry %d", k);
+        deadline = System.currentTimeMillis() + 10_000;
+        while (memory.getEntries().size() != k + 1) {
+          if (System.currentTimeMillis() > deadline)
+            throw new AssertionError("isolated: memory sink held up");
+          Thread.yield();
+        }
+      }
+      if (Files.readAllLines(log.getPath()).size() != ENTRIES)
+        throw new AssertionError("isolated: log file held up");
+
+      /* counts are only kept while the sinks belong to the log */
+      gate.countDown();
+      awaitCount("stuck", () ->
+          stuck.written.get() + log.getSinkDroppedCount(stuck) == ENTRIES
+          );
+      awaitCount("failing", () ->
+          log.getSinkDroppedCount(failing) == ENTRIES
+          );
+      if (log.getSinkDroppedCount(stuck) == 0)
+        throw new AssertionError("isolated: stuck sink dropped nothing");
+      if (failing.written.get() != 0 || log.getSinkFailureCount(failing) == 0)
+        throw new AssertionError("isolated: failing sink never failed");
+      if (log.getSinkDroppedCount(memory) != 0)
+        throw new AssertionError("isolated: memory sink dropped entries");
+    }
+    finally {
+      gate.countDown();
+      log.close();
+      delete(directory);
+    }
+  }
+
+  private interface Count {
+    boolean reached();
+  }
+
+  private static void awaitCount(String name, Count count)
+      throws InterruptedException {
+
+    long deadline;
+
+    deadline = System.currentTimeMillis() + 10_000;
+    while (!count.reached()) {
+      if (System.currentTimeMillis() > deadline)
+        throw new AssertionError("isolated: " + name + " sink never done");
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * counts the entries written to it, optionally waiting on a gate before
+   * its first write or failing every write
+   */
+  private static class CountingSink implements LogSink {
+
+    final AtomicInteger written;
+    final CountDownLatch gate;
+    final boolean fail;
+    volatile boolean closed;
+
+    CountingSink(CountDownLatch gate, boolean fail) {
+      this.written = new AtomicInteger();
+      this.gate = gate;
+      this.fail = fail;
+      this.closed = false;
+    }
+
+    @Override
+    public void write(ByteBuffer entry, long timestamp) throws IOException {
+      if (this.gate != null) {
+        try {
+          this.gate.await();
+        }
+        catch (InterruptedException e) {
+          throw new IOException("interrupted");
+        }
+      }
+      if (this.fail)
+        throw new IOException("failing sink");
+      this.written.incrementAndGet();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+      this.closed = true;
+    }
+  }
+
+  private static void delete(Path directory) throws IOException {
+    for (File file : directory.toFile().listFiles())
+      Files.delete(file.toPath());
+    Files.delete(directory);
+  }
+
+}
@@ -0,0 +1,136 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Races appending threads against threads which hold the writer for other
+ * reasons, and checks that with FlushPolicy.IMMEDIATE every entry is in the
+ * file as soon as all of them have returned, before any further append or
+ * close could pick up entries left behind on the queue
+ */
+public class LogWriterConcurrencyTest {
+
+  private static final int ROUNDS = 200;
+  private static final int APPENDERS = 4;
+  private static final int ENTRIES = 500;
+  private static final byte[] ENTRY =
+      "0123456789abcdef\n".getBytes(StandardCharsets.US_ASCII);
+
+  public static void main(String[] args) throws Exception {
+
+    Path directory;
+    DirectoryStream<Path> files;
+
+    directory = Files.createTempDirectory("upsilon-log-writer");
+    try {
+      for (int round = 0; round < ROUNDS; round++)
+        runRound(directory.resolve("round-" + round + ".log"), round % 3);
+    }
+    finally {
+      files = Files.newDirectoryStream(directory);
+      try {
+        for (Path path : files)
+          Files.delete(path);
+      }
+      finally {
+        files.close();
+      }
+      Files.delete(directory);
+    }
+
+    System.out.println(
+        "LogWriterConcurrencyTest: " + ROUNDS + " rounds passed"
+        );
+  }
+
+  private static void runRound(Path path, int holder) throws Exception {
+
+    LogWriter writer;
+    Thread[] appenders;
+    Thread contender;
+    AtomicBoolean done;
+    long expected;
+    long actual;
+
+    writer = new LogWriter(
+        new FileLogChannel(path),
+        new LogRotator(TimestampCache.zoneFor(false)),
+        new MetricsRecorder()
+        );
+    done = new AtomicBoolean(false);
+    appenders = new Thread[APPENDERS];
+    for (int k = 0; k < APPENDERS; k++) {
+      appenders[k] = new Thread(() -> {
+        try {
+          for (int i = 0; i < ENTRIES; i++)
+            writer.append(ByteBuffer.wrap(ENTRY), System.currentTimeMillis());
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+    contender = new Thread(() -> {
+      try {
+        while (!done.get()) {
+          if (holder == 0)
+            writer.getStatistics();
+          else if (holder == 1)
+            writer.scheduledCommit();
+          else
+            writer.commitPending();
+        }
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+
+    contender.start();
+    for (Thread appender : appenders)
+      appender.start();
+    for (Thread appender : appenders)
+      appender.join();
+    done.set(true);
+    contender.join();
+
+    expected = (long) APPENDERS * ENTRIES * ENTRY.length;
+    actual = Files.exists(path) ? Files.size(path) : 0;
+    writer.close();
+
+    if (actual != expected)
+      throw new AssertionError(String.format(
+          "%s: %d of %d bytes written before close",
+          path.getFileName(),
+          actual,
+          expected
+          ));
+  }
+
+}
@@ -0,0 +1,149 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes memory-mapped logs, closes and reopens them, and checks that the
+ * content written before and after reopening reads back whole, in both
+ * the text and the binary format, whose entries end in a zero byte. Also
+ * checks that a channel left open, as by a crash, is resumed at the end of
+ * its content rather than at the end of its slack
+ */
+public class MappedLogChannelTest {
+
+  private static final int ENTRIES = 1000;
+  private static final long REGION_SIZE = 4096;
+
+  public static void main(String[] args) throws Exception {
+
+    Path directory;
+
+    directory = Files.createTempDirectory("upsilon-log-mapped");
+    try {
+      checkText(directory.resolve("text.log"));
+      checkBinary(directory.resolve("binary.log"));
+      checkCrash(directory.resolve("crash.log"));
+    }
+    finally {
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+
+    System.out.println("MappedLogChannelTest: passed");
+  }
+
+  private static void checkText(Path path) throws Exception {
+
+    List<String> lines;
+
+    for (int session = 0; session < 3; session++)
+      write(path, LogFormat.TEXT, session);
+
+    lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    if (lines.size() != 3 * ENTRIES)
+      throw new AssertionError(
+          "text: " + lines.size() + " of " + 3 * ENTRIES + " lines"
+          );
+    for (int k = 0; k < lines.size(); k++) {
+      if (!lines.get(k).endsWith(" : entry " + k))
+        throw new AssertionError("text: line " + k + " is " + lines.get(k));
+    }
+    checkNoMarker(path);
+  }
+
+  private static void checkBinary(Path path) throws Exception {
+
+    StringBuilder out;
+    String[] lines;
+    long count;
+
+    for (int session = 0; session < 3; session++)
+      write(path, LogFormat.BINARY, session);
+
+    out = new StringBuilder();
+    count = new LogDecoder().decode(path, out);
+    lines = out.toString().split("\n");
+    if (count != 3 * ENTRIES || lines.length != 3 * ENTRIES)
+      throw new AssertionError(
+          "binary: " + count + " of " + 3 * ENTRIES + " entries"
+          );
+    for (int k = 0; k < lines.length; k++) {
+      if (!lines[k].endsWith(" : entry " + k))
+        throw new AssertionError("binary: line " + k + " is " + lines[k]);
+    }
+    checkNoMarker(path);
+  }
+
+  /**
+   * a channel which is never closed leaves its slack and its marker behind;
+   * the next channel must resume exactly where the content ended, even
+   * though that content ends in zero bytes
+   */
+  private static void checkCrash(Path path) throws Exception {
+
+    MappedLogChannel crashed, resumed;
+    byte[] content;
+
+    crashed = new MappedLogChannel(path, REGION_SIZE);
+    crashed.write(ByteBuffer.wrap(new byte[] { 1, 2, 0, 0 }));
+    if (Files.size(path) != REGION_SIZE)
+      throw new AssertionError("crash: slack was not mapped");
+
+    resumed = new MappedLogChannel(path, REGION_SIZE);
+    resumed.write(ByteBuffer.wrap(new byte[] { 3, 0 }));
+    resumed.close();
+
+    content = Files.readAllBytes(path);
+    if (!Arrays.equals(content, new byte[] { 1, 2, 0, 0, 3, 0 }))
+      throw new AssertionError(
+          "crash: content is " + Arrays.toString(content)
+          );
+    checkNoMarker(path);
+  }
+
+  private static void write(Path path, LogFormat format, int session) {
+
+    Log log;
+
+    log = new Log(path.toString(), true);
+    log.setMemoryMapped(true);
+    log.setMappedRegionSize(REGION_SIZE);
+    log.setOutputFormat(format);
+    for (int k = 0; k < ENTRIES; k++)
+      log.add("entry " + (session * ENTRIES + k));
+    log.close();
+  }
+
+  private static void checkNoMarker(Path path) {
+    if (Files.exists(MappedLogChannel.markerOf(path)))
+      throw new AssertionError(path.getFileName() + ": marker left behind");
+  }
+
+}
@@ -0,0 +1,195 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.math.BigInteger;
+import java.util.Formattable;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * Checks that MessageFormatter renders its subset of formats exactly as
+ * String.format does, and that it leaves everything else to String.format
+ * rather than rendering it differently, including in a locale whose
+ * digits are not ASCII
+ */
+public class MessageFormatterTest {
+
+  private static final Formattable FORMATTABLE =
+      (Formatter formatter, int flags, int width, int precision) ->
+        formatter.format("formattable");
+
+  /** formats rendered by MessageFormatter itself, with their arguments */
+  private static final Object[][] SUPPORTED = {
+    { "plain text" },
+    { "" },
+    { "%s", "text" },
+    { "%s", new StringBuilder("builder") },
+    { "%s", (Object) null },
+    { "%s and %s", 1, 2L },
+    { "%s", 'c' },
+    { "%s", 1.5 },
+    { "%s", -0.0 },
+    { "%s", Double.NaN },
+    { "%s", true },
+    { "%d", 0 },
+    { "%d", -12 },
+    { "%d", Long.MIN_VALUE },
+    { "%d", Long.MAX_VALUE },
+    { "%d", (short) 7 },
+    { "%d", (byte) -8 },
+    { "100%% of %d%%", 42 },
+    { "line%nbreak %d", 3 },
+    { "extra arguments %s", "used", "ignored" },
+    { "%s%s%d", "a", "b", 9 },
+  };
+
+  /** formats MessageFormatter must hand back to String.format */
+  private static final Object[][] UNSUPPORTED = {
+    { "%5d", 1 },
+    { "%-5s", "x" },
+    { "%x", 255 },
+    { "%.2f", 1.5 },
+    { "%,d", 1000000 },
+    { "%1$s", "x" },
+    { "%d", 1.5 },
+    { "%d", BigInteger.ONE },
+    { "%d", "text" },
+    { "%s", FORMATTABLE },
+    { "%s %s", "missing" },
+    { "trailing %" },
+  };
+
+  public static void main(String[] args) {
+
+    Locale previous;
+
+    previous = Locale.getDefault(Locale.Category.FORMAT);
+    try {
+      Locale.setDefault(Locale.Category.FORMAT, Locale.US);
+      check(SUPPORTED, true);
+      check(UNSUPPORTED, false);
+      checkPrimitives(true);
+
+      /* this locale formats '%d' with its own digits */
+      Locale.setDefault(Locale.Category.FORMAT, Locale.forLanguageTag("ar-EG"));
+      check(SUPPORTED, null);
+      check(UNSUPPORTED, false);
+      checkPrimitives(null);
+    }
+    finally {
+      Locale.setDefault(Locale.Category.FORMAT, previous);
+    }
+
+    System.out.println("MessageFormatterTest: passed");
+  }
+
+  /**
+   * renders each case through the object arguments; a case expected to be
+   * supported must render, one expected not to must fall back, and one for
+   * which either is allowed must match String.format if it renders
+   */
+  private static void check(Object[][] cases, Boolean supported) {
+
+    MessageFormatter formatter;
+    Object[] params;
+    String format;
+
+    for (Object[] c : cases) {
+      format = (String) c[0];
+      params = new Object [c.length - 1];
+      System.arraycopy(c, 1, params, 0, params.length);
+
+      formatter = MessageFormatter.begin(format);
+      try {
+        for (Object param : params)
+          formatter.arg(param);
+        compare(format, params, formatter.finish(), supported);
+      }
+      finally {
+        formatter.end();
+      }
+    }
+  }
+
+  /**
+   * renders through the primitive arguments the boxing-free adds use
+   */
+  private static void checkPrimitives(Boolean supported) {
+
+    MessageFormatter formatter;
+
+    formatter = MessageFormatter.begin("request %d took %s ms, %d%%");
+    try {
+      formatter.arg(-17);
+      formatter.arg(2.25);
+      formatter.arg(Long.MAX_VALUE);
+      compare(
+          "request %d took %s ms, %d%%",
+          new Object[] { -17, 2.25, Long.MAX_VALUE },
+          formatter.finish(),
+          supported
+          );
+    }
+    finally {
+      formatter.end();
+    }
+
+    formatter = MessageFormatter.begin("%d");
+    try {
+      formatter.arg(1.5);
+      compare("%d", new Object[] { 1.5 }, formatter.finish(), false);
+    }
+    finally {
+      formatter.end();
+    }
+  }
+
+  private static void compare(
+      String format,
+      Object[] params,
+      CharSequence rendered,
+      Boolean supported
+      ) {
+
+    String expected;
+
+    if (rendered == null) {
+      if (supported != null && supported)
+        throw new AssertionError("\"" + format + "\" was not supported");
+      return;
+    }
+    if (supported != null && !supported)
+      throw new AssertionError(
+          "\"" + format + "\" rendered \"" + rendered + "\" unsupported"
+          );
+
+    expected = String.format(format, params);
+    if (!expected.equals(rendered.toString()))
+      throw new AssertionError(String.format(
+          "\"%s\" rendered \"%s\", not \"%s\"",
+          format,
+          rendered,
+          expected
+          ));
+  }
+
+}
@@ -0,0 +1,194 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *\
+ *                                                                         *
+ *  Upsilon: A general utilities library for java                          *
+ *  Copyright (C) 2018  LeqxLeqx                                           *
+ *                                                                         *
+ *  This program is free software: you can redistribute it and/or modify   *
+ *  it under the terms of the GNU Lesser General Public License as         *
+ *  published by the Free Software Foundation, either version 3 of the     *
+ *  License, or (at your option) any later version.                        *
+ *                                                                         *
+ *  This program is distributed in the hope that it will be useful,        *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of         *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the          *
+ *  GNU Lesser General Public License for more details.                    *
+ *                                                                         *
+ *  You should have received a copy of the GNU Lesser General Public       *
+ *  License along with this program.                                       *
+ *  If not, see <http://www.gnu.org/licenses/>.                            *
+ *                                                                         *
+\* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package upsilon.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a child JVM which logs asynchronously, kills it, and checks what
+ * the log recovered. A SIGTERM runs the shutdown hook, which must drain
+ * every queued and staged entry even though the flush interval has not
+ * elapsed. A SIGKILL runs nothing, so only entries already committed
+ * survive, but the file must still end on a whole entry
+ */
+public class ShutdownDrainCrashTest {
+
+  private static final int ENTRIES = 100_000;
+  private static final String READY = "ready";
+
+  public static void main(String[] args) throws Exception {
+
+    Path directory;
+
+    if (args.length == 3) {
+      child(args[0], Boolean.parseBoolean(args[1]), args[2]);
+      return;
+    }
+
+    directory = Files.createTempDirectory("upsilon-log-crash");
+    try {
+      checkTerminated(directory.resolve("terminated.log"));
+      checkKilled(directory.resolve("killed.log"));
+    }
+    finally {
+      for (File file : directory.toFile().listFiles())
+        Files.delete(file.toPath());
+      Files.delete(directory);
+    }
+
+    System.out.println("ShutdownDrainCrashTest: passed");
+  }
+
+  /**
+   * every entry is queued or staged when the child is terminated, and the
+   * shutdown hook must write them all
+   */
+  private static void checkTerminated(Path path) throws Exception {
+
+    Process child;
+    List<String> lines;
+
+    child = start(path, false);
+    child.destroy();
+    if (!child.waitFor(30, TimeUnit.SECONDS))
+      throw new AssertionError("child did not exit after SIGTERM");
+
+    lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+    if (lines.size() != ENTRIES)
+      throw new AssertionError(String.format(
+          "SIGTERM: %d of %d entries recovered",
+          lines.size(),
+          ENTRIES
+          ));
+    checkOrder(lines, "SIGTERM");
+  }
+
+  /**
+   * the child waits until the writer has committed every entry, so after a
+   * SIGKILL they must all be there, ending on a whole line
+   */
+  private static void checkKilled(Path path) throws Exception {
+
+    Process child;
+    List<String> lines;
+    byte[] bytes;
+
+    child = start(path, true);
+    child.destroyForcibly();
+    if (!child.waitFor(30, TimeUnit.SECONDS))
+      throw new AssertionError("child did not exit after SIGKILL");
+
+    bytes = Files.readAllBytes(path);
+    if (bytes.length == 0 || bytes[bytes.length - 1] != '\n')
+      throw new AssertionError("SIGKILL: log ends within an entry");
+
+    lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+    if (lines.size() != ENTRIES)
+      throw new AssertionError(String.format(
+          "SIGKILL: %d of %d committed entries recovered",
+          lines.size(),
+          ENTRIES
+          ));
+    checkOrder(lines, "SIGKILL");
+  }
+
+  private static void checkOrder(List<String> lines, String signal) {
+    for (int k = 0; k < lines.size(); k++) {
+      if (!lines.get(k).endsWith(": entry " + k))
+        throw new AssertionError(
+            signal + ": unexpected line " + k + ": " + lines.get(k)
+            );
+    }
+  }
+
+  private static Process start(Path path, boolean committed)
+      throws IOException {
+
+    ProcessBuilder builder;
+    Process ret;
+    BufferedReader output;
+    String line;
+
+    builder = new ProcessBuilder(
+        System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java",
+        "-cp",
+        System.getProperty("java.class.path"),
+        ShutdownDrainCrashTest.class.getName(),
+        path.toString(),
+        Boolean.toString(committed),
+        READY
+        );
+    builder.redirectErrorStream(true);
+    ret = builder.start();
+
+    output = new BufferedReader(
+        new InputStreamReader(ret.getInputStream(), StandardCharsets.US_ASCII)
+        );
+    while ((line = output.readLine()) != null && !line.equals(READY))
+      System.out.println("child: " + line);
+    if (line == null)
+      throw new AssertionError("child exited before logging");
+
+    return ret;
+  }
+
+  /**
+   * logs the entries asynchronously and reports ready. Unless committed is
+   * set, entries are staged for a minute, so they are only written if the
+   * shutdown hook writes them
+   */
+  private static void child(String path, boolean committed, String ready)
+      throws Exception {
+
+    Log log;
+
+    log = new Log(path, true);
+    if (!committed) {
+      log.setFlushPolicy(FlushPolicy.INTERVAL);
+      log.setFlushInterval(60_000);
+    }
+    log.setQueueCapacity(ENTRIES);
+    log.setAsynchronous(true);
+    log.setDrainOnShutdown(true);
+
+    for (int k = 0; k < ENTRIES; k++)
+      log.add("entry %d", k);
+
+    if (committed) {
+      while (log.getMetrics().getEntriesWritten() < ENTRIES)
+        Thread.sleep(1);
+    }
+
+    System.out.println(ready);
+    System.out.flush();
+    Thread.sleep(Long.MAX_VALUE);
+  }
+
+}